@@ -31,14 +31,14 @@ cmd 'kafka-topics \
         --bootstrap-server localhost:9092 \
         --create \
         --topic sound-raw-input \
-        --partitions 1 \
+        --partitions ${PARTITIONS:-1} \
         --replication-factor 1 '
 
 cmd 'kafka-topics \
         --bootstrap-server localhost:9092 \
         --create \
         --topic sound-processed-output \
-        --partitions 1 \
+        --partitions ${PARTITIONS:-1} \
         --replication-factor 1 '
 
 echo 'Run Kafka Connect in separate terminal window:'
@@ -34,6 +34,13 @@ cmd 'kafka-topics \
         --partitions 1 \
         --replication-factor 1 '
 
+cmd 'kafka-topics \
+        --bootstrap-server localhost:9092 \
+        --create \
+        --topic sound-pitch-events \
+        --partitions 1 \
+        --replication-factor 1 '
+
 echo 'Run Kafka Connect in separate terminal window:'
 read -p 'connect-distributed config/connect-distributed.properties '
 echo
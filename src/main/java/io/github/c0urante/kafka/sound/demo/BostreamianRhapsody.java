@@ -74,16 +74,19 @@ public class BostreamianRhapsody {
         public Streams(String[] args, Distortion distortion, Reverb reverb) {
             super(APPLICATION_ID, args);
             this.distortion = distortion;
+            distortion.setOversamplingFactor(config().distortionOversamplingFactor());
             this.reverb = reverb;
         }
 
         @Override
-        protected void defineTopology(KStream<byte[], byte[]> encodedSamplesStream) {
-            KStream<byte[], Short> processedSamples = samples(encodedSamplesStream)
-                    .mapValues(distortion)
-                    .mapValues(reverb);
+        protected void defineTopology(KStream<byte[], short[]> sampleBlocksStream) {
+            KStream<byte[], short[]> processedSamples = process(
+                    sampleBlocksStream,
+                    distortion,
+                    reverb
+            );
 
-            publishProcessedSamples(processedSamples);
+            publishProcessedSampleBlocks(processedSamples);
         }
     }
 
@@ -112,14 +112,14 @@ public class DistortionDemo {
         public Streams(String[] args, Distortion distortion) {
             super(APPLICATION_ID, args);
             this.distortion = distortion;
+            distortion.setOversamplingFactor(config().distortionOversamplingFactor());
         }
 
         @Override
-        protected void defineTopology(KStream<byte[], byte[]> encodedSamplesStream) {
-            KStream<byte[], Short> processedSamples = samples(encodedSamplesStream)
-                    .mapValues(distortion);
+        protected void defineTopology(KStream<byte[], short[]> sampleBlocksStream) {
+            KStream<byte[], short[]> processedSamples = process(sampleBlocksStream, distortion);
 
-            publishProcessedSamples(processedSamples);
+            publishProcessedSampleBlocks(processedSamples);
         }
     }
 
@@ -21,7 +21,6 @@ import io.github.c0urante.kafka.sound.demo.filter.Filter;
 import io.github.c0urante.kafka.sound.demo.pedal.BluetoothPedal;
 import io.github.c0urante.kafka.sound.demo.streams.StreamsApplication;
 import io.github.c0urante.kafka.sound.demo.ui.TextWindow;
-import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
 import org.apache.kafka.streams.kstream.KStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -205,13 +204,10 @@ public class FilterDemo {
         }
 
         @Override
-        protected void defineTopology(KStream<byte[], byte[]> encodedSamplesStream) {
-            KStream<byte[], Short> processedSamples = encodedSamplesStream
-                    .mapValues(SampleUtils::decodeSamples)
-                    .mapValues(filter)
-                    .flatMapValues(samples -> samples);
+        protected void defineTopology(KStream<byte[], short[]> sampleBlocksStream) {
+            KStream<byte[], short[]> processedSamples = process(sampleBlocksStream, filter);
 
-            publishProcessedSamples(processedSamples);
+            publishProcessedSampleBlocks(processedSamples);
         }
     }
 
@@ -18,7 +18,7 @@
 package io.github.c0urante.kafka.sound.demo;
 
 import io.github.c0urante.kafka.sound.demo.loop.Loop;
-import io.github.c0urante.kafka.sound.demo.pedal.SimpleBluetoothPedal;
+import io.github.c0urante.kafka.sound.demo.pedal.BluetoothPedal;
 import io.github.c0urante.kafka.sound.demo.streams.StreamsApplication;
 import org.apache.kafka.streams.kstream.KStream;
 import org.slf4j.Logger;
@@ -29,21 +29,51 @@ public class LoopPedalDemo {
     private static final Logger log = LoggerFactory.getLogger(LoopPedalDemo.class);
 
     public static void main(String[] args) {
-        Loop loop = new Loop(0.8);
-        createkeyBindings(loop);
-        new Streams(args, loop).start();
+        // Where (and whether) loops are kept on disk comes from the config file
+        Streams streams = new Streams(args);
+        createkeyBindings(streams.loop);
+        streams.start();
     }
 
     private static void createkeyBindings(Loop loop) {
-        new SimpleBluetoothPedal() {
+        // Left loops (right away, since timing matters), right clears (on release), and holding
+        // right while pressing left switches to the next loop slot
+        new BluetoothPedal() {
+            private boolean leftPressed = false;
+            private boolean rightPressed = false;
+            private boolean switchedSlots = false;
+
+            @Override
+            protected synchronized void leftDown() {
+                if (leftPressed)
+                    return;
+                leftPressed = true;
+
+                if (rightPressed) {
+                    switchedSlots = true;
+                    log.info("Switched to {}", loop.nextSlot());
+                } else {
+                    // Timestamped, so that the loop starts and stops right when the pedal was pressed
+                    loop.loop(eventTime());
+                }
+            }
+
             @Override
-            protected void left() {
-                loop.loop();
+            protected synchronized void leftUp() {
+                leftPressed = false;
             }
 
             @Override
-            protected void right() {
-                loop.clear();
+            protected synchronized void rightDown() {
+                rightPressed = true;
+            }
+
+            @Override
+            protected synchronized void rightUp() {
+                rightPressed = false;
+                if (!switchedSlots)
+                    loop.clear();
+                switchedSlots = false;
             }
         }.start();
     }
@@ -51,19 +81,23 @@ public class LoopPedalDemo {
     private static class Streams extends StreamsApplication {
         private static final String APPLICATION_ID = "kafka-sound-demo-loop-pedal";
 
+        private static final int SLOTS = 4;
+        // Set to quantize loops to the beat
+        private static final double TEMPO_BPM = 0;
+
         private final Loop loop;
 
-        public Streams(String[] args, Loop loop) {
+        public Streams(String[] args) {
             super(APPLICATION_ID, args);
-            this.loop = loop;
+            this.loop = new Loop(0.8, config().loopSlotDirectory(), SLOTS, config().loopRecall());
+            loop.setTempo(TEMPO_BPM);
         }
 
         @Override
-        protected void defineTopology(KStream<byte[], byte[]> encodedSamplesStream) {
-            KStream<byte[], Short> processedSamples = samples(encodedSamplesStream)
-                    .mapValues(loop);
+        protected void defineTopology(KStream<byte[], short[]> sampleBlocksStream) {
+            KStream<byte[], short[]> processedSamples = process(sampleBlocksStream, loop);
 
-            publishProcessedSamples(processedSamples);;
+            publishProcessedSampleBlocks(processedSamples);
         }
     }
 
@@ -19,8 +19,10 @@ package io.github.c0urante.kafka.sound.demo;
 
 import io.github.c0urante.kafka.sound.demo.pedal.SimpleBluetoothPedal;
 import io.github.c0urante.kafka.sound.demo.pitch.PitchDetector;
+import io.github.c0urante.kafka.sound.demo.pitch.PitchEvent;
 import io.github.c0urante.kafka.sound.demo.streams.StreamsApplication;
 import io.github.c0urante.kafka.sound.demo.ui.TextWindow;
+import io.github.c0urante.kafka.sound.demo.util.Tuning;
 import org.apache.kafka.streams.kstream.KStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,8 +33,15 @@ public class PitchDetectionDemo {
 
     private static final Logger log = LoggerFactory.getLogger(PitchDetectionDemo.class);
 
+    // Each pitch is detected from the last ~46 ms of audio, and the pitch is updated every ~6 ms by the FFT-based
+    // algorithms (the TarsosDSP ones are too slow for that, and only update every ~46 ms)
+    private static final int WINDOW_SIZE = 2048;
+    private static final int HOP_SIZE = 256;
+    // Which frequency counts as A4; everything else is tuned relative to it
+    private static final double A4_FREQUENCY = 440;
+
     public static void main(String[] args) {
-        PitchDetector pitchDetector = new PitchDetector();
+        PitchDetector pitchDetector = new PitchDetector(WINDOW_SIZE, HOP_SIZE, new Tuning(A4_FREQUENCY));
         PitchWindow pitchWindow = new PitchWindow(pitchDetector.currentAlgorithm());
         createkeyBindings(pitchDetector, pitchWindow);
         new Streams(args, pitchDetector, pitchWindow).start();
@@ -99,9 +108,10 @@ public class PitchDetectionDemo {
         }
 
         @Override
-        protected void defineTopology(KStream<byte[], byte[]> rawInputStream) {
-            rawInputStream.flatMapValues(pitchDetector)
-                    .foreach((k, v) -> pitchWindow.setPitch(v != null ? v : ""));
+        protected void defineTopology(KStream<byte[], short[]> sampleBlocksStream) {
+            KStream<byte[], PitchEvent> pitchEventsStream = detectNotes(sampleBlocksStream, pitchDetector);
+            pitchEventsStream.foreach((k, event) -> pitchWindow.setPitch(event.noteOn() ? event.name() : ""));
+            publishPitchEvents(pitchEventsStream);
         }
     }
 
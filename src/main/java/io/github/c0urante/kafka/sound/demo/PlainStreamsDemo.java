@@ -34,8 +34,8 @@ public class PlainStreamsDemo {
         }
 
         @Override
-        protected void defineTopology(KStream<byte[], byte[]> encodedSamples) {
-            publishProcessedSamples(samples(encodedSamples));
+        protected void defineTopology(KStream<byte[], short[]> sampleBlocksStream) {
+            publishProcessedSampleBlocks(sampleBlocksStream);
         }
     }
 
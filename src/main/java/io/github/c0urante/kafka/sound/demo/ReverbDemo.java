@@ -18,9 +18,14 @@
 package io.github.c0urante.kafka.sound.demo;
 
 import io.github.c0urante.kafka.sound.demo.pedal.RepeatingBluetoothPedal;
+import io.github.c0urante.kafka.sound.demo.reverb.ConvolutionReverb;
 import io.github.c0urante.kafka.sound.demo.reverb.Reverb;
+import io.github.c0urante.kafka.sound.demo.reverb.SchroederReverb;
+import io.github.c0urante.kafka.sound.demo.streams.ApplicationConfig;
+import io.github.c0urante.kafka.sound.demo.streams.BlockEffect;
 import io.github.c0urante.kafka.sound.demo.streams.StreamsApplication;
 import io.github.c0urante.kafka.sound.demo.ui.TextWindow;
+import io.github.c0urante.kafka.sound.demo.util.AdjustableDouble;
 import org.apache.kafka.streams.kstream.KStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,54 +35,55 @@ public class ReverbDemo {
     private static final Logger log = LoggerFactory.getLogger(PitchDetectionDemo.class);
 
     public static void main(String[] args) {
-        double initialDecay = 0.90;
-        Reverb reverb = new Reverb(
-                initialDecay,
-                23, 29, 31, 37, 41, 43, 47, 53, 59, 61, 67, 71, 73, 79, 83, 89, 97
-        );
-        ReverbWindow reverbWindow = new ReverbWindow(initialDecay);
-        createKeyBindings(reverb, reverbWindow);
-        new Streams(args, reverb).start();
+        // Which reverb to use (and how to set it up) comes from the config file
+        Streams streams = new Streams(args);
+        if (streams.parameter != null) {
+            ReverbWindow reverbWindow = new ReverbWindow(streams.parameterName, streams.parameter.current());
+            createKeyBindings(streams.parameterName, streams.parameter, reverbWindow);
+        }
+        streams.start();
     }
 
-    private static void createKeyBindings(Reverb reverb, ReverbWindow reverbWindow) {
+    private static void createKeyBindings(String parameterName, AdjustableDouble parameter, ReverbWindow reverbWindow) {
         new RepeatingBluetoothPedal(100) {
-            private static final double DECAY_DELTA = 0.01;
+            private static final double DELTA = 0.01;
 
             @Override
             protected synchronized void left() {
-                newDecay("Increased", reverb.decay().adjustNow(d -> d * DECAY_DELTA));
+                newValue("Increased", parameter.adjustNow(d -> d + DELTA));
             }
 
             @Override
             protected void right() {
-                newDecay("Decreased", reverb.decay().adjustNow(d -> d * DECAY_DELTA));
+                newValue("Decreased", parameter.adjustNow(d -> d - DELTA));
             }
 
-            private void newDecay(String adjustment, double newDecay) {
-                reverbWindow.setDecay(newDecay);
-                log.info("{} decay to {}", adjustment, newDecay);
+            private void newValue(String adjustment, double newValue) {
+                reverbWindow.setValue(newValue);
+                log.info("{} {} to {}", adjustment, parameterName.toLowerCase(), newValue);
             }
 
         }.start(reverbWindow.frame());
     }
 
     private static class ReverbWindow extends TextWindow {
-        private volatile double decay;
+        private final String parameterName;
+        private volatile double value;
 
-        public ReverbWindow(double initialDecay) {
+        public ReverbWindow(String parameterName, double initialValue) {
             super("Artificial reverb à la Kafka");
-            this.decay = initialDecay;
+            this.parameterName = parameterName;
+            this.value = initialValue;
             updateText();
         }
 
-        public void setDecay(double decay) {
-            this.decay = decay;
+        public void setValue(double value) {
+            this.value = value;
             updateText();
         }
 
         private void updateText() {
-            String text = String.format("%n%nDecay factor: %1.3f%n", this.decay);
+            String text = String.format("%n%n%s: %1.3f%n", parameterName, this.value);
             updateText(text);
         }
     }
@@ -85,19 +91,47 @@ public class ReverbDemo {
     private static class Streams extends StreamsApplication {
         private static final String APPLICATION_ID = "kafka-sound-demo-reverb";
 
-        private final Reverb reverb;
+        private static final double INITIAL_DECAY = 0.90;
+        private static final int[] DELAYS = new int[] {
+                23, 29, 31, 37, 41, 43, 47, 53, 59, 61, 67, 71, 73, 79, 83, 89, 97
+        };
+        private static final double INITIAL_ROOM_SIZE = 0.85;
+        private static final double DAMPING = 0.5;
+        private static final double MIX = 0.3;
 
-        public Streams(String[] args, Reverb reverb) {
+        private final BlockEffect reverb;
+        // Whichever knob the pedal turns for the configured reverb, if it has one
+        private final String parameterName;
+        private final AdjustableDouble parameter;
+
+        public Streams(String[] args) {
             super(APPLICATION_ID, args);
-            this.reverb = reverb;
+            String algorithm = config().reverbAlgorithm();
+            if (ApplicationConfig.REVERB_ALGORITHM_CONVOLUTION.equals(algorithm)) {
+                // Recorded rooms don't have any knobs to turn
+                short[] impulseResponse = ConvolutionReverb.readImpulseResponse(config().reverbImpulseResponsePath());
+                this.reverb = new ConvolutionReverb(impulseResponse, config().reverbPartitionSize(), MIX);
+                this.parameterName = null;
+                this.parameter = null;
+            } else if (ApplicationConfig.REVERB_ALGORITHM_SCHROEDER.equals(algorithm)) {
+                SchroederReverb schroederReverb = new SchroederReverb(INITIAL_ROOM_SIZE, DAMPING, MIX);
+                this.reverb = schroederReverb;
+                this.parameterName = "Room size";
+                this.parameter = schroederReverb.roomSize();
+            } else {
+                Reverb combReverb = new Reverb(INITIAL_DECAY, DELAYS);
+                this.reverb = combReverb;
+                this.parameterName = "Decay factor";
+                this.parameter = combReverb.decay();
+            }
+            log.info("Using {} reverb", algorithm);
         }
 
         @Override
-        protected void defineTopology(KStream<byte[], byte[]> encodedSamplesStream) {
-            KStream<byte[], Short> processedSamples = samples(encodedSamplesStream)
-                    .mapValues(reverb);
+        protected void defineTopology(KStream<byte[], short[]> sampleBlocksStream) {
+            KStream<byte[], short[]> processedSamples = process(sampleBlocksStream, reverb);
 
-            publishProcessedSamples(processedSamples);
+            publishProcessedSampleBlocks(processedSamples);
         }
     }
 
@@ -17,16 +17,17 @@
  */
 package io.github.c0urante.kafka.sound.demo.distortion;
 
+import io.github.c0urante.kafka.sound.demo.streams.BlockEffect;
 import io.github.c0urante.kafka.sound.demo.util.CircularIterator;
 import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
 import io.github.c0urante.kafka.sound.demo.util.AdjustableDouble;
-import org.apache.kafka.streams.kstream.ValueMapper;
 
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
-public class Distortion implements ValueMapper<Short, Short> {
+public class Distortion implements BlockEffect {
 
     private static final List<ClippingAlgorithm> ALL_ALGORITHMS = Arrays.asList(
             new None(),
@@ -39,9 +40,24 @@ public class Distortion implements ValueMapper<Short, Short> {
             new HyperbolicTangent()
     );
 
+    // The instance whose controls drive this one; just this instance, unless it's a fork
+    private final Distortion controller;
     private final AdjustableDouble factor;
-    private final CircularIterator<ClippingAlgorithm> algorithms;
-    private ClippingAlgorithm algorithm;
+    private final CircularIterator<LookupTableClippingAlgorithm> algorithms;
+    private volatile LookupTableClippingAlgorithm algorithm;
+    // Set by the controller, and followed by every fork
+    private volatile int oversamplingFactor;
+    // One for each oversampling factor, indexed by factor; built up front, since they have filter history of
+    // their own and the audio thread has no business allocating them
+    private final Oversampler[] oversamplers;
+    private final Oversampler.Stage oversampledClipping;
+
+    // Per-block state, only touched by the audio thread
+    private final short[] singleSample;
+    private double[] factors;
+    private LookupTableClippingAlgorithm blockAlgorithm;
+    private int blockOversamplingFactor;
+    private int lastOversamplingFactor;
 
     public Distortion() {
         this(ALL_ALGORITHMS);
@@ -54,15 +70,69 @@ public class Distortion implements ValueMapper<Short, Short> {
     public Distortion(List<ClippingAlgorithm> clippingAlgorithms) {
         if (clippingAlgorithms.isEmpty())
             throw new IllegalArgumentException("At least one algorithm must be provided");
+        this.controller = this;
         this.factor = new AdjustableDouble(0.1, 100, 1);
-        this.algorithms = new CircularIterator<>(clippingAlgorithms);
-        this.algorithm = clippingAlgorithms.get(0);
+        List<LookupTableClippingAlgorithm> tabulatedAlgorithms = clippingAlgorithms.stream()
+                .map(LookupTableClippingAlgorithm::of)
+                .collect(Collectors.toList());
+        this.algorithms = new CircularIterator<>(tabulatedAlgorithms);
+        this.algorithm = tabulatedAlgorithms.get(0).precompute();
+        this.oversamplingFactor = 1;
+        this.oversamplers = new Oversampler[Oversampler.MAX_FACTOR + 1];
+        for (int oversamplingFactor = 2; oversamplingFactor <= Oversampler.MAX_FACTOR; oversamplingFactor *= 2)
+            oversamplers[oversamplingFactor] = new Oversampler(oversamplingFactor);
+        this.oversampledClipping = this::distortOversampled;
+        this.singleSample = new short[1];
+        this.factors = new double[0];
+    }
+
+    private Distortion(Distortion controller) {
+        this.controller = controller;
+        this.factor = controller.factor.follower();
+        this.algorithms = controller.algorithms;
+        this.algorithm = controller.algorithm;
+        this.oversamplingFactor = 1;
+        // Same kernels as the controller's, but separate history
+        this.oversamplers = new Oversampler[controller.oversamplers.length];
+        for (int oversamplingFactor = 0; oversamplingFactor < oversamplers.length; oversamplingFactor++) {
+            Oversampler oversampler = controller.oversamplers[oversamplingFactor];
+            oversamplers[oversamplingFactor] = oversampler != null ? oversampler.fork() : null;
+        }
+        this.oversampledClipping = this::distortOversampled;
+        this.singleSample = new short[1];
+        this.factors = new double[0];
     }
 
     @Override
+    public short[] apply(short[] samples) {
+        if (samples.length == 0)
+            return samples;
+        if (factors.length < samples.length)
+            factors = new double[samples.length];
+
+        // Grab the amplification factor for the entire block in one go
+        factor.ramp(factors, samples.length);
+        LookupTableClippingAlgorithm algorithm = controller.algorithm;
+        Oversampler oversampler = oversampler();
+        if (oversampler == null) {
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = distort(samples[i], factors[i], algorithm);
+            }
+        } else {
+            blockAlgorithm = algorithm;
+            blockOversamplingFactor = oversampler.factor();
+            oversampler.apply(samples, oversampledClipping);
+        }
+        return samples;
+    }
+
     public Short apply(Short sample) {
+        singleSample[0] = sample;
+        return apply(singleSample)[0];
+    }
+
+    private static short distort(short sample, double amplificationFactor, ClippingAlgorithm algorithm) {
         // 1. Apply amplification
-        double amplificationFactor = factor.next();
 
         // Shameless hack: use the factor to determine if we should actually distort
         if (amplificationFactor >= 0.999 && amplificationFactor <= 1.001) {
@@ -79,22 +149,77 @@ public class Distortion implements ValueMapper<Short, Short> {
         return SampleUtils.coerceToSample(clipped / amplificationFactor);
     }
 
+    // Same steps as above, but on oversampled floats, and with the interpolated lookup table
+    private void distortOversampled(float[] samples, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            double amplificationFactor = factors[i / blockOversamplingFactor];
+            if (amplificationFactor >= 0.999 && amplificationFactor <= 1.001) {
+                continue;
+            }
+
+            float amplified = (float) (samples[offset + i] * amplificationFactor);
+            float clipped = blockAlgorithm.clip(amplified);
+            samples[offset + i] = (float) (clipped / amplificationFactor);
+        }
+    }
+
+    // Forks keep their own oversamplers (they have filter history), but follow the controller's choice of factor
+    private Oversampler oversampler() {
+        int oversamplingFactor = controller.oversamplingFactor;
+        boolean switched = oversamplingFactor != lastOversamplingFactor;
+        // Tracked even when not oversampling, so that going from 2 to 1 and back to 2 counts as a switch
+        lastOversamplingFactor = oversamplingFactor;
+        if (oversamplingFactor == 1)
+            return null;
+        Oversampler result = oversamplers[oversamplingFactor];
+        if (switched) {
+            // Whatever's left over from the last time we used this factor is long since stale
+            result.reset();
+        }
+        return result;
+    }
+
+    @Override
+    public Distortion fork() {
+        return new Distortion(controller);
+    }
+
     public AdjustableDouble amplificationFactor() {
         return factor;
     }
 
     public String nextAlgorithm() {
         // Unreadable garbage FTW
-        return (this.algorithm = algorithms.next()).name();
+        // (Precomputing here builds the lookup table on the control thread, instead of the audio thread)
+        return (controller.algorithm = algorithms.next().precompute()).name();
     }
 
     public String prevAlgorithm() {
         // Unreadable garbage FTW
-        return (this.algorithm = algorithms.prev()).name();
+        return (controller.algorithm = algorithms.prev().precompute()).name();
     }
 
     public String currentAlgorithm() {
-        return this.algorithm.name();
+        return controller.algorithm.name();
+    }
+
+    /**
+     * Choose how much to oversample by when clipping: 1 to run at the native sample rate (cheapest, but
+     * hard clippers will alias), or 2, 4, or 8 for progressively cleaner (and more expensive) distortion.
+     * Takes effect at the next block.
+     */
+    public void setOversamplingFactor(int oversamplingFactor) {
+        // (The oversamplers themselves were all built up front, so there's nothing to do here but pick one)
+        if (oversamplingFactor != 1 && oversamplingFactor != 2 && oversamplingFactor != 4
+                && oversamplingFactor != Oversampler.MAX_FACTOR) {
+            throw new IllegalArgumentException(
+                    "Invalid oversampling factor " + oversamplingFactor + ": must be 1, 2, 4, or 8");
+        }
+        controller.oversamplingFactor = oversamplingFactor;
+    }
+
+    public int oversamplingFactor() {
+        return controller.oversamplingFactor;
     }
 
 }
@@ -0,0 +1,109 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.distortion;
+
+/**
+ * Wraps another {@link ClippingAlgorithm} and tabulates it over every possible sample, so that clipping
+ * becomes a single array lookup regardless of how expensive the wrapped algorithm is.
+ * <p>
+ * Tables are built lazily on first use, or ahead of time with {@link #precompute()} (which is a good idea
+ * when switching algorithms from a control thread, so that the audio thread never has to pay for it).
+ */
+public class LookupTableClippingAlgorithm implements ClippingAlgorithm {
+
+    private static final int TABLE_SIZE = 1 << 16;
+
+    private final ClippingAlgorithm delegate;
+    // Racing threads will just build identical tables; no need to lock
+    private volatile short[] table;
+    private volatile float[] interpolationTable;
+
+    public static LookupTableClippingAlgorithm of(ClippingAlgorithm algorithm) {
+        return algorithm instanceof LookupTableClippingAlgorithm
+                ? (LookupTableClippingAlgorithm) algorithm
+                : new LookupTableClippingAlgorithm(algorithm);
+    }
+
+    public LookupTableClippingAlgorithm(ClippingAlgorithm delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public short clip(short sample) {
+        return table()[sample - Short.MIN_VALUE];
+    }
+
+    /**
+     * Clip a sample that doesn't necessarily fall on an integer, by linearly interpolating between
+     * the two closest entries in the table. Samples outside of the range of a short are coerced into it.
+     */
+    public float clip(float sample) {
+        float[] interpolationTable = interpolationTable();
+        float position = Math.max(0, Math.min(TABLE_SIZE - 1, sample - Short.MIN_VALUE));
+        int index = (int) position;
+        float fraction = position - index;
+        float low = interpolationTable[index];
+        return low + (interpolationTable[index + 1] - low) * fraction;
+    }
+
+    /**
+     * Build both the table and the interpolation table (for {@link #clip(float) oversampled clipping}) right away.
+     */
+    public LookupTableClippingAlgorithm precompute() {
+        table();
+        interpolationTable();
+        return this;
+    }
+
+    public ClippingAlgorithm delegate() {
+        return delegate;
+    }
+
+    private short[] table() {
+        short[] result = table;
+        if (result == null) {
+            result = new short[TABLE_SIZE];
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                result[i] = delegate.clip((short) (i + Short.MIN_VALUE));
+            }
+            table = result;
+        }
+        return result;
+    }
+
+    private float[] interpolationTable() {
+        float[] result = interpolationTable;
+        if (result == null) {
+            short[] table = table();
+            // One extra entry at the end so that interpolating from the last sample doesn't need a special case
+            result = new float[TABLE_SIZE + 1];
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                result[i] = table[i];
+            }
+            result[TABLE_SIZE] = table[TABLE_SIZE - 1];
+            interpolationTable = result;
+        }
+        return result;
+    }
+
+}
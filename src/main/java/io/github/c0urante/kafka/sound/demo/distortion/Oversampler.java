@@ -0,0 +1,198 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.distortion;
+
+import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
+
+import java.util.Arrays;
+
+/**
+ * Runs a non-linear stage at a multiple of the native sample rate, so that the harmonics it generates
+ * above the native Nyquist frequency can be filtered out instead of aliasing back down into the audible range.
+ * <p>
+ * Upsampling is done with a polyphase windowed-sinc interpolator, and downsampling with the same low-pass kernel
+ * evaluated only at the output positions we keep. Kernels are computed once up front, and all working buffers
+ * are reused across blocks (they only grow if a larger block than any before it comes along). Filter history
+ * carries across blocks, at the cost of a small, fixed amount of latency.
+ * <p>
+ * {@link #fork() Forks} share the same (immutable) kernels, and only get their own history and working buffers.
+ */
+public class Oversampler {
+
+    /**
+     * A stage to run at the oversampled rate, in place.
+     */
+    public interface Stage {
+        /**
+         * @param samples the buffer holding the oversampled signal
+         * @param offset the index of the first oversampled sample in the buffer
+         * @param length the number of oversampled samples
+         */
+        void apply(float[] samples, int offset, int length);
+    }
+
+    public static final int MAX_FACTOR = 8;
+    private static final int TAPS_PER_PHASE = 16;
+    // A little below the native Nyquist frequency, so that the transition band doesn't let much through
+    private static final double CUTOFF = 0.45;
+
+    private final int factor;
+    private final int taps;
+    // The full low-pass kernel, used for decimation
+    private final float[] kernel;
+    // The same kernel split up into one sub-filter per phase (and scaled up to make up for zero-stuffing)
+    private final float[][] phases;
+
+    // Input history followed by the current block
+    private float[] input;
+    // Oversampled history followed by the current oversampled block
+    private float[] oversampled;
+
+    /**
+     * @param factor the oversampling factor; must be 2, 4, or 8
+     */
+    public Oversampler(int factor) {
+        if (factor != 2 && factor != 4 && factor != MAX_FACTOR)
+            throw new IllegalArgumentException("Invalid oversampling factor " + factor + ": must be 2, 4, or 8");
+
+        this.factor = factor;
+        this.taps = factor * TAPS_PER_PHASE;
+        this.kernel = lowPassKernel(taps, CUTOFF / factor);
+        this.phases = new float[factor][TAPS_PER_PHASE];
+        for (int phase = 0; phase < factor; phase++) {
+            for (int tap = 0; tap < TAPS_PER_PHASE; tap++) {
+                phases[phase][tap] = kernel[phase + tap * factor] * factor;
+            }
+        }
+
+        this.input = new float[TAPS_PER_PHASE - 1];
+        this.oversampled = new float[taps - 1];
+    }
+
+    private Oversampler(Oversampler original) {
+        this.factor = original.factor;
+        this.taps = original.taps;
+        this.kernel = original.kernel;
+        this.phases = original.phases;
+
+        this.input = new float[TAPS_PER_PHASE - 1];
+        this.oversampled = new float[taps - 1];
+    }
+
+    /**
+     * @return an oversampler with the same factor and kernels as this one, but with its own (empty) history
+     */
+    public Oversampler fork() {
+        return new Oversampler(this);
+    }
+
+    /**
+     * Forget the filter history from earlier blocks, as if nothing had been run through this oversampler yet.
+     */
+    public void reset() {
+        Arrays.fill(input, 0);
+        Arrays.fill(oversampled, 0);
+    }
+
+    public int factor() {
+        return factor;
+    }
+
+    /**
+     * Upsample the given block, run the stage on it, and downsample the result back into the same block.
+     */
+    public short[] apply(short[] samples, Stage stage) {
+        int length = samples.length;
+        int inputHistory = TAPS_PER_PHASE - 1;
+        int oversampledHistory = taps - 1;
+        int oversampledLength = length * factor;
+        ensureCapacity(inputHistory + length, oversampledHistory + oversampledLength);
+
+        for (int i = 0; i < length; i++) {
+            input[inputHistory + i] = samples[i];
+        }
+
+        upsample(length, oversampledHistory);
+        stage.apply(oversampled, oversampledHistory, oversampledLength);
+        downsample(samples, oversampledHistory);
+
+        // Hang on to the tail of this block for the next one
+        System.arraycopy(input, length, input, 0, inputHistory);
+        System.arraycopy(oversampled, oversampledLength, oversampled, 0, oversampledHistory);
+
+        return samples;
+    }
+
+    private void upsample(int length, int destinationOffset) {
+        int inputHistory = TAPS_PER_PHASE - 1;
+        for (int i = 0; i < length; i++) {
+            // The newest input sample lines up with the first tap of each phase
+            int newest = inputHistory + i;
+            int destination = destinationOffset + i * factor;
+            for (int phase = 0; phase < factor; phase++) {
+                float[] coefficients = phases[phase];
+                float sum = 0;
+                for (int tap = 0; tap < TAPS_PER_PHASE; tap++) {
+                    sum += coefficients[tap] * input[newest - tap];
+                }
+                oversampled[destination + phase] = sum;
+            }
+        }
+    }
+
+    private void downsample(short[] destination, int sourceOffset) {
+        for (int i = 0; i < destination.length; i++) {
+            int newest = sourceOffset + i * factor;
+            float sum = 0;
+            for (int tap = 0; tap < taps; tap++) {
+                sum += kernel[tap] * oversampled[newest - tap];
+            }
+            destination[i] = SampleUtils.coerceToSample(sum);
+        }
+    }
+
+    private void ensureCapacity(int inputLength, int oversampledLength) {
+        if (input.length < inputLength)
+            input = Arrays.copyOf(input, inputLength);
+        if (oversampled.length < oversampledLength)
+            oversampled = Arrays.copyOf(oversampled, oversampledLength);
+    }
+
+    // Blackman-windowed sinc, normalized for unity gain at DC; cutoff is in cycles per sample
+    private static float[] lowPassKernel(int taps, double cutoff) {
+        double[] kernel = new double[taps];
+        double center = (taps - 1) / 2.0;
+        double sum = 0;
+        for (int i = 0; i < taps; i++) {
+            double x = i - center;
+            double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double window = 0.42
+                    - 0.5 * Math.cos(2 * Math.PI * i / (taps - 1))
+                    + 0.08 * Math.cos(4 * Math.PI * i / (taps - 1));
+            kernel[i] = sinc * window;
+            sum += kernel[i];
+        }
+
+        float[] result = new float[taps];
+        for (int i = 0; i < taps; i++) {
+            result[i] = (float) (kernel[i] / sum);
+        }
+        return result;
+    }
+
+}
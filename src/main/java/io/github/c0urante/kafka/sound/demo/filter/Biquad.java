@@ -0,0 +1,198 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.filter;
+
+import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single second-order IIR section (a.k.a. biquad), with coefficients from the
+ * <a href="https://www.w3.org/TR/audio-eq-cookbook/">RBJ audio EQ cookbook</a>. Runs in direct form I, whose state
+ * is nothing more than the last two inputs and outputs; the transposed forms are a little cheaper, but their state
+ * only makes sense for the coefficients that produced it, so they ring badly when the cutoff moves.
+ * <p>
+ * Coefficients can be changed on the fly without touching that state; new coefficients are faded in over
+ * the course of the next block, so sweeping the cutoff doesn't click. (Linear interpolation between two stable
+ * sets of coefficients is always stable, since the stability region for a second-order section is convex.)
+ */
+class Biquad {
+
+    // Keeps cutoffs clear of DC and Nyquist, where the cookbook formulas fall apart
+    private static final double MIN_CUTOFF = 10;
+    private static final double MAX_CUTOFF = AudioFormats.SAMPLE_RATE * 0.49;
+    // Anything this small is inaudible, and left alone it decays into (very slow) denormals
+    private static final double DENORMAL_THRESHOLD = 1e-15;
+
+    private double b0;
+    private double b1;
+    private double b2;
+    private double a1;
+    private double a2;
+    // Where the coefficients above are headed over the course of the next block
+    private final double[] target = new double[5];
+    private boolean ramping;
+    private double x1;
+    private double x2;
+    private double y1;
+    private double y2;
+
+    public static Biquad lowPass(double cutoff, double q) {
+        Biquad result = new Biquad();
+        result.setLowPass(cutoff, q);
+        result.finishRamp();
+        return result;
+    }
+
+    public static Biquad highPass(double cutoff, double q) {
+        Biquad result = new Biquad();
+        result.setHighPass(cutoff, q);
+        result.finishRamp();
+        return result;
+    }
+
+    // Neither of these touch the filter's state, so they're safe to call mid-stream
+
+    public void setLowPass(double cutoff, double q) {
+        double w0 = 2 * Math.PI * clampCutoff(cutoff) / AudioFormats.SAMPLE_RATE;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * q);
+        setCoefficients((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    public void setHighPass(double cutoff, double q) {
+        double w0 = 2 * Math.PI * clampCutoff(cutoff) / AudioFormats.SAMPLE_RATE;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * q);
+        setCoefficients((1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    private void setCoefficients(double b0, double b1, double b2, double a0, double a1, double a2) {
+        target[0] = b0 / a0;
+        target[1] = b1 / a0;
+        target[2] = b2 / a0;
+        target[3] = a1 / a0;
+        target[4] = a2 / a0;
+        ramping = true;
+    }
+
+    private void finishRamp() {
+        b0 = target[0];
+        b1 = target[1];
+        b2 = target[2];
+        a1 = target[3];
+        a2 = target[4];
+        ramping = false;
+    }
+
+    /**
+     * Filter a single sample. Any pending coefficient changes take effect immediately.
+     */
+    public double apply(double sample) {
+        if (ramping)
+            finishRamp();
+        double result = b0 * sample + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+        x2 = x1;
+        x1 = sample;
+        y2 = y1;
+        y1 = result;
+        return result;
+    }
+
+    /**
+     * Filter the first {@code length} samples of the given block in place.
+     */
+    public void apply(double[] samples, int length) {
+        if (ramping && length > 0) {
+            applyRamped(samples, length);
+            return;
+        }
+        double b0 = this.b0, b1 = this.b1, b2 = this.b2, a1 = this.a1, a2 = this.a2;
+        double x1 = this.x1, x2 = this.x2, y1 = this.y1, y2 = this.y2;
+        for (int i = 0; i < length; i++) {
+            double sample = samples[i];
+            double result = b0 * sample + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+            x2 = x1;
+            x1 = sample;
+            y2 = y1;
+            y1 = result;
+            samples[i] = result;
+        }
+        this.x1 = x1;
+        this.x2 = x2;
+        this.y1 = flushDenormal(y1);
+        this.y2 = flushDenormal(y2);
+    }
+
+    private void applyRamped(double[] samples, int length) {
+        double b0 = this.b0, b1 = this.b1, b2 = this.b2, a1 = this.a1, a2 = this.a2;
+        double db0 = (target[0] - b0) / length;
+        double db1 = (target[1] - b1) / length;
+        double db2 = (target[2] - b2) / length;
+        double da1 = (target[3] - a1) / length;
+        double da2 = (target[4] - a2) / length;
+        double x1 = this.x1, x2 = this.x2, y1 = this.y1, y2 = this.y2;
+        for (int i = 0; i < length; i++) {
+            b0 += db0;
+            b1 += db1;
+            b2 += db2;
+            a1 += da1;
+            a2 += da2;
+            double sample = samples[i];
+            double result = b0 * sample + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+            x2 = x1;
+            x1 = sample;
+            y2 = y1;
+            y1 = result;
+            samples[i] = result;
+        }
+        this.x1 = x1;
+        this.x2 = x2;
+        this.y1 = flushDenormal(y1);
+        this.y2 = flushDenormal(y2);
+        // Don't let rounding errors pile up
+        finishRamp();
+    }
+
+    int stateSize() {
+        return 4 * Double.BYTES;
+    }
+
+    void saveState(ByteBuffer destination) {
+        destination.putDouble(x1);
+        destination.putDouble(x2);
+        destination.putDouble(y1);
+        destination.putDouble(y2);
+    }
+
+    void restoreState(ByteBuffer source) {
+        x1 = source.getDouble();
+        x2 = source.getDouble();
+        y1 = source.getDouble();
+        y2 = source.getDouble();
+    }
+
+    private static double clampCutoff(double cutoff) {
+        return Math.max(MIN_CUTOFF, Math.min(cutoff, MAX_CUTOFF));
+    }
+
+    private static double flushDenormal(double value) {
+        return Math.abs(value) < DENORMAL_THRESHOLD ? 0 : value;
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.filter;
+
+/**
+ * A band pass filter made out of fourth-order Butterworth high and low pass filters in series; cheaper
+ * to tune than a proper band pass section, and holds up better when the band is very wide.
+ */
+public class BiquadBandPass extends BiquadFilter {
+
+    public BiquadBandPass(float low, float high) {
+        super(
+                Biquad.highPass(low, BUTTERWORTH_Q[0]),
+                Biquad.highPass(low, BUTTERWORTH_Q[1]),
+                Biquad.lowPass(high, BUTTERWORTH_Q[0]),
+                Biquad.lowPass(high, BUTTERWORTH_Q[1])
+        );
+    }
+
+    @Override
+    public boolean retune(float low, float high) {
+        section(0).setHighPass(low, BUTTERWORTH_Q[0]);
+        section(1).setHighPass(low, BUTTERWORTH_Q[1]);
+        section(2).setLowPass(high, BUTTERWORTH_Q[0]);
+        section(3).setLowPass(high, BUTTERWORTH_Q[1]);
+        return true;
+    }
+
+    @Override
+    public String name() {
+        return "Band pass (biquad)";
+    }
+
+}
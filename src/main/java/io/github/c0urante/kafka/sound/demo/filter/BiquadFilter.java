@@ -0,0 +1,91 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.filter;
+
+import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A cascade of {@link Biquad biquads}, run in-project instead of through TarsosDSP. Samples are filtered as
+ * they come in, in whatever size blocks they come in, so unlike the {@link TarsosDspFilter windowed filters},
+ * there's no added latency, and the result is always the same length as the input.
+ */
+public abstract class BiquadFilter implements FilterAlgorithm {
+
+    // Q values for each section of a fourth-order Butterworth filter (maximally flat passband)
+    static final double[] BUTTERWORTH_Q = {0.54119610, 1.3065630};
+
+    private final Biquad[] sections;
+    // Reused across blocks; only grows
+    private double[] block;
+
+    BiquadFilter(Biquad... sections) {
+        this.sections = sections;
+        this.block = new double[0];
+    }
+
+    Biquad section(int index) {
+        return sections[index];
+    }
+
+    @Override
+    public List<Short> filter(List<Short> samples) {
+        return SampleUtils.toList(filter(SampleUtils.toShorts(samples)));
+    }
+
+    @Override
+    public short[] filter(short[] samples) {
+        if (block.length < samples.length)
+            block = new double[samples.length];
+        for (int i = 0; i < samples.length; i++)
+            block[i] = samples[i];
+        // One section at a time keeps each inner loop tight
+        for (Biquad section : sections)
+            section.apply(block, samples.length);
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = SampleUtils.coerceToSample(block[i]);
+        return samples;
+    }
+
+    @Override
+    public int stateSize() {
+        int result = Integer.BYTES;
+        for (Biquad section : sections)
+            result += section.stateSize();
+        return result;
+    }
+
+    @Override
+    public void saveState(ByteBuffer destination) {
+        destination.putInt(sections.length);
+        for (Biquad section : sections)
+            section.saveState(destination);
+    }
+
+    @Override
+    public void restoreState(ByteBuffer source) {
+        int sections = source.getInt();
+        if (sections != this.sections.length)
+            throw new IllegalArgumentException("Saved state has " + sections + " filter sections; expected " + this.sections.length);
+        for (Biquad section : this.sections)
+            section.restoreState(source);
+    }
+
+}
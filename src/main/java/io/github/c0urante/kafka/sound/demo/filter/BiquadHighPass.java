@@ -0,0 +1,44 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.filter;
+
+/**
+ * A fourth-order Butterworth high pass filter, built out of two cascaded biquads.
+ */
+public class BiquadHighPass extends BiquadFilter {
+
+    public BiquadHighPass(float cutoff) {
+        super(
+                Biquad.highPass(cutoff, BUTTERWORTH_Q[0]),
+                Biquad.highPass(cutoff, BUTTERWORTH_Q[1])
+        );
+    }
+
+    @Override
+    public boolean retune(float low, float high) {
+        section(0).setHighPass(low, BUTTERWORTH_Q[0]);
+        section(1).setHighPass(low, BUTTERWORTH_Q[1]);
+        return true;
+    }
+
+    @Override
+    public String name() {
+        return "High pass (biquad)";
+    }
+
+}
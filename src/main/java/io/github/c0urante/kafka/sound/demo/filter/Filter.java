@@ -17,15 +17,16 @@
  */
 package io.github.c0urante.kafka.sound.demo.filter;
 
+import io.github.c0urante.kafka.sound.demo.streams.StatefulBlockEffect;
 import io.github.c0urante.kafka.sound.demo.util.CircularIterator;
-import org.apache.kafka.streams.kstream.ValueMapper;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.BiFunction;
 
-public class Filter implements ValueMapper<List<Short>, List<Short>> {
+public class Filter implements StatefulBlockEffect {
 
     private static final int MAX_CUTOFF = 30_000;
     private static final int WINDOW_SIZE = 1024;
@@ -33,13 +34,21 @@ public class Filter implements ValueMapper<List<Short>, List<Short>> {
             (low, high) -> new BandPass(WINDOW_SIZE, low, high),
             (low, high) -> new HighPass(WINDOW_SIZE, low),
             (low, high) -> new LowPassFourStage(WINDOW_SIZE, high),
-            (low, high) -> new LowPassSingleStage(WINDOW_SIZE, high)
+            (low, high) -> new LowPassSingleStage(WINDOW_SIZE, high),
+            // No windowing (and therefore no added latency) for these
+            (low, high) -> new BiquadBandPass(low, high),
+            (low, high) -> new BiquadHighPass(low),
+            (low, high) -> new BiquadLowPass(high)
     );
 
+    // The instance whose controls drive this one; just this instance, unless it's a fork
+    private final Filter controller;
     private final CircularIterator<BiFunction<Float, Float, FilterAlgorithm>> algorithms;
-    private float min;
-    private float max;
-    private volatile FilterAlgorithm algorithm;
+    // Replaced (never modified) whenever the controls change; only the controller's is ever written
+    private volatile Settings settings;
+    // Only touched by the thread doing the filtering
+    private Settings appliedSettings;
+    private FilterAlgorithm algorithm;
 
     public Filter() {
         this(ALL_ALGORITHMS);
@@ -52,51 +61,134 @@ public class Filter implements ValueMapper<List<Short>, List<Short>> {
     public Filter(List<BiFunction<Float, Float, FilterAlgorithm>> algorithms) {
         if (algorithms.isEmpty())
             throw new IllegalArgumentException("At least one algorithm must be provided");
-        this.min = 0;
-        this.max = MAX_CUTOFF;
+        this.controller = this;
         this.algorithms = new CircularIterator<>(algorithms);
-        this.algorithm = createAlgorithm(algorithms.get(0));
+        this.settings = new Settings(algorithms.get(0), 0, MAX_CUTOFF);
+        this.appliedSettings = settings;
+        this.algorithm = settings.createAlgorithm();
+    }
+
+    private Filter(Filter controller) {
+        this.controller = controller;
+        this.algorithms = controller.algorithms;
+        this.appliedSettings = controller.settings;
+        this.algorithm = appliedSettings.createAlgorithm();
     }
 
     @Override
+    public short[] apply(short[] samples) {
+        // Filter algorithms buffer samples internally, so the result may not be the same length as the input
+        return algorithm().filter(samples);
+    }
+
     public List<Short> apply(List<Short> samples) {
-        return algorithm.filter(samples);
+        return algorithm().filter(samples);
     }
 
-    public synchronized String nextAlgorithm() {
-        // Unreadable garbage FTW
-        return (this.algorithm = createAlgorithm(algorithms.next())).name();
+    @Override
+    public Filter fork() {
+        return new Filter(controller);
     }
 
-    public synchronized String prevAlgorithm() {
-        // Unreadable garbage FTW
-        return (this.algorithm = createAlgorithm(algorithms.prev())).name();
+    @Override
+    public int stateSize() {
+        return algorithm().stateSize();
+    }
+
+    @Override
+    public void saveState(ByteBuffer destination) {
+        algorithm().saveState(destination);
+    }
+
+    @Override
+    public void restoreState(ByteBuffer source) {
+        algorithm().restoreState(source);
+    }
+
+    public String nextAlgorithm() {
+        return controller.switchAlgorithm(true);
+    }
+
+    public String prevAlgorithm() {
+        return controller.switchAlgorithm(false);
     }
 
     public String currentAlgorithm() {
-        return this.algorithm.name();
+        return controller.settings.name;
     }
 
-    public synchronized void min(float min) {
-        this.min = min;
-        this.algorithm = createAlgorithm(algorithms.current());
+    public void min(float min) {
+        controller.setMin(min);
     }
 
-    public synchronized void max(float max) {
-        this.max = max;
-        this.algorithm = createAlgorithm(algorithms.current());
+    public void max(float max) {
+        controller.setMax(max);
     }
 
     public float min() {
-        return min;
+        return controller.settings.min;
     }
 
     public float max() {
-        return max;
+        return controller.settings.max;
+    }
+
+    // Picks up any changes to the controls, without taking any locks
+    private FilterAlgorithm algorithm() {
+        Settings settings = controller.settings;
+        if (settings != appliedSettings) {
+            // Changing the cutoffs doesn't require a new algorithm (and losing the old one's state),
+            // as long as the algorithm knows how to retune itself
+            boolean retuned = settings.algorithm == appliedSettings.algorithm
+                    && algorithm.retune(settings.min, settings.max);
+            if (!retuned)
+                algorithm = settings.createAlgorithm();
+            appliedSettings = settings;
+        }
+        return algorithm;
+    }
+
+    private synchronized String switchAlgorithm(boolean forward) {
+        // Unreadable garbage FTW
+        BiFunction<Float, Float, FilterAlgorithm> algorithm = forward ? algorithms.next() : algorithms.prev();
+        this.settings = new Settings(algorithm, settings.min, settings.max);
+        return settings.name;
+    }
+
+    private synchronized void setMin(float min) {
+        this.settings = settings.withCutoffs(min, settings.max);
+    }
+
+    private synchronized void setMax(float max) {
+        this.settings = settings.withCutoffs(settings.min, max);
     }
 
-    private FilterAlgorithm createAlgorithm(BiFunction<Float, Float, FilterAlgorithm> algorithm) {
-        return algorithm.apply(min, max);
+    private static class Settings {
+        private final BiFunction<Float, Float, FilterAlgorithm> algorithm;
+        private final String name;
+        private final float min;
+        private final float max;
+
+        public Settings(BiFunction<Float, Float, FilterAlgorithm> algorithm, float min, float max) {
+            // Creating an algorithm just to find out its name is a little wasteful, but it only happens when
+            // switching algorithms, and never on the audio thread
+            this(algorithm, algorithm.apply(min, max).name(), min, max);
+        }
+
+        private Settings(BiFunction<Float, Float, FilterAlgorithm> algorithm, String name, float min, float max) {
+            this.algorithm = algorithm;
+            this.name = name;
+            this.min = min;
+            this.max = max;
+        }
+
+        public Settings withCutoffs(float min, float max) {
+            return new Settings(algorithm, name, min, max);
+        }
+
+        public FilterAlgorithm createAlgorithm() {
+            return algorithm.apply(min, max);
+        }
     }
 
 }
@@ -17,6 +17,9 @@
  */
 package io.github.c0urante.kafka.sound.demo.filter;
 
+import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
+
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public interface FilterAlgorithm {
@@ -25,4 +28,33 @@ public interface FilterAlgorithm {
 
     List<Short> filter(List<Short> samples);
 
+    /**
+     * Block-oriented alternative to {@link #filter(List)}. Like that method, the result may not be the same length
+     * as the input if the algorithm buffers samples internally.
+     */
+    default short[] filter(short[] samples) {
+        return SampleUtils.toShorts(filter(SampleUtils.toList(samples)));
+    }
+
+    /**
+     * Change the cutoffs of this algorithm in place, without losing its state. Changes should be smoothed out over
+     * the next block rather than taking effect all at once. Only ever called from the thread doing the filtering.
+     * @return whether the algorithm could be retuned; if not, a new one is created instead
+     */
+    default boolean retune(float low, float high) {
+        return false;
+    }
+
+    // Most algorithms don't carry any state that's worth saving across restarts
+
+    default int stateSize() {
+        return 0;
+    }
+
+    default void saveState(ByteBuffer destination) {
+    }
+
+    default void restoreState(ByteBuffer source) {
+    }
+
 }
@@ -22,15 +22,24 @@ import be.tarsos.dsp.AudioProcessor;
 import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
 import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.ByteBuffer;
 import java.util.List;
 
+/**
+ * Runs a TarsosDSP processor over fixed-size windows of samples. Samples are copied straight into a single,
+ * reused window (and event) as they come in, and each window is copied back out as soon as it's been processed,
+ * so nothing is allocated per window.
+ */
 public abstract class TarsosDspFilter implements FilterAlgorithm {
 
+    private static final short[] NO_SAMPLES = new short[0];
+
     private final AudioProcessor tarsosProcessor;
     private final int windowSize;
-    private final List<Short> bufferedSamples;
+    private final float[] window;
+    private final AudioEvent audioEvent;
+    // The number of samples in the window so far
+    private int buffered;
 
     protected TarsosDspFilter(
             AudioProcessor tarsosProcessor,
@@ -38,44 +47,67 @@ public abstract class TarsosDspFilter implements FilterAlgorithm {
     ) {
         this.tarsosProcessor = tarsosProcessor;
         this.windowSize = windowSize;
-        this.bufferedSamples = new ArrayList<>(windowSize);
+        this.window = new float[windowSize];
+        this.audioEvent = new AudioEvent(AudioFormats.TARSOS_FORMAT);
+        // The processor mutates the window in place
+        audioEvent.setFloatBuffer(window);
+        this.buffered = 0;
     }
 
     @Override
     public List<Short> filter(List<Short> samples) {
-        List<Short> result = new ArrayList<>();
-        int remainingSamples = windowSize - bufferedSamples.size();
+        return SampleUtils.toList(filter(SampleUtils.toShorts(samples)));
+    }
 
-        int i;
-        if (samples.size() >= remainingSamples) {
-            i = remainingSamples;
-            bufferedSamples.addAll(samples.subList(0, remainingSamples));
-            result.addAll(emptyBuffer());
-        } else {
-            i = 0;
-        }
+    @Override
+    public short[] filter(short[] samples) {
+        // Only full windows make it out, so the result may not be the same length as the input
+        int windows = (buffered + samples.length) / windowSize;
+        short[] result = windows > 0 ? new short[windows * windowSize] : NO_SAMPLES;
 
-        while (samples.size() - i >= windowSize) {
-            bufferedSamples.addAll(samples.subList(i, i + windowSize));
-            result.addAll(emptyBuffer());
-            i += windowSize;
-        }
+        int read = 0;
+        int written = 0;
+        while (read < samples.length) {
+            int count = Math.min(windowSize - buffered, samples.length - read);
+            for (int i = 0; i < count; i++)
+                window[buffered + i] = samples[read + i];
+            buffered += count;
+            read += count;
 
-        if (i < samples.size()) {
-            bufferedSamples.addAll(samples.subList(i, samples.size()));
+            if (buffered == windowSize) {
+                tarsosProcessor.process(audioEvent);
+                for (int i = 0; i < windowSize; i++)
+                    result[written + i] = (short) window[i];
+                written += windowSize;
+                buffered = 0;
+            }
         }
-
         return result;
     }
 
-    private List<Short> emptyBuffer() {
-        float[] convertedSamples = SampleUtils.toFloats(bufferedSamples);
-        bufferedSamples.clear();
-        AudioEvent audioEvent = new AudioEvent(AudioFormats.TARSOS_FORMAT);
-        audioEvent.setFloatBuffer(convertedSamples);
-        // The processor will mutate our converted samples array
-        tarsosProcessor.process(audioEvent);
-        return SampleUtils.fromFloats(convertedSamples);
+    // Only the samples buffered toward the next window are saved; TarsosDSP processors keep their own
+    // (much smaller) filter history, which we have no access to
+
+    @Override
+    public int stateSize() {
+        return Integer.BYTES + Short.BYTES * buffered;
+    }
+
+    @Override
+    public void saveState(ByteBuffer destination) {
+        destination.putInt(buffered);
+        for (int i = 0; i < buffered; i++)
+            destination.putShort((short) window[i]);
+    }
+
+    @Override
+    public void restoreState(ByteBuffer source) {
+        int size = source.getInt();
+        if (size < 0 || size >= windowSize || size * Short.BYTES > source.remaining())
+            throw new IllegalArgumentException("Invalid number of buffered samples " + size);
+        for (int i = 0; i < size; i++)
+            window[i] = source.getShort();
+        buffered = size;
     }
 
 }
@@ -17,118 +17,715 @@
  */
 package io.github.c0urante.kafka.sound.demo.loop;
 
+import io.github.c0urante.kafka.sound.demo.streams.StatefulBlockEffect;
 import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
-import io.github.c0urante.kafka.sound.demo.util.CircularIterator;
 import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
-import org.apache.kafka.streams.kstream.ValueMapper;
+import io.github.c0urante.kafka.sound.demo.util.SpscQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-public class Loop implements ValueMapper<Short, Short> {
+/**
+ * A loop pedal. The first press starts recording, the second closes the loop and immediately starts
+ * recording a new layer on top of it, and every press after that alternates between finishing and
+ * starting layers. Clearing wipes the most recent (uncommitted) layers, or if there are none, the entire loop.
+ * <p>
+ * All committed layers are mixed down into a single accumulator, and the layers currently being recorded
+ * into a second, parallel buffer, so the cost per sample stays the same no matter how many layers are stacked.
+ * <p>
+ * Loops live in numbered {@link LoopSlot slots}, which can optionally be backed by memory-mapped files
+ * so that they can survive restarts, and so that switching back to an old loop is instant. Loops from an earlier
+ * run are only picked up if asked for; otherwise, every slot starts out empty. Clearing a loop deletes its file.
+ * <p>
+ * Pedal presses never touch the loop directly. They're queued up, and take effect at the start of the next block,
+ * so the thread handling the pedal never has to wait on (or hold up) the audio thread. Anything that would take
+ * time proportional to the length of the loop is either spread out over the next trip around it (merging layers)
+ * or handed off to a background thread (writing loops to disk).
+ * <p>
+ * The saved loop is also {@link #stateChanged() snapshotted} into the changelog every time it changes, which (unlike
+ * slot files) follows a stream task to whichever instance it ends up on.
+ * <p>
+ * Presses can also be {@link #loop(long) timestamped}, in which case they take effect on the sample that was being
+ * recorded when the pedal was pressed, instead of whenever the press happens to make it to the audio thread.
+ * Timestamps are mapped onto samples using the timestamps of the blocks themselves, and since that's usually
+ * in the past by the time we hear about it, the last second of input is kept around so that recording can be
+ * started (or stopped) retroactively. Boundaries can also be {@link #setTempo(double) quantized} to the beat.
+ * <p>
+ * Each {@link #fork() fork} records and plays back its own loops (e.g., one per key and stream task), but every
+ * press goes to all of them, so a single pedal still drives everything. Once a loop has been forked, presses only
+ * go to its forks, and the original is left as nothing but a controller for them.
+ */
+public class Loop implements StatefulBlockEffect {
 
     private static final Logger log = LoggerFactory.getLogger(Loop.class);
-    private static final int CURRENT_SAMPLE_BIAS = 3;
+
+    // Far more presses than anyone could manage in the span of a single block
+    private static final int MAX_QUEUED_COMMANDS = 64;
+    private static final long UNTIMED = Long.MIN_VALUE;
+    private static final double SAMPLES_PER_MS = AudioFormats.SAMPLE_RATE / 1000.0;
+    // How far back in time presses can take effect
+    private static final int HISTORY_LENGTH = AudioFormats.SAMPLE_RATE;
+    // If block timestamps suddenly disagree with our clock by this much, the input was probably interrupted
+    private static final double CLOCK_RESYNC_THRESHOLD = AudioFormats.SAMPLE_RATE;
+    // Leeway for the sound card's clock running slower than the wall clock (100ppm is typical for a crystal)
+    private static final double CLOCK_DRIFT_PER_SAMPLE = 0.0001;
+
+    // The instance whose pedal drives this one; just this instance, unless it's a fork
+    private final Loop controller;
+    // Every fork of the controller; only kept by the controller. Held weakly, so that forks that are thrown away
+    // (e.g., when a task is closed) never have to be unregistered. Also guards the producer side of every fork's
+    // command queue, and the controller's choice of slot
+    private final List<WeakReference<Loop>> forks;
+    private boolean forked;
+    private int slotIndex;
 
     private final double loopAmplificationFactor;
+    private final Path slotDirectory;
+    private final int slotCount;
+    private final boolean recall;
+    private final short[] singleSample;
+    private final List<LoopSlot> slots;
+    // Filled by whoever's handling the pedal, and drained by the audio thread
+    private final SpscQueue<Command> commands;
+    // Only used for file-backed slots; shared by the controller and all of its forks
+    private final ExecutorService persister;
+    private final AtomicReference<Persisted> persisted;
+    // The most recent input, indexed by sample clock
+    private final short[] history;
+    // Only read from the controller
+    private volatile double beatLength;
+    private LoopSlot currentSlot;
+
+    // The number of samples processed so far
+    private long sampleClock;
+    // Maps wall-clock time onto the sample clock; NaN until we've seen a timestamped block
+    private double clockOffset;
+    // A command that's meant to take effect on a sample that hasn't arrived yet, and the sample clock at which it will
+    private Command scheduled;
+    private long scheduledTarget;
 
     private boolean looping;
-    private List<List<Short>> newLoopSamples;
-    private List<List<Short>> savedLoopSamples;
-    private CircularIterator<List<Short>> newLoop;
-    private CircularIterator<List<Short>> savedLoop;
-
+    // The first loop, while it's still being recorded
+    private int[] recording;
+    private int recorded;
+    private long recordingStart;
+    // Every committed layer, summed together
+    private IntBuffer saved;
+    // Bumped every time the contents of the saved loop change in a way that a background copy might miss
+    private long savedVersion;
+    // The version of the saved loop as of the last snapshot; starts out behind, so that even an empty loop
+    // gets snapshotted once
+    private long snapshotVersion;
+    // Layers that have been recorded since the last commit, summed together
+    private short[] pending;
+    private long layerStart;
+    // Committed layers that haven't been fully folded into the saved loop yet
+    private short[] merging;
+    private int mergeRemaining;
+    // A zeroed-out buffer left over from the last merge, ready to hold the next round of layers
+    private short[] spare;
+    private boolean persisting;
+    private IntBuffer unpersistable;
+    private int playhead;
 
     public Loop(double loopAmplificationFactor) {
+        this(loopAmplificationFactor, null, 1);
+    }
+
+    public Loop(double loopAmplificationFactor, Path slotDirectory, int slotCount) {
+        this(loopAmplificationFactor, slotDirectory, slotCount, false);
+    }
+
+    /**
+     * @param slotDirectory the directory to keep loop files in, or null to keep loops in memory
+     * @param slotCount the number of loop slots to cycle through
+     * @param recall whether to pick up loops left in the slot directory by an earlier run
+     */
+    public Loop(double loopAmplificationFactor, Path slotDirectory, int slotCount, boolean recall) {
+        this(null, loopAmplificationFactor, slotDirectory, slotCount, recall, 0);
+    }
+
+    /**
+     * @param controller the loop to fork from, or null if this isn't a fork
+     * @param slotDirectory the directory to keep this instance's loop files in, or null to keep them in memory
+     * @param slotIndex the slot to start out in
+     */
+    private Loop(
+            Loop controller,
+            double loopAmplificationFactor,
+            Path slotDirectory,
+            int slotCount,
+            boolean recall,
+            int slotIndex
+    ) {
         if (loopAmplificationFactor <= 0 || loopAmplificationFactor > 1) {
             throw new IllegalArgumentException(
                     "Invalid loop amplification factor: " + loopAmplificationFactor + "; must be in range(0, 1]");
         }
+        if (slotCount <= 0)
+            throw new IllegalArgumentException("Invalid slot count: " + slotCount + "; must be positive");
+        this.controller = controller != null ? controller : this;
+        this.forks = controller != null ? null : new ArrayList<>();
+        this.forked = false;
+        this.slotIndex = slotIndex;
         this.loopAmplificationFactor = loopAmplificationFactor;
-
+        this.slotDirectory = slotDirectory;
+        this.slotCount = slotCount;
+        this.recall = recall;
+        this.singleSample = new short[1];
+
+        if (slotDirectory != null) {
+            try {
+                Files.createDirectories(slotDirectory);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create loop slot directory " + slotDirectory, e);
+            }
+        }
+        if (controller != null) {
+            this.persister = slotDirectory != null ? controller.persister : null;
+        } else if (slotDirectory != null) {
+            this.persister = Executors.newSingleThreadExecutor(runnable -> {
+                Thread result = new Thread(runnable, "loop-persister");
+                result.setDaemon(true);
+                return result;
+            });
+        } else {
+            this.persister = null;
+        }
+        this.slots = IntStream.rangeClosed(1, slotCount)
+                .mapToObj(i -> new LoopSlot(
+                        "Slot " + i,
+                        slotDirectory != null ? slotDirectory.resolve("slot-" + i + ".loop") : null,
+                        recall
+                )).collect(Collectors.toList());
+        this.commands = new SpscQueue<>(MAX_QUEUED_COMMANDS);
+        this.persisted = new AtomicReference<>();
+        this.history = new short[HISTORY_LENGTH];
+        this.beatLength = 0;
+        this.currentSlot = slots.get(slotIndex);
+        this.sampleClock = 0;
+        this.clockOffset = Double.NaN;
+
+        this.snapshotVersion = -1;
         this.looping = false;
+        // Pick up whatever we left behind last time, if asked to
+        this.saved = currentSlot.load();
+        this.playhead = 0;
+    }
+
+    @Override
+    public short[] apply(short[] samples) {
+        return apply(samples, -1);
     }
 
     @Override
-    public synchronized Short apply(Short sample) {
-        if (savedLoop != null) {
+    public short[] apply(short[] samples, long timestamp) {
+        Persisted persisted = this.persisted.getAndSet(null);
+        if (persisted != null)
+            finishPersisting(persisted);
+
+        remember(samples);
+        if (timestamp >= 0)
+            syncClock(timestamp, samples.length);
+
+        // Split the block wherever a command is supposed to take effect
+        long blockEnd = sampleClock + samples.length;
+        int processed = 0;
+        while (true) {
+            if (scheduled == null) {
+                scheduled = commands.poll();
+                if (scheduled == null)
+                    break;
+                scheduledTarget = resolve(scheduled);
+            }
+            if (scheduledTarget >= blockEnd)
+                break;
+
+            int offset = (int) Math.max(processed, scheduledTarget - (blockEnd - samples.length));
+            process(samples, processed, offset - processed);
+            processed = offset;
+            // Anything earlier than this already happened; make up for it as best we can
+            int lateness = (int) Math.min(sampleClock - scheduledTarget, sampleClock);
+            scheduled.action.run(this, Math.min(lateness, history.length));
+            scheduled = null;
+        }
+        process(samples, processed, samples.length - processed);
+
+        if (saved != null && needsPersisting())
+            persist();
+        return samples;
+    }
+
+    public Short apply(Short sample) {
+        singleSample[0] = sample;
+        return apply(singleSample)[0];
+    }
+
+    private void process(short[] samples, int offset, int length) {
+        if (saved != null) {
             // We've already closed the loop
-            List<Short> savedLooped = savedLoop.next();
-            List<Short> newLooped = newLoop != null ? newLoop.next() : null;
+            int processed = 0;
+            while (processed < length) {
+                // Split at the end of the loop so that the inner loops stay simple
+                int run = Math.min(length - processed, saved.limit() - playhead);
+                play(samples, offset + processed, run);
+                processed += run;
+                playhead += run;
+                if (playhead == saved.limit())
+                    playhead = 0;
+            }
+        } else if (looping) {
+            // We're still filling in the first loop
+            record(samples, offset, length);
+        }
+        sampleClock += length;
+    }
+
+    private void play(short[] samples, int offset, int length) {
+        IntBuffer saved = this.saved;
+        short[] pending = this.pending;
+        int playhead = this.playhead;
+
+        short[] merging = this.merging;
+        if (merging != null) {
+            // Fold the most recently committed layers in right as the playhead reaches them; by the time we've
+            // made it all the way around the loop, they're completely merged.
+            // (Anything we pass over twice has already been zeroed out, so it's harmless)
+            for (int i = 0; i < length; i++) {
+                saved.put(playhead + i, saved.get(playhead + i) + merging[playhead + i]);
+                merging[playhead + i] = 0;
+            }
+            mergeRemaining -= length;
+            if (mergeRemaining <= 0) {
+                spare = merging;
+                this.merging = null;
+            }
+        }
 
-            List<Short> audible = new ArrayList<>(savedLooped);
-            if (newLooped != null)
-                audible.addAll(newLooped);
+        if (pending == null) {
+            for (int i = 0; i < length; i++) {
+                samples[offset + i] = SampleUtils.coerceToSample((long) saved.get(playhead + i) + samples[offset + i]);
+            }
+            return;
+        }
 
-            // Calculate the sample we're going to play to the user
-            // Over-represent the current input sample so that it's not drowned out by older samples
-            IntStream.of(CURRENT_SAMPLE_BIAS).forEach(i -> audible.add(sample));
+        boolean recordingLayer = looping;
+        for (int i = 0; i < length; i++) {
+            short sample = samples[offset + i];
+            short layers = pending[playhead + i];
             // Surprisingly, summing works fine here instead of averaging
             // There doesn't seem to be much risk of overflow (or really, clipping)
             // until numerous layers are added to the loop
-            short result = sum(audible);
+            samples[offset + i] = SampleUtils.coerceToSample((long) saved.get(playhead + i) + layers + sample);
+            if (recordingLayer)
+                pending[playhead + i] = SampleUtils.coerceToSample((long) layers + (short) (sample * loopAmplificationFactor));
+        }
+    }
 
-            if (looping && newLooped != null) {
-                newLooped.add((short) (sample * loopAmplificationFactor));
-            }
+    private void record(short[] samples, int offset, int length) {
+        if (recorded + length > recording.length)
+            recording = Arrays.copyOf(recording, Math.max(recording.length * 2, recorded + length));
+        for (int i = 0; i < length; i++)
+            recording[recorded + i] = samples[offset + i];
+        recorded += length;
+    }
 
-            return result;
+    private void remember(short[] samples) {
+        int start = Math.max(0, samples.length - history.length);
+        int index = (int) ((sampleClock + start) % history.length);
+        for (int i = start; i < samples.length; i++) {
+            history[index] = samples[i];
+            if (++index == history.length)
+                index = 0;
+        }
+    }
+
+    private short remembered(long clock) {
+        return history[(int) (clock % history.length)];
+    }
+
+    private void syncClock(long timestamp, int blockLength) {
+        // Timestamps are taken after the block has been recorded, so they can only ever be late; the earliest
+        // one we've seen (relative to the sample clock) is the best guess at when each sample actually came in
+        double offset = sampleClock + blockLength - timestamp * SAMPLES_PER_MS;
+        if (Double.isNaN(clockOffset)
+                || offset > clockOffset
+                || offset < clockOffset - CLOCK_RESYNC_THRESHOLD) {
+            clockOffset = offset;
         } else {
-            if (looping) {
-                // We're still filling in the first loop
-                assert newLoopSamples != null;
+            clockOffset -= blockLength * CLOCK_DRIFT_PER_SAMPLE;
+        }
+    }
+
+    // Figure out which sample a command should take effect on
+    private long resolve(Command command) {
+        if (command.eventTime == UNTIMED || Double.isNaN(clockOffset))
+            return sampleClock;
+        long target = Math.round(command.eventTime * SAMPLES_PER_MS + clockOffset);
+        // Don't trust anything wildly out of range of what we can actually do something about
+        target = Math.max(sampleClock - history.length, Math.min(target, sampleClock + history.length));
+        return command.quantized ? quantize(target) : target;
+    }
+
+    private long quantize(long target) {
+        double beatLength = controller.beatLength;
+        if (beatLength <= 0)
+            return target;
+        if (saved == null) {
+            // The first press sets the downbeat
+            if (!looping)
+                return target;
+            // Round the loop off to a whole number of beats
+            long beats = Math.max(1, Math.round((target - recordingStart) / beatLength));
+            return recordingStart + Math.round(beats * beatLength);
+        }
+        // Line up with the nearest beat in the loop
+        long position = Math.floorMod(target - sampleClock + playhead, (long) saved.limit());
+        long snapped = Math.round(Math.round(position / beatLength) * beatLength);
+        return target + snapped - position;
+    }
 
-                List<Short> firstLayer = new ArrayList<>();
-                firstLayer.add(sample);
-                newLoopSamples.add(firstLayer);
+    // The position in the loop of a sample that was processed a little while ago
+    private int positionOf(long clock) {
+        return (int) Math.floorMod(playhead - (sampleClock - clock), (long) saved.limit());
+    }
+
+    private void startMerge() {
+        if (merging != null) {
+            // Layers are being committed faster than we can make it around the loop; rare enough that
+            // it's fine to catch up all at once
+            finishMerge();
+        }
+        merging = pending;
+        mergeRemaining = saved.limit();
+        savedVersion++;
+        pending = spare;
+        spare = null;
+    }
+
+    private void finishMerge() {
+        if (merging == null)
+            return;
+        for (int i = 0; i < saved.limit(); i++) {
+            saved.put(i, saved.get(i) + merging[i]);
+            merging[i] = 0;
+        }
+        spare = merging;
+        merging = null;
+    }
+
+    // Freshly recorded loops (and restored ones) live on the heap until they've been copied into their slot's file
+    private boolean needsPersisting() {
+        return persister != null
+                && !saved.isDirect()
+                && saved != unpersistable
+                && merging == null
+                && !persisting;
+    }
+
+    private void persist() {
+        LoopSlot slot = currentSlot;
+        IntBuffer source = saved;
+        long version = savedVersion;
+        persisting = true;
+        persister.execute(() -> {
+            IntBuffer result = null;
+            try {
+                result = slot.save(source);
+            } catch (UncheckedIOException e) {
+                log.error("Failed to save loop in {}; it will only be kept in memory", slot.name(), e);
             }
+            persisted.set(new Persisted(source, version, result));
+        });
+    }
 
-            return sample;
+    private void finishPersisting(Persisted persisted) {
+        persisting = false;
+        if (persisted.result == null) {
+            unpersistable = persisted.source;
+            return;
+        }
+        if (persisted.source == saved && persisted.version == savedVersion && merging == null) {
+            // Nothing's changed since the copy was made; switch over to the file so that new layers are written through
+            saved = persisted.result;
+            currentSlot.update(saved);
         }
+        // Otherwise, it's stale, and we'll try again once things settle down
     }
 
-    public synchronized void loop() {
+    // Make sure a loop we're about to walk away from ends up in its slot in its entirety
+    private void retire() {
+        finishMerge();
+        spare = null;
+        if (persister != null && saved != null && !saved.isDirect() && saved != unpersistable)
+            persist();
+    }
+
+    // Empty out a slot for good, so that its loop doesn't come back if we switch back to it (or restart)
+    private void forget(LoopSlot slot) {
+        slot.clear();
+        if (persister == null)
+            return;
+        // Queued up behind any saves of the same slot, so the file can't be brought back by one that was in flight
+        persister.execute(() -> {
+            try {
+                slot.delete();
+            } catch (UncheckedIOException e) {
+                log.error("Failed to delete loop in {}", slot.name(), e);
+            }
+        });
+    }
+
+    private void switchTo(LoopSlot slot, IntBuffer loop) {
+        if (recording != null || pending != null)
+            log.info("Discarding uncommitted layers");
+        if (saved != null)
+            retire();
+        currentSlot = slot;
+        saved = loop;
+        savedVersion++;
+        recording = null;
+        pending = null;
+        playhead = 0;
+        looping = false;
+        log.info("Switched to {} ({})", currentSlot.name(), saved != null ? "loaded saved loop" : "empty");
+    }
+
+    /**
+     * Fork a loop that's kept in memory only, no matter where this one's kept.
+     */
+    @Override
+    public Loop fork() {
+        return fork((Path) null);
+    }
+
+    /**
+     * If this loop is kept in files, the fork's are kept in a directory of their own, named after the stream.
+     */
+    @Override
+    public Loop fork(String streamId) {
+        Path slotDirectory = controller.slotDirectory;
+        return fork(slotDirectory != null ? slotDirectory.resolve(streamId) : null);
+    }
+
+    private Loop fork(Path slotDirectory) {
+        synchronized (controller.forks) {
+            // Starts out in whichever slot the controller's in, and registered before the lock is released,
+            // so that it can't miss any presses
+            Loop result = new Loop(
+                    controller,
+                    loopAmplificationFactor,
+                    slotDirectory,
+                    slotCount,
+                    recall,
+                    controller.slotIndex
+            );
+            controller.forks.add(new WeakReference<>(result));
+            controller.forked = true;
+            return result;
+        }
+    }
+
+    /**
+     * Loops are big, but the saved loop only changes when a layer is committed (or the loop is finished, wiped,
+     * or switched out), so that's the only time it's worth snapshotting. Where the playhead is doesn't count;
+     * a restored loop picks up from wherever it was as of the last snapshot.
+     */
+    @Override
+    public boolean stateChanged() {
+        return savedVersion != snapshotVersion;
+    }
+
+    @Override
+    public int stateSize() {
+        return Integer.BYTES * (2 + (saved != null ? saved.limit() : 0));
+    }
+
+    // Only the saved loop is kept; layers that haven't been committed yet could still be wiped, so they're not
+    // worth saving. Layout: [loop length (-1 for no loop)][playhead][mixed-down loop]
+    @Override
+    public void saveState(ByteBuffer destination) {
+        snapshotVersion = savedVersion;
+        if (saved == null) {
+            destination.putInt(-1);
+            destination.putInt(0);
+            return;
+        }
+        destination.putInt(saved.limit());
+        destination.putInt(playhead);
+        if (merging == null) {
+            destination.asIntBuffer().put((IntBuffer) saved.duplicate().clear());
+            destination.position(destination.position() + Integer.BYTES * saved.limit());
+        } else {
+            // Include the layers that haven't been folded in yet
+            for (int i = 0; i < saved.limit(); i++)
+                destination.putInt(saved.get(i) + merging[i]);
+        }
+    }
+
+    @Override
+    public void restoreState(ByteBuffer source) {
+        int length = source.getInt();
+        int playhead = source.getInt();
+        // Don't clobber anything that's being recorded right now. A loop recalled from this instance's file is fair
+        // game, though; the changelog follows the task around, so it's never further behind than a local file
+        // (which could be left over from the last time the task ran here)
+        if (length <= 0 || looping)
+            return;
+        if (playhead < 0 || playhead >= length || length * Integer.BYTES > source.remaining())
+            throw new IllegalArgumentException("Invalid loop length " + length + " and playhead " + playhead);
+
+        int[] restored = new int[length];
+        ByteBuffer loop = source.duplicate();
+        loop.limit(loop.position() + Integer.BYTES * length);
+        loop.asIntBuffer().get(restored);
+        source.position(loop.limit());
+
+        // Written to the slot's file (if it has one) in the background
+        this.saved = IntBuffer.wrap(restored);
+        this.savedVersion++;
+        // No point in writing it right back out
+        this.snapshotVersion = savedVersion;
+        this.playhead = playhead;
+        currentSlot.update(saved);
+        log.info("Restored saved loop");
+    }
+
+    /**
+     * Start or finish recording. Takes effect at the start of the next block.
+     */
+    public void loop() {
+        loop(UNTIMED);
+    }
+
+    /**
+     * Start or finish recording, as of the given time. If that's already passed by the time the press reaches the
+     * audio thread, recording is started (or stopped) retroactively; otherwise, it's held off until the right sample.
+     * @param eventTime the time the pedal was pressed, in milliseconds since the epoch, on the same clock that
+     *                  the blocks were timestamped with
+     */
+    public void loop(long eventTime) {
+        Command command = new Command(Loop::toggleLooping, eventTime, true);
+        broadcast(loop -> command);
+    }
+
+    /**
+     * Quantize loop boundaries to the beat. The first press sets the downbeat, the loop is rounded off
+     * to a whole number of beats, and layers start and stop on the nearest beat. Only applies to
+     * {@link #loop(long) timestamped} presses.
+     * @param bpm the tempo in beats per minute, or 0 to stop quantizing
+     */
+    public void setTempo(double bpm) {
+        if (bpm < 0)
+            throw new IllegalArgumentException("Invalid tempo: " + bpm + "; may not be negative");
+        controller.beatLength = bpm > 0 ? AudioFormats.SAMPLE_RATE * 60 / bpm : 0;
+    }
+
+    /**
+     * Wipe the most recent layers, or the entire loop. Takes effect at the start of the next block.
+     */
+    public void clear() {
+        Command command = new Command((loop, lateness) -> loop.wipe(), UNTIMED, false);
+        broadcast(loop -> command);
+    }
+
+    private void toggleLooping(int lateness) {
         if (looping) {
-            if (savedLoop == null) {
+            if (saved == null) {
+                // Anything that came in after the loop should've ended goes on the first layer instead
+                int overshoot = Math.min(lateness, recorded);
+                if (recorded == overshoot) {
+                    // Nothing made it through between presses; pretend the first one never happened
+                    recording = null;
+                    looping = false;
+                    log.info("Aborting empty loop");
+                    return;
+                }
+
                 // We just finished the first loop; keep looping
-                savedLoopSamples = deepCopy(newLoopSamples);
-                savedLoop = new CircularIterator<>(savedLoopSamples);
+                // (No copying required; the loop is written to disk, if at all, in the background)
+                saved = IntBuffer.wrap(recording, 0, recorded - overshoot).slice();
+                savedVersion++;
+                currentSlot.update(saved);
+                playhead = 0;
 
                 // Start adding new layers immediately
-                newLoopSamples = emptyLoop(savedLoopSamples.size());
-                newLoop = new CircularIterator<>(newLoopSamples);
+                pending = new short[saved.limit()];
+                for (int i = 0; i < overshoot; i++) {
+                    int position = playhead;
+                    pending[position] = SampleUtils.coerceToSample(
+                            (long) pending[position] + (short) (recording[recorded - overshoot + i] * loopAmplificationFactor)
+                    );
+                    if (++playhead == saved.limit())
+                        playhead = 0;
+                }
+                layerStart = sampleClock - overshoot;
+                recording = null;
 
-                log.info("Finished new loop");
+                log.info("Finished new loop in {}", currentSlot.name());
             } else {
+                // Take back anything that was recorded after the press
+                int overshoot = (int) Math.min(Math.min(lateness, sampleClock - layerStart), saved.limit());
+                for (long clock = sampleClock - overshoot; clock < sampleClock; clock++) {
+                    int position = positionOf(clock);
+                    pending[position] = SampleUtils.coerceToSample(
+                            (long) pending[position] - (short) (remembered(clock) * loopAmplificationFactor)
+                    );
+                }
+
                 // Don't save the samples just yet--we may still want to wipe them
                 looping = false;
 
                 log.info("Finished new layer(s)");
             }
         } else {
-            if (savedLoopSamples == null) {
+            if (saved == null) {
                 // Time to begin the first loop
                 // Conservatively, we'll want to loop for at least one second
-                this.newLoopSamples = new ArrayList<>(AudioFormats.SAMPLE_RATE);
+                recording = new int[AudioFormats.SAMPLE_RATE];
+                recorded = 0;
+                for (long clock = sampleClock - lateness; clock < sampleClock; clock++)
+                    recording[recorded++] = remembered(clock);
+                recordingStart = sampleClock - lateness;
 
                 log.info("Starting new loop");
             } else {
-                if (newLoopSamples != null) {
+                if (pending != null) {
                     // It's finally safe to save the new samples, right before we begin
                     // recording new layers
-                    assert newLoopSamples.size() == savedLoopSamples.size();
-
-                    for (int i = 0; i < savedLoopSamples.size(); i++) {
-                        savedLoop.next().addAll(newLoop.next());
-                    }
+                    startMerge();
                 }
-
-                newLoopSamples = emptyLoop(savedLoopSamples.size());
-                newLoop = new CircularIterator<>(newLoopSamples);
+                if (pending == null)
+                    pending = new short[saved.limit()];
+
+                // Pick up anything that was played after the press
+                int undershoot = Math.min(lateness, saved.limit());
+                for (long clock = sampleClock - undershoot; clock < sampleClock; clock++) {
+                    int position = positionOf(clock);
+                    pending[position] = SampleUtils.coerceToSample(
+                            (long) pending[position] + (short) (remembered(clock) * loopAmplificationFactor)
+                    );
+                }
+                layerStart = sampleClock - undershoot;
 
                 log.info("Starting new layer(s)");
             }
@@ -136,19 +733,23 @@ public class Loop implements ValueMapper<Short, Short> {
         }
     }
 
-    public synchronized void clear() {
-        if (newLoopSamples != null) {
-            newLoopSamples = null;
-            newLoop = null;
+    private void wipe() {
+        if (recording != null || pending != null) {
+            recording = null;
+            pending = null;
 
-            if (looping && savedLoop == null) {
+            if (looping && saved == null) {
                 log.info("Aborting new loop");
             } else {
                 log.info("Wiping most recent layers");
             }
-        } else if (savedLoopSamples != null) {
-            savedLoopSamples = null;
-            savedLoop = null;
+        } else if (saved != null) {
+            finishMerge();
+            spare = null;
+            saved = null;
+            savedVersion++;
+            playhead = 0;
+            forget(currentSlot);
 
             log.info("Wiping saved loop");
         } else {
@@ -159,21 +760,99 @@ public class Loop implements ValueMapper<Short, Short> {
         looping = false;
     }
 
-    private List<List<Short>> emptyLoop(int size) {
-        return IntStream.range(0, size)
-                .mapToObj(i -> new ArrayList<Short>())
-                .collect(Collectors.toList());
+    /**
+     * Switch to the next loop slot. Any uncommitted layers are discarded. The slot's loop (for this loop and
+     * every fork) is loaded on the calling thread, and the switch takes effect at the start of the next block.
+     * @return the name of the new slot
+     */
+    public String nextSlot() {
+        return select(index -> (index + 1) % slotCount);
+    }
+
+    public String prevSlot() {
+        return select(index -> index == 0 ? slotCount - 1 : index - 1);
+    }
+
+    private String select(IntUnaryOperator selector) {
+        synchronized (controller.forks) {
+            int index = selector.applyAsInt(controller.slotIndex);
+            controller.slotIndex = index;
+            broadcast(loop -> {
+                LoopSlot slot = loop.slots.get(index);
+                IntBuffer saved = slot.load();
+                return new Command((l, lateness) -> l.switchTo(slot, saved), UNTIMED, false);
+            });
+            return slots.get(index).name();
+        }
+    }
+
+    // Hand a command to the controller, or once it's been forked, to every fork
+    private void broadcast(Function<Loop, Command> command) {
+        // There's only supposed to be one producer at a time for each queue; this lock is never touched by the
+        // audio thread (except when forking)
+        synchronized (controller.forks) {
+            if (!controller.forked) {
+                controller.enqueue(command.apply(controller));
+                return;
+            }
+            Iterator<WeakReference<Loop>> forks = controller.forks.iterator();
+            while (forks.hasNext()) {
+                Loop fork = forks.next().get();
+                if (fork == null) {
+                    forks.remove();
+                    continue;
+                }
+                fork.enqueue(command.apply(fork));
+            }
+        }
+    }
+
+    private void enqueue(Command command) {
+        if (!commands.offer(command))
+            log.warn("Too many loop commands queued up; ignoring the latest one");
+    }
+
+    /**
+     * Wait for any loops that are being written to disk in the background to finish. Only really useful for testing.
+     */
+    void awaitPersistence() throws InterruptedException, ExecutionException {
+        if (persister != null)
+            persister.submit(() -> { }).get();
+    }
+
+    // Immutable, since the same command can go to several forks
+    private static class Command {
+        private final Action action;
+        // Wall-clock time, or UNTIMED to take effect as soon as possible
+        private final long eventTime;
+        private final boolean quantized;
+
+        public Command(Action action, long eventTime, boolean quantized) {
+            this.action = action;
+            this.eventTime = eventTime;
+            this.quantized = quantized;
+        }
     }
 
-    private <E> List<List<E>> deepCopy(List<List<E>> nestedList) {
-        return nestedList.stream()
-                .map(ArrayList::new)
-                .collect(Collectors.toList());
+    private interface Action {
+        /**
+         * @param loop the loop (or fork) to act on
+         * @param lateness how many samples ago the command was supposed to take effect
+         */
+        void run(Loop loop, int lateness);
     }
 
-    private short sum(List<Short> samples) {
-        long sum = samples.stream().mapToLong(Short::longValue).sum();
-        return SampleUtils.coerceToSample(sum);
+    private static class Persisted {
+        private final IntBuffer source;
+        private final long version;
+        // Null if saving failed
+        private final IntBuffer result;
+
+        public Persisted(IntBuffer source, long version, IntBuffer result) {
+            this.source = source;
+            this.version = version;
+            this.result = result;
+        }
     }
 
 }
@@ -0,0 +1,151 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.loop;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Storage for one loop. If backed by a file, the mixed-down loop is memory-mapped straight out of it, so
+ * every committed layer is written through to disk, recalling the loop later is just a matter of mapping it again,
+ * and the OS is free to page out loops that aren't being played. Otherwise, loops are kept on the heap, and only
+ * last as long as the process does.
+ * <p>
+ * Freshly-recorded loops start out on the heap either way, and are copied into their file by a background
+ * thread with {@link #save(IntBuffer)}, since the audio thread has no business doing file I/O.
+ * <p>
+ * Files are written in native byte order, and are only meant to be read on the machine that wrote them.
+ * Whatever's left in a file from an earlier run is only picked up if the slot is told to recall it; otherwise,
+ * it's ignored until it's recorded over.
+ */
+class LoopSlot {
+
+    private final String name;
+    private final Path file;
+    // The most up-to-date copy of the loop, if it's been recorded or loaded in this process
+    private volatile IntBuffer latest;
+    // Whether to load whatever's in the file when there's no loop from this process to hand out
+    private volatile boolean recallable;
+
+    /**
+     * @param file the file to keep the loop in, or null to keep it in memory
+     * @param recall whether to load a loop left in the file by an earlier run
+     */
+    public LoopSlot(String name, Path file, boolean recall) {
+        this.name = name;
+        this.file = file;
+        this.recallable = recall;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the loop saved in this slot, or null if it's empty
+     */
+    public synchronized IntBuffer load() {
+        IntBuffer latest = this.latest;
+        if (latest != null)
+            return latest;
+        if (file == null || !recallable)
+            return null;
+        if (!Files.exists(file))
+            return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size == 0 || size % Integer.BYTES != 0)
+                return null;
+            return map(channel, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load loop from " + file, e);
+        }
+    }
+
+    /**
+     * Make the given loop the one that'll be handed out by {@link #load()} from now on. Never blocks.
+     */
+    public void update(IntBuffer loop) {
+        this.latest = loop;
+    }
+
+    /**
+     * Empty this slot out. Never blocks; the file (if there is one) is ignored from now on,
+     * and can be deleted later on with {@link #delete()}.
+     */
+    public void clear() {
+        this.recallable = false;
+        this.latest = null;
+    }
+
+    /**
+     * Delete this slot's file, if it has one. Meant to be run after {@link #clear() clearing} the slot, on the same
+     * thread that {@link #save(IntBuffer) saves} it, so that it can't race with (and wipe out) a newer loop.
+     */
+    public synchronized void delete() {
+        if (file == null)
+            return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete loop file " + file, e);
+        }
+    }
+
+    /**
+     * Write a copy of the given loop to this slot's file, replacing whatever was there before.
+     * @return the copy, which is memory-mapped and can be read from and written to in place of the original
+     */
+    public synchronized IntBuffer save(IntBuffer loop) {
+        if (file == null)
+            throw new IllegalStateException("Cannot save loop to " + name + ", which isn't backed by a file");
+        try (FileChannel channel = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            // Mapping past the end of the file grows it
+            IntBuffer result = map(channel, (long) loop.limit() * Integer.BYTES);
+            result.put((IntBuffer) loop.duplicate().clear());
+            result.clear();
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save loop to " + file, e);
+        }
+    }
+
+    public boolean persistent() {
+        return file != null;
+    }
+
+    private static IntBuffer map(FileChannel channel, long size) throws IOException {
+        // The mapping stays valid after the channel is closed
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+}
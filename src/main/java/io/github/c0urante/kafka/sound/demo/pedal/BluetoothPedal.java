@@ -41,6 +41,8 @@ public abstract class BluetoothPedal {
     private static final Object RIGHT_PEDAL_DOWN = "right pedal down";
     private static final Object RIGHT_PEDAL_UP = "right pedal up";
 
+    private volatile long eventTime;
+
     /**
      * Creates a hidden JFrame and listens to that window for keyboard input
      */
@@ -93,6 +95,7 @@ public abstract class BluetoothPedal {
             @Override
             public void actionPerformed(ActionEvent e) {
                 log.debug("Left pedal pressed");
+                eventTime = e.getWhen();
                 try {
                     leftDown();
                 } catch (Throwable t) {
@@ -105,6 +108,7 @@ public abstract class BluetoothPedal {
             @Override
             public void actionPerformed(ActionEvent e) {
                log.debug("Left pedal released");
+               eventTime = e.getWhen();
                try {
                    leftUp();
                } catch (Throwable t) {
@@ -117,6 +121,7 @@ public abstract class BluetoothPedal {
             @Override
             public void actionPerformed(ActionEvent e) {
                 log.debug("Right pedal pressed");
+                eventTime = e.getWhen();
                 try {
                     rightDown();
                 } catch (Throwable t) {
@@ -129,6 +134,7 @@ public abstract class BluetoothPedal {
             @Override
             public void actionPerformed(ActionEvent e) {
                 log.debug("Right pedal released");
+                eventTime = e.getWhen();
                 try {
                     rightUp();
                 } catch (Throwable t) {
@@ -141,6 +147,13 @@ public abstract class BluetoothPedal {
         frame.add(pain);
     }
 
+    /**
+     * @return when the pedal event currently being handled happened, in milliseconds since the epoch
+     */
+    protected long eventTime() {
+        return eventTime;
+    }
+
     protected abstract void leftDown();
     protected abstract void leftUp();
     protected abstract void rightDown();
@@ -0,0 +1,117 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import io.github.c0urante.kafka.sound.demo.util.RealFft;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The building blocks of most time-domain pitch detectors, for every lag up to half a window:
+ * <ul>
+ *     <li>the autocorrelation r(τ) = Σ x[j] x[j + τ], and</li>
+ *     <li>the energy of the overlapping parts of the window, m(τ) = Σ x[j]² + x[j + τ]²</li>
+ * </ul>
+ * (with both sums over every j where j + τ is still inside the window). Everything else can be derived from those;
+ * e.g., the difference function used by Yin is m(τ) - 2r(τ), and the NSDF used by McLeod is 2r(τ) / m(τ).
+ * <p>
+ * The autocorrelation is computed as the inverse FFT of the power spectrum of the zero-padded window, which takes
+ * O(N log N) time instead of O(N²). FFT plans are shared by every instance with the same window size, and all
+ * scratch space is allocated up front.
+ */
+class Autocorrelation {
+
+    private static final Map<Integer, RealFft> PLANS = new ConcurrentHashMap<>();
+
+    private final int windowSize;
+    private final RealFft fft;
+    private final double[] padded;
+    private final double[] real;
+    private final double[] imaginary;
+    private final double[] energy;
+    private final double[] correlation;
+    private final double[] overlapEnergy;
+
+    /**
+     * @param windowSize must be a power of two
+     */
+    public Autocorrelation(int windowSize) {
+        if (windowSize < 4 || Integer.bitCount(windowSize) != 1)
+            throw new IllegalArgumentException("Window size must be a power of two no less than 4");
+        this.windowSize = windowSize;
+        // Padded to twice the window size so that the correlation doesn't wrap around
+        this.fft = PLANS.computeIfAbsent(windowSize * 2, RealFft::new);
+        this.padded = new double[windowSize * 2];
+        this.real = new double[fft.bins()];
+        this.imaginary = new double[fft.bins()];
+        this.energy = new double[windowSize + 1];
+        this.correlation = new double[maxLag() + 1];
+        this.overlapEnergy = new double[maxLag() + 1];
+    }
+
+    /**
+     * @return the largest lag that anything is computed for; any more than this, and the overlap gets too thin
+     */
+    public int maxLag() {
+        return windowSize / 2;
+    }
+
+    public void compute(float[] window) {
+        if (window.length != windowSize)
+            throw new IllegalArgumentException("Expected a window of " + windowSize + " samples");
+
+        // Running total of x[j]², so that the energy of any stretch of the window is one subtraction away
+        energy[0] = 0;
+        for (int i = 0; i < windowSize; i++) {
+            padded[i] = window[i];
+            energy[i + 1] = energy[i] + padded[i] * padded[i];
+        }
+        // The back half of the padding is never written to, so it's still all zeroes
+
+        fft.forward(padded, real, imaginary);
+        for (int k = 0; k < real.length; k++) {
+            real[k] = real[k] * real[k] + imaginary[k] * imaginary[k];
+            imaginary[k] = 0;
+        }
+        fft.inverse(real, imaginary, padded);
+
+        for (int lag = 0; lag <= maxLag(); lag++) {
+            correlation[lag] = padded[lag];
+            overlapEnergy[lag] = energy[windowSize - lag] + (energy[windowSize] - energy[lag]);
+        }
+        // Clear out what the inverse transform left behind, for the next window
+        for (int i = windowSize; i < padded.length; i++)
+            padded[i] = 0;
+    }
+
+    /**
+     * @return r(τ) for the most recently {@link #compute(float[]) computed} window, indexed by lag
+     */
+    public double[] correlation() {
+        return correlation;
+    }
+
+    /**
+     * @return m(τ) for the most recently {@link #compute(float[]) computed} window, indexed by lag
+     */
+    public double[] overlapEnergy() {
+        return overlapEnergy;
+    }
+
+}
@@ -23,7 +23,11 @@ import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
 public class AverageMagnitudeDifference extends TarsosDspPitchAlgorithm{
 
     public AverageMagnitudeDifference() {
-        super(new AMDF(AudioFormats.SAMPLE_RATE, AUDIO_BUFFER_SIZE));
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_TARSOS_HOP_SIZE);
+    }
+
+    public AverageMagnitudeDifference(int windowSize, int hopSize) {
+        super(new AMDF(AudioFormats.SAMPLE_RATE, windowSize), windowSize, hopSize);
     }
 
     @Override
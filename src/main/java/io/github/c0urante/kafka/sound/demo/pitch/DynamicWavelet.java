@@ -22,7 +22,11 @@ import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
 public class DynamicWavelet extends  TarsosDspPitchAlgorithm {
 
     public DynamicWavelet() {
-        super(new be.tarsos.dsp.pitch.DynamicWavelet(AudioFormats.SAMPLE_RATE, AUDIO_BUFFER_SIZE));
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_TARSOS_HOP_SIZE);
+    }
+
+    public DynamicWavelet(int windowSize, int hopSize) {
+        super(new be.tarsos.dsp.pitch.DynamicWavelet(AudioFormats.SAMPLE_RATE, windowSize), windowSize, hopSize);
     }
 
     @Override
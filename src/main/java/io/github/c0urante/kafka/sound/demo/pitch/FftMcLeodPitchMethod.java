@@ -0,0 +1,89 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+/**
+ * The McLeod Pitch Method, with its normalized square difference function (NSDF) derived from an FFT-based
+ * autocorrelation.
+ */
+public class FftMcLeodPitchMethod extends FftPitchAlgorithm {
+
+    // Same as TarsosDSP's defaults
+    private static final double CUTOFF = 0.97;
+    private static final double SMALL_CUTOFF = 0.5;
+
+    private final double[] nsdf;
+
+    public FftMcLeodPitchMethod() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_HOP_SIZE);
+    }
+
+    public FftMcLeodPitchMethod(int windowSize, int hopSize) {
+        super(windowSize, hopSize);
+        this.nsdf = new double[windowSize / 2 + 1];
+    }
+
+    @Override
+    public String name() {
+        return "McLeod Pitch Method (FFT)";
+    }
+
+    @Override
+    protected Pitch detect(double[] correlation, double[] overlapEnergy, int maxLag) {
+        for (int lag = 0; lag <= maxLag; lag++) {
+            nsdf[lag] = overlapEnergy[lag] > 0 ? 2 * correlation[lag] / overlapEnergy[lag] : 0;
+        }
+
+        // Key maxima are the highest points of each positive stretch, after the one that every NSDF starts with;
+        // we want the first one that comes close enough to the highest of them all
+        double highest = Double.NEGATIVE_INFINITY;
+        for (int lag = nextKeyMaximum(0, maxLag); lag > 0; lag = nextKeyMaximum(lag, maxLag))
+            highest = Math.max(highest, nsdf[lag]);
+        if (highest < SMALL_CUTOFF)
+            return pitch(-1, Math.max(highest, 0));
+
+        int lag = nextKeyMaximum(0, maxLag);
+        while (nsdf[lag] < CUTOFF * highest)
+            lag = nextKeyMaximum(lag, maxLag);
+        return pitch(interpolate(nsdf, lag, maxLag), nsdf[lag]);
+    }
+
+    /**
+     * @return the lag of the first key maximum after the given one (or after the start),
+     * or -1 if there aren't any more
+     */
+    private int nextKeyMaximum(int after, int maxLag) {
+        int lag = after;
+        // Get out of the current positive stretch, and then find the start of the next one
+        while (lag <= maxLag && nsdf[lag] > 0)
+            lag++;
+        while (lag <= maxLag && nsdf[lag] <= 0)
+            lag++;
+        if (lag > maxLag)
+            return -1;
+
+        int result = lag;
+        while (lag <= maxLag && nsdf[lag] > 0) {
+            if (nsdf[lag] > nsdf[result])
+                result = lag;
+            lag++;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class for our own pitch detectors, which work off of an {@link Autocorrelation autocorrelation} computed
+ * with an FFT.
+ * Detection takes O(N log N) time per window instead of O(N²), so windows can be much larger (which is what it
+ * takes to pick out the lowest notes on a cello or bass) without eating up a whole core.
+ */
+public abstract class FftPitchAlgorithm extends WindowedPitchAlgorithm {
+
+    private static final Logger log = LoggerFactory.getLogger(FftPitchAlgorithm.class);
+
+    // Anything quieter than an RMS of one step on the sample scale isn't worth trying to find a pitch in
+    private static final double MIN_ENERGY_PER_SAMPLE = 1;
+
+    private final Autocorrelation autocorrelation;
+
+    /**
+     * @param windowSize must be a power of two
+     */
+    protected FftPitchAlgorithm(int windowSize, int hopSize) {
+        super(windowSize, hopSize);
+        this.autocorrelation = new Autocorrelation(windowSize);
+    }
+
+    @Override
+    public Pitch pitch(float[] samples) {
+        autocorrelation.compute(samples);
+        double[] correlation = autocorrelation.correlation();
+        if (correlation[0] < MIN_ENERGY_PER_SAMPLE * samples.length) {
+            log.trace("No pitch detected");
+            return new Pitch(-1, 0);
+        }
+        return detect(correlation, autocorrelation.overlapEnergy(), autocorrelation.maxLag());
+    }
+
+    /**
+     * Find the pitch of a single window.
+     * @param correlation the autocorrelation of the window, for every lag from 0 to {@code maxLag}, inclusive
+     * @param overlapEnergy the energy of the parts of the window that overlap at each lag
+     */
+    protected abstract Pitch detect(double[] correlation, double[] overlapEnergy, int maxLag);
+
+    /**
+     * @param period the period of the pitch, in (possibly fractional) samples, or a non-positive value if
+     *               no pitch was detected
+     */
+    protected static Pitch pitch(double period, double probability) {
+        if (period <= 0) {
+            log.trace("No pitch detected");
+            return new Pitch(-1, (float) probability);
+        }
+        Pitch result = new Pitch(AudioFormats.SAMPLE_RATE / period, (float) probability);
+        log.debug("Detected pitch {}", result.name);
+        return result;
+    }
+
+    /**
+     * Pin down where the peak (or trough) at the given index really is, by fitting a parabola through it
+     * and its neighbors.
+     * @return the fractional index of the peak
+     */
+    protected static double interpolate(double[] values, int index, int maxIndex) {
+        if (index <= 0 || index >= maxIndex)
+            return index;
+        double left = values[index - 1];
+        double middle = values[index];
+        double right = values[index + 1];
+        double curvature = left - 2 * middle + right;
+        if (curvature == 0)
+            return index;
+        return index + (left - right) / (2 * curvature);
+    }
+
+}
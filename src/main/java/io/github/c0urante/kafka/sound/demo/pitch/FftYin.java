@@ -0,0 +1,68 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+/**
+ * Yin, with its difference function derived from an FFT-based autocorrelation instead of computed directly.
+ * The difference function here is summed over the overlap at each lag (instead of a fixed half-window), which
+ * is what makes it possible to get it out of a single autocorrelation.
+ */
+public class FftYin extends FftPitchAlgorithm {
+
+    // Same as TarsosDSP's default
+    private static final double THRESHOLD = 0.20;
+
+    private final double[] difference;
+
+    public FftYin() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_HOP_SIZE);
+    }
+
+    public FftYin(int windowSize, int hopSize) {
+        super(windowSize, hopSize);
+        this.difference = new double[windowSize / 2 + 1];
+    }
+
+    @Override
+    public String name() {
+        return "Yin (FFT)";
+    }
+
+    @Override
+    protected Pitch detect(double[] correlation, double[] overlapEnergy, int maxLag) {
+        // Cumulative mean normalized difference
+        difference[0] = 1;
+        double runningSum = 0;
+        for (int lag = 1; lag <= maxLag; lag++) {
+            double d = Math.max(overlapEnergy[lag] - 2 * correlation[lag], 0);
+            runningSum += d;
+            difference[lag] = runningSum > 0 ? d * lag / runningSum : 1;
+        }
+
+        // The first dip below the threshold, followed all the way down to the bottom
+        for (int lag = 2; lag <= maxLag; lag++) {
+            if (difference[lag] < THRESHOLD) {
+                while (lag < maxLag && difference[lag + 1] < difference[lag])
+                    lag++;
+                return pitch(interpolate(difference, lag, maxLag), 1 - difference[lag]);
+            }
+        }
+        return pitch(-1, 0);
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import io.github.c0urante.kafka.sound.demo.util.Note;
+import io.github.c0urante.kafka.sound.demo.util.Tuning;
+import org.apache.kafka.streams.kstream.ValueMapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Turns the stream of pitches detected by a {@link PitchDetector} into {@link PitchEvent note-on and note-off events}.
+ * A note starts the first time it's detected, and lasts until either a different note is detected, or no note at all
+ * is detected for several windows in a row; everything in between is collapsed into those two events. A window
+ * or two without a note is usually just the detector losing track for a moment (e.g., during vibrato, or right
+ * as a string is plucked again), and shouldn't end the note. Once it does end, it ends as of the first window
+ * it went missing in.
+ * <p>
+ * Notes are told apart by MIDI note number, so a jump of an octave counts as a new note,
+ * but drifting a few cents sharp or flat doesn't. Which note a pitch is closest to (and how far off from it it is)
+ * depends on the {@link Tuning tuning}, which defaults to the pitch detector's.
+ * <p>
+ * A tracker (and the pitch detector it wraps) follows a single stream of audio, and keeps track of where it is in it;
+ * every other stream needs a tracker of its own, around its own {@link PitchDetector#fork() fork} of the detector.
+ */
+public class NoteTracker implements ValueMapper<short[], List<PitchEvent>> {
+
+    // Pitches outside the MIDI range are almost certainly junk
+    private static final int MIN_MIDI_NOTE = 0;
+    private static final int MAX_MIDI_NOTE = 127;
+    public static final int DEFAULT_MAX_MISSES = 3;
+
+    private final ValueMapper<short[], List<Pitch>> pitchDetector;
+    private final Tuning tuning;
+    private final int maxMisses;
+    private final Tuning.Reading reading;
+    private long position;
+    private PitchEvent current;
+    // How many windows in a row the current note has gone missing for, and where it first went missing
+    private int misses;
+    private long firstMiss;
+
+    /**
+     * Track notes according to the same tuning that the pitch detector names pitches with.
+     */
+    public NoteTracker(PitchDetector pitchDetector) {
+        this(pitchDetector, pitchDetector.tuning());
+    }
+
+    public NoteTracker(PitchDetector pitchDetector, Tuning tuning) {
+        this(pitchDetector, tuning, DEFAULT_MAX_MISSES);
+    }
+
+    /**
+     * @param maxMisses how many windows in a row can go by without a note before the current note is ended
+     */
+    public NoteTracker(PitchDetector pitchDetector, Tuning tuning, int maxMisses) {
+        this(pitchDetector::pitches, tuning, maxMisses);
+    }
+
+    NoteTracker(ValueMapper<short[], List<Pitch>> pitchDetector, Tuning tuning, int maxMisses) {
+        if (maxMisses < 1)
+            throw new IllegalArgumentException("Invalid max misses " + maxMisses + "; must be positive");
+        this.pitchDetector = pitchDetector;
+        this.tuning = tuning;
+        this.maxMisses = maxMisses;
+        this.reading = new Tuning.Reading();
+        this.position = 0;
+        this.current = null;
+        this.misses = 0;
+    }
+
+    @Override
+    public List<PitchEvent> apply(short[] samples) {
+        List<PitchEvent> result = Collections.emptyList();
+        for (Pitch pitch : pitchDetector.apply(samples)) {
+            long offset = position + (pitch.offset >= 0 ? pitch.offset : samples.length);
+            PitchEvent next = noteOn(pitch, offset);
+            if (next == null) {
+                if (current == null)
+                    continue;
+                if (misses++ == 0)
+                    firstMiss = offset;
+                if (misses >= maxMisses) {
+                    result = add(result, current.noteOff(firstMiss));
+                    current = null;
+                    misses = 0;
+                }
+                continue;
+            }
+            if (current != null && next.midiNote != current.midiNote) {
+                result = add(result, current.noteOff(misses > 0 ? firstMiss : offset));
+                current = null;
+            }
+            misses = 0;
+            if (current == null) {
+                result = add(result, next);
+                current = next;
+            }
+        }
+        position += samples.length;
+        return result;
+    }
+
+    private PitchEvent noteOn(Pitch pitch, long offset) {
+        if (!pitch.pitched())
+            return null;
+        Note note = tuning.read(pitch.frequency, reading).note();
+        if (note == null || note.midiNote < MIN_MIDI_NOTE || note.midiNote > MAX_MIDI_NOTE)
+            return null;
+        int midiNote = note.midiNote;
+        // Only worth allocating an event for if it might actually be a new note
+        if (current != null && midiNote == current.midiNote)
+            return current;
+        return PitchEvent.noteOn(pitch, reading, offset);
+    }
+
+    // Most blocks don't start or end any notes, so don't allocate a list until there's something to put in it
+    private static List<PitchEvent> add(List<PitchEvent> events, PitchEvent event) {
+        List<PitchEvent> result = events.isEmpty() ? new ArrayList<>(2) : events;
+        result.add(event);
+        return result;
+    }
+
+}
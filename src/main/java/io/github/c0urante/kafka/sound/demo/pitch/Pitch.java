@@ -17,14 +17,70 @@
  */
 package io.github.c0urante.kafka.sound.demo.pitch;
 
+import io.github.c0urante.kafka.sound.demo.util.Note;
+import io.github.c0urante.kafka.sound.demo.util.Tuning;
+
 public class Pitch {
 
+    /**
+     * The name of the nearest note (without the octave) according to whichever {@link Tuning tuning} this pitch
+     * was detected with, or null if no pitch was detected (or it's too far out of range to be a note)
+     */
     public final String name;
+    /**
+     * In Hz, or {@link Double#NaN} if no pitch was detected
+     */
+    public final double frequency;
     public final float probability;
+    /**
+     * Where in the block of samples the window this was detected in ended, or -1 if unknown
+     */
+    public final int offset;
+    private final Tuning tuning;
+
+    /**
+     * @param frequency the detected frequency in Hz, or a non-positive value if no pitch was detected
+     */
+    public Pitch(double frequency, float probability) {
+        this(frequency, probability, Tuning.A440);
+    }
 
-    public Pitch(String name, float probability) {
-        this.name = name;
+    /**
+     * @param frequency the detected frequency in Hz, or a non-positive value if no pitch was detected
+     * @param tuning the tuning to name the pitch with
+     */
+    public Pitch(double frequency, float probability, Tuning tuning) {
+        this(frequency > 0 ? frequency : Double.NaN, probability, -1, tuning);
+    }
+
+    private Pitch(double frequency, float probability, int offset, Tuning tuning) {
+        this.name = Double.isNaN(frequency) ? null : name(tuning.note(frequency));
+        this.frequency = frequency;
         this.probability = probability;
+        this.offset = offset;
+        this.tuning = tuning;
+    }
+
+    private static String name(Note note) {
+        return note != null ? note.name : null;
+    }
+
+    public boolean pitched() {
+        return name != null;
+    }
+
+    /**
+     * @return a copy of this pitch, detected in a window that ended at the given offset in the current block
+     */
+    public Pitch at(int offset) {
+        return new Pitch(frequency, probability, offset, tuning);
+    }
+
+    /**
+     * @return this pitch, named according to the given tuning (which may mean a copy)
+     */
+    public Pitch in(Tuning tuning) {
+        return tuning == this.tuning ? this : new Pitch(frequency, probability, offset, tuning);
     }
 
     @Override
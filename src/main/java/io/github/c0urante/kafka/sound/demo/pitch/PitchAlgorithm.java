@@ -23,6 +23,6 @@ public interface PitchAlgorithm {
 
     String name();
 
-    List<Pitch> pitches(byte[] encodedSamples);
+    List<Pitch> pitches(short[] samples);
 
 }
@@ -18,59 +18,165 @@
 package io.github.c0urante.kafka.sound.demo.pitch;
 
 import io.github.c0urante.kafka.sound.demo.util.CircularIterator;
+import io.github.c0urante.kafka.sound.demo.util.Tuning;
 import org.apache.kafka.streams.kstream.ValueMapper;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-public class PitchDetector implements ValueMapper<byte[], List<String>> {
-
-    private static final List<PitchAlgorithm> ALL_ALGORITHMS = Arrays.asList(
-            new Yin(),
-            new AverageMagnitudeDifference(),
-            new DynamicWavelet(),
-            new McLeodPitchMethod(),
-            new FastYin()
-    );
+/**
+ * Detects pitches with one of several algorithms, which can be switched between on the fly.
+ * <p>
+ * The algorithms keep a window of recent samples, so a single detector should only ever be fed one stream of audio;
+ * use a {@link #fork() fork} for each of the others. Forks have windows of their own, but follow whichever
+ * algorithm is picked for the detector they were forked from.
+ */
+public class PitchDetector implements ValueMapper<short[], List<String>> {
 
+    // The instance whose choice of algorithm this one follows; just this instance, unless it's a fork
+    private final PitchDetector controller;
+    // Builds a fresh set of algorithms (with empty windows) for every fork
+    private final Supplier<List<PitchAlgorithm>> algorithmFactory;
+    private final List<PitchAlgorithm> pitchAlgorithms;
     private final CircularIterator<PitchAlgorithm> algorithms;
     // We may end up changing algorithms in the middle of processing a single batch
     // of samples, but aurally that should be no different from changing algorithms
     // in between two batches
     // So we don't need synchronization or anything fancy, this can just be volatile
-    private volatile PitchAlgorithm algorithm;
+    private volatile int algorithmIndex;
+    private final Tuning tuning;
 
     public PitchDetector() {
-        this(ALL_ALGORITHMS);
+        this(
+                WindowedPitchAlgorithm.DEFAULT_WINDOW_SIZE,
+                WindowedPitchAlgorithm.DEFAULT_HOP_SIZE,
+                TarsosDspPitchAlgorithm.DEFAULT_TARSOS_HOP_SIZE,
+                Tuning.A440
+        );
+    }
+
+    /**
+     * @param windowSize how many samples each pitch is detected from
+     * @param hopSize how many samples apart each pitch detected by the FFT-based algorithms is; the TarsosDSP ones
+     *                (and the ensemble, which runs them too) only detect a pitch once per window
+     */
+    public PitchDetector(int windowSize, int hopSize) {
+        this(windowSize, hopSize, Tuning.A440);
+    }
+
+    /**
+     * @param tuning the tuning to name pitches with
+     */
+    public PitchDetector(int windowSize, int hopSize, Tuning tuning) {
+        this(windowSize, hopSize, Math.max(hopSize, windowSize), tuning);
+    }
+
+    /**
+     * @param windowSize how many samples each pitch is detected from
+     * @param fftHopSize how many samples apart each pitch detected by the FFT-based algorithms is
+     * @param tarsosHopSize how many samples apart each pitch detected by the TarsosDSP algorithms (and the ensemble,
+     *                      which runs them too) is; these take time quadratic in the window size, so
+     *                      this should usually be much larger than {@code fftHopSize}
+     * @param tuning the tuning to name pitches with
+     */
+    public PitchDetector(int windowSize, int fftHopSize, int tarsosHopSize, Tuning tuning) {
+        this(() -> withEnsemble(windowSize, fftHopSize, tarsosHopSize, tuning), tuning);
+    }
+
+    private static List<PitchAlgorithm> withEnsemble(int windowSize, int fftHopSize, int tarsosHopSize, Tuning tuning) {
+        List<PitchAlgorithm> result = new ArrayList<>(algorithms(windowSize, fftHopSize, tarsosHopSize));
+        // The ensemble gets its own copy of everything, since it runs them on other threads
+        // (and it runs every one of them on every window, so it can only go as fast as the slowest of them)
+        result.add(new PitchEnsemble(
+                tarsosHopSize,
+                algorithms(windowSize, fftHopSize, tarsosHopSize),
+                ForkJoinPool.commonPool(),
+                tuning
+        ));
+        return result;
+    }
+
+    private static List<WindowedPitchAlgorithm> algorithms(int windowSize, int fftHopSize, int tarsosHopSize) {
+        return Arrays.asList(
+                new FftYin(windowSize, fftHopSize),
+                new FftMcLeodPitchMethod(windowSize, fftHopSize),
+                new Yin(windowSize, tarsosHopSize),
+                new AverageMagnitudeDifference(windowSize, tarsosHopSize),
+                new DynamicWavelet(windowSize, tarsosHopSize),
+                new McLeodPitchMethod(windowSize, tarsosHopSize),
+                new FastYin(windowSize, tarsosHopSize)
+        );
     }
 
-    private PitchDetector(List<PitchAlgorithm> pitchAlgorithms) {
+    private PitchDetector(Supplier<List<PitchAlgorithm>> algorithmFactory, Tuning tuning) {
+        this.controller = this;
+        this.algorithmFactory = algorithmFactory;
+        this.pitchAlgorithms = algorithmFactory.get();
         if (pitchAlgorithms.isEmpty())
             throw new IllegalArgumentException("At least one algorithm must be provided");
         this.algorithms = new CircularIterator<>(pitchAlgorithms);
-        this.algorithm = pitchAlgorithms.get(0);
+        this.algorithmIndex = 0;
+        this.tuning = tuning;
+    }
+
+    private PitchDetector(PitchDetector controller) {
+        this.controller = controller;
+        this.algorithmFactory = controller.algorithmFactory;
+        this.pitchAlgorithms = algorithmFactory.get();
+        this.algorithms = controller.algorithms;
+        this.algorithmIndex = 0;
+        this.tuning = controller.tuning;
     }
 
     @Override
-    public List<String> apply(byte[] encodedSamples) {
-        return algorithm.pitches(encodedSamples).stream()
+    public List<String> apply(short[] samples) {
+        return pitches(samples).stream()
                 .map(p -> p.name)
                 .collect(Collectors.toList());
     }
 
+    /**
+     * @return every pitch detected in the given samples, named according to {@link #tuning() the tuning}
+     */
+    public List<Pitch> pitches(short[] samples) {
+        List<Pitch> result = pitchAlgorithms.get(controller.algorithmIndex).pitches(samples);
+        // Algorithms name everything according to A440; only worth renaming if we've been told otherwise
+        if (tuning != Tuning.A440)
+            result.replaceAll(pitch -> pitch.in(tuning));
+        return result;
+    }
+
+    public Tuning tuning() {
+        return tuning;
+    }
+
+    /**
+     * Create a new detector with its own (empty) windows, which follows this one's choice of algorithm.
+     */
+    public PitchDetector fork() {
+        return new PitchDetector(controller);
+    }
+
     public String nextAlgorithm() {
-        // Unreadable garbage FTW
-        return (this.algorithm = algorithms.next()).name();
+        return select(algorithms.next());
     }
 
     public String prevAlgorithm() {
-        // Unreadable garbage FTW
-        return (this.algorithm = algorithms.prev()).name();
+        return select(algorithms.prev());
     }
 
     public String currentAlgorithm() {
-        return this.algorithm.name();
+        return controller.pitchAlgorithms.get(controller.algorithmIndex).name();
+    }
+
+    // Forks have their own instances of every algorithm, so they go by position in the list
+    private String select(PitchAlgorithm algorithm) {
+        controller.algorithmIndex = controller.pitchAlgorithms.indexOf(algorithm);
+        return algorithm.name();
     }
 
 }
@@ -0,0 +1,132 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import io.github.c0urante.kafka.sound.demo.util.Note;
+import io.github.c0urante.kafka.sound.demo.util.Tuning;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs several pitch algorithms on every window at once, and goes with whichever pitch they agree on most,
+ * weighing each one's vote by how sure it is of it.
+ * <p>
+ * Samples only go through the sliding window once, here, and each window is handed as-is to every algorithm.
+ * All but one of the algorithms run on a fork-join pool while the calling thread takes care of the last one,
+ * so with enough cores, each window takes about as long as the slowest algorithm.
+ * <p>
+ * Votes are cast for MIDI notes according to a {@link Tuning tuning} (A440 by default), so an algorithm that's off
+ * by an octave disagrees with the rest instead of agreeing with them.
+ */
+public class PitchEnsemble extends WindowedPitchAlgorithm {
+
+    private final List<WindowedPitchAlgorithm> algorithms;
+    private final ForkJoinPool pool;
+    private final Tuning tuning;
+    private final Map<Integer, Double> votes;
+
+    public PitchEnsemble(int hopSize, List<WindowedPitchAlgorithm> algorithms) {
+        this(hopSize, algorithms, ForkJoinPool.commonPool());
+    }
+
+    public PitchEnsemble(int hopSize, List<WindowedPitchAlgorithm> algorithms, ForkJoinPool pool) {
+        this(hopSize, algorithms, pool, Tuning.A440);
+    }
+
+    /**
+     * @param algorithms the algorithms to run; they must all use the same window size, and shouldn't be used
+     *                   anywhere else, since they'll be run from other threads
+     */
+    public PitchEnsemble(int hopSize, List<WindowedPitchAlgorithm> algorithms, ForkJoinPool pool, Tuning tuning) {
+        super(windowSize(algorithms), hopSize);
+        this.algorithms = new ArrayList<>(algorithms);
+        this.pool = pool;
+        this.tuning = tuning;
+        this.votes = new HashMap<>();
+    }
+
+    private static int windowSize(List<WindowedPitchAlgorithm> algorithms) {
+        if (algorithms.isEmpty())
+            throw new IllegalArgumentException("At least one algorithm must be provided");
+        int result = algorithms.get(0).windowSize();
+        for (WindowedPitchAlgorithm algorithm : algorithms) {
+            if (algorithm.windowSize() != result)
+                throw new IllegalArgumentException("All algorithms must use the same window size");
+        }
+        return result;
+    }
+
+    @Override
+    public String name() {
+        return "Ensemble";
+    }
+
+    @Override
+    public Pitch pitch(float[] window) {
+        List<ForkJoinTask<Pitch>> forked = new ArrayList<>(algorithms.size() - 1);
+        for (int i = 1; i < algorithms.size(); i++) {
+            WindowedPitchAlgorithm algorithm = algorithms.get(i);
+            forked.add(pool.submit(() -> algorithm.pitch(window)));
+        }
+        List<Pitch> pitches = new ArrayList<>(algorithms.size());
+        pitches.add(algorithms.get(0).pitch(window));
+        for (ForkJoinTask<Pitch> task : forked)
+            pitches.add(task.join());
+        return fuse(pitches);
+    }
+
+    Pitch fuse(List<Pitch> pitches) {
+        votes.clear();
+        for (Pitch pitch : pitches) {
+            Note note = note(pitch);
+            if (note != null)
+                votes.merge(note.midiNote, (double) pitch.probability, Double::sum);
+        }
+
+        Integer winner = null;
+        double winningVotes = 0;
+        for (Map.Entry<Integer, Double> vote : votes.entrySet()) {
+            if (winner == null || vote.getValue() > winningVotes) {
+                winner = vote.getKey();
+                winningVotes = vote.getValue();
+            }
+        }
+        if (winner == null)
+            return new Pitch(-1, 0, tuning);
+
+        // Take the frequency from whichever algorithm was surest of the winning pitch
+        Pitch surest = null;
+        for (Pitch pitch : pitches) {
+            Note note = note(pitch);
+            if (note != null && note.midiNote == winner && (surest == null || pitch.probability > surest.probability))
+                surest = pitch;
+        }
+        // Algorithms that didn't hear a pitch count against whatever the others heard
+        return new Pitch(surest.frequency, (float) (winningVotes / pitches.size()), tuning);
+    }
+
+    private Note note(Pitch pitch) {
+        return pitch.pitched() ? tuning.note(pitch.frequency) : null;
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import io.github.c0urante.kafka.sound.demo.util.PitchUtils;
+import io.github.c0urante.kafka.sound.demo.util.Tuning;
+
+import java.util.Objects;
+
+/**
+ * The start or end of a note. Notes are only reported once when they start, and once when they end,
+ * no matter how many times they were detected in between.
+ */
+public class PitchEvent {
+
+    public enum Type {
+        NOTE_ON,
+        NOTE_OFF
+    }
+
+    public final Type type;
+    /**
+     * How many samples into the stream the note started (or ended)
+     */
+    public final long sampleOffset;
+    public final int midiNote;
+    /**
+     * Of the note when it started; note-off events carry the same values as the note-on that came before them
+     */
+    public final float frequency;
+    public final float cents;
+    public final float probability;
+
+    public PitchEvent(Type type, long sampleOffset, int midiNote, float frequency, float cents, float probability) {
+        this.type = Objects.requireNonNull(type);
+        this.sampleOffset = sampleOffset;
+        this.midiNote = midiNote;
+        this.frequency = frequency;
+        this.cents = cents;
+        this.probability = probability;
+    }
+
+    /**
+     * @param reading the pitch, already {@link Tuning#read(double, Tuning.Reading) read} with whatever tuning applies
+     */
+    public static PitchEvent noteOn(Pitch pitch, Tuning.Reading reading, long sampleOffset) {
+        return new PitchEvent(
+                Type.NOTE_ON,
+                sampleOffset,
+                reading.note().midiNote,
+                (float) pitch.frequency,
+                (float) reading.cents(),
+                pitch.probability
+        );
+    }
+
+    public PitchEvent noteOff(long sampleOffset) {
+        return new PitchEvent(Type.NOTE_OFF, sampleOffset, midiNote, frequency, cents, probability);
+    }
+
+    public boolean noteOn() {
+        return type == Type.NOTE_ON;
+    }
+
+    public String name() {
+        return PitchUtils.name(midiNote);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        PitchEvent that = (PitchEvent) o;
+        return type == that.type
+                && sampleOffset == that.sampleOffset
+                && midiNote == that.midiNote
+                && Float.compare(frequency, that.frequency) == 0
+                && Float.compare(cents, that.cents) == 0
+                && Float.compare(probability, that.probability) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, sampleOffset, midiNote, frequency, cents, probability);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s %s (MIDI %d, %.2f Hz, %+.1f cents, %2.3f%%) at sample %d",
+                type, name(), midiNote, frequency, cents, probability * 100, sampleOffset
+        );
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+/**
+ * Overlapping analysis windows over a stream of samples: once the first window has filled up, a new one is ready
+ * every {@code hopSize} samples, made up of the most recent {@code windowSize} samples.
+ * <p>
+ * Samples go into a fixed ring buffer as they arrive, and each window is unrolled into the same reused array,
+ * so nothing gets allocated once this has been created, no matter how small the hop.
+ */
+class SlidingWindow {
+
+    private final float[] ring;
+    private final float[] window;
+    private final int hopSize;
+    private int position;
+    private int filled;
+    private int sinceHop;
+    private boolean ready;
+
+    public SlidingWindow(int windowSize, int hopSize) {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("Window size must be positive");
+        if (hopSize <= 0 || hopSize > windowSize)
+            throw new IllegalArgumentException("Hop size must be positive and no larger than the window size");
+        this.ring = new float[windowSize];
+        this.window = new float[windowSize];
+        this.hopSize = hopSize;
+        this.position = 0;
+        this.filled = 0;
+        this.sinceHop = 0;
+        this.ready = false;
+    }
+
+    /**
+     * Add samples, starting at the given offset, until either they run out or a new window is {@link #ready() ready}.
+     * @return the offset of the first sample that wasn't added, which should be passed back in on the next call
+     */
+    public int add(short[] samples, int offset) {
+        ready = false;
+        while (offset < samples.length) {
+            ring[position] = samples[offset++];
+            position = position + 1 == ring.length ? 0 : position + 1;
+            if (filled < ring.length) {
+                filled++;
+                // The first window comes as soon as there's enough for one; hops are counted from there
+                if (filled == ring.length) {
+                    ready = true;
+                    return offset;
+                }
+            } else if (++sinceHop == hopSize) {
+                sinceHop = 0;
+                ready = true;
+                return offset;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * @return whether the last call to {@link #add(short[], int)} stopped because a new window is ready
+     */
+    public boolean ready() {
+        return ready;
+    }
+
+    /**
+     * @return the most recent samples, oldest first; only valid until the next call to {@link #add(short[], int)}
+     */
+    public float[] window() {
+        int oldest = ring.length - position;
+        System.arraycopy(ring, position, window, 0, oldest);
+        System.arraycopy(ring, 0, window, oldest, position);
+        return window;
+    }
+
+    public int windowSize() {
+        return ring.length;
+    }
+
+    public int hopSize() {
+        return hopSize;
+    }
+
+}
@@ -19,67 +19,41 @@ package io.github.c0urante.kafka.sound.demo.pitch;
 
 import be.tarsos.dsp.pitch.PitchDetectionResult;
 import be.tarsos.dsp.pitch.PitchDetector;
-import io.github.c0urante.kafka.sound.demo.util.PitchUtils;
-import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
-import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public abstract class TarsosDspPitchAlgorithm implements PitchAlgorithm {
-
-    protected static final int AUDIO_BUFFER_SIZE = 1024 * 2; // TODO: Configurable
+/**
+ * Runs a TarsosDSP pitch detector over (possibly overlapping) windows of the input.
+ */
+public abstract class TarsosDspPitchAlgorithm extends WindowedPitchAlgorithm {
 
     private static final Logger log = LoggerFactory.getLogger(TarsosDspPitchAlgorithm.class);
 
+    // These detectors do O(N^2) work per window, so by default, windows don't overlap at all
+    public static final int DEFAULT_TARSOS_HOP_SIZE = DEFAULT_WINDOW_SIZE;
+
     private final PitchDetector algorithm;
-    private final FloatBuffer buffer;
 
-    protected TarsosDspPitchAlgorithm(PitchDetector algorithm) {
+    /**
+     * @param algorithm the detector to run; must expect windows of exactly {@code windowSize} samples
+     */
+    protected TarsosDspPitchAlgorithm(PitchDetector algorithm, int windowSize, int hopSize) {
+        super(windowSize, hopSize);
         this.algorithm = algorithm;
-        this.buffer = FloatBuffer.allocate(AUDIO_BUFFER_SIZE);
     }
 
     @Override
-    public List<Pitch> pitches(byte[] encodedSamples) {
-        List<Pitch> result = new ArrayList<>();
-
-        float[] floats = SampleUtils.toFloats(SampleUtils.decodeSamples(encodedSamples));
-
-        int offset = 0;
-        if (floats.length >= buffer.remaining()) {
-            offset = buffer.remaining();
-            buffer.put(floats, 0, buffer.remaining());
-            result.add(pitch(buffer.array()));
-            buffer.clear();
-        }
-
-        while (floats.length - offset >= buffer.capacity()) {
-            float[] subFloats = Arrays.copyOfRange(floats, offset, offset + buffer.capacity());
-            result.add(pitch(subFloats));
-            offset += buffer.capacity();
-        }
-
-        buffer.put(floats, offset, floats.length - offset);
-
-        return result;
-    }
-
-    private Pitch pitch(float[] floats) {
+    public Pitch pitch(float[] floats) {
         PitchDetectionResult pitchDetectionResult = algorithm.getPitch(floats);
 
-        String pitchName;
-        if (pitchDetectionResult.isPitched()) {
-            pitchName = PitchUtils.pitch(pitchDetectionResult.getPitch());
-            log.debug("Detected pitch {}", pitchName);
-        } else {
+        if (!pitchDetectionResult.isPitched()) {
             log.trace("No pitch detected");
-            pitchName = null;
+            return new Pitch(-1, pitchDetectionResult.getProbability());
         }
 
-        return new Pitch(pitchName, pitchDetectionResult.getProbability());
+        Pitch result = new Pitch(pitchDetectionResult.getPitch(), pitchDetectionResult.getProbability());
+        log.debug("Detected pitch {}", result.name);
+        return result;
     }
 
 }
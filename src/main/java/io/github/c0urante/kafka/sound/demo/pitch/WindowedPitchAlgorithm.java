@@ -0,0 +1,64 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for pitch algorithms that detect one pitch per overlapping window of the input.
+ * A new pitch is detected every hop, so with 2048-sample windows and 256-sample hops there's an update
+ * about every 6 ms instead of every 46 ms, at the cost of running the detector eight times as often.
+ * That's only worth it for detectors that are cheap enough per window (i.e., the FFT-based ones), so
+ * {@link #DEFAULT_HOP_SIZE the default hop} is only the default for those; {@link TarsosDspPitchAlgorithm
+ * TarsosDSP detectors}, which take time quadratic in the window size, default to a hop of an entire window.
+ */
+public abstract class WindowedPitchAlgorithm implements PitchAlgorithm {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1024 * 2;
+    public static final int DEFAULT_HOP_SIZE = 256;
+
+    private final SlidingWindow window;
+
+    protected WindowedPitchAlgorithm(int windowSize, int hopSize) {
+        this.window = new SlidingWindow(windowSize, hopSize);
+    }
+
+    @Override
+    public List<Pitch> pitches(short[] samples) {
+        List<Pitch> result = new ArrayList<>(samples.length / window.hopSize() + 1);
+        int offset = 0;
+        while (offset < samples.length) {
+            offset = window.add(samples, offset);
+            if (window.ready())
+                result.add(pitch(window.window()).at(offset));
+        }
+        return result;
+    }
+
+    /**
+     * Detect the pitch of a single window, which must not be modified.
+     * @param window exactly {@link #windowSize()} samples
+     */
+    public abstract Pitch pitch(float[] window);
+
+    public int windowSize() {
+        return window.windowSize();
+    }
+
+}
@@ -22,7 +22,11 @@ import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
 public class Yin extends TarsosDspPitchAlgorithm {
 
     public Yin() {
-        super(new be.tarsos.dsp.pitch.Yin(AudioFormats.SAMPLE_RATE, AUDIO_BUFFER_SIZE));
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_TARSOS_HOP_SIZE);
+    }
+
+    public Yin(int windowSize, int hopSize) {
+        super(new be.tarsos.dsp.pitch.Yin(AudioFormats.SAMPLE_RATE, windowSize), windowSize, hopSize);
     }
 
     @Override
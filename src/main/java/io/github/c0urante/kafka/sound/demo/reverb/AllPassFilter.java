@@ -17,12 +17,82 @@
  */
 package io.github.c0urante.kafka.sound.demo.reverb;
 
-import java.util.List;
+import java.nio.ByteBuffer;
 
+/**
+ * A Schroeder all-pass diffuser: passes every frequency through at the same gain, but smears
+ * the phase around, which turns the discrete echoes coming out of a comb filter bank into something denser.
+ */
 public class AllPassFilter {
 
-    public List<Short> apply(List<Short> samples) {
-        return samples;
+    private final float feedback;
+    private final float[] delayedSamples;
+    private int position;
+
+    /**
+     * @param delay the length of the delay line, in samples
+     * @param feedback the amount of the delayed signal fed back into the delay line; should be between 0 and 1
+     */
+    public AllPassFilter(int delay, double feedback) {
+        if (delay <= 0)
+            throw new IllegalArgumentException("Delay must be positive");
+        if (feedback < 0 || feedback >= 1)
+            throw new IllegalArgumentException("Feedback must be in the range [0, 1)");
+        this.feedback = (float) feedback;
+        this.delayedSamples = new float[delay];
+        this.position = 0;
+    }
+
+    public float apply(float sample) {
+        float delayed = delayedSamples[position];
+        delayedSamples[position] = sample + (delayed * feedback);
+        if (++position == delayedSamples.length)
+            position = 0;
+        return delayed - sample;
+    }
+
+    /**
+     * Filter the first {@code length} samples of the given block in place.
+     */
+    public void apply(float[] samples, int length) {
+        int processed = 0;
+        while (processed < length) {
+            // Split at the point where the delay line wraps around so that the inner loop stays simple
+            int run = Math.min(length - processed, delayedSamples.length - position);
+            for (int i = 0; i < run; i++) {
+                float sample = samples[processed + i];
+                float delayed = delayedSamples[position + i];
+                delayedSamples[position + i] = sample + (delayed * feedback);
+                samples[processed + i] = delayed - sample;
+            }
+            processed += run;
+            position += run;
+            if (position == delayedSamples.length)
+                position = 0;
+        }
+    }
+
+    int stateSize() {
+        return Integer.BYTES + Float.BYTES * delayedSamples.length;
+    }
+
+    void saveState(ByteBuffer destination) {
+        destination.putInt(position);
+        destination.asFloatBuffer().put(delayedSamples);
+        destination.position(destination.position() + Float.BYTES * delayedSamples.length);
+    }
+
+    void restoreState(ByteBuffer source) {
+        if (source.remaining() < stateSize())
+            throw new IllegalArgumentException("Not enough state for delay line of length " + delayedSamples.length);
+        int position = source.getInt();
+        if (position < 0 || position >= delayedSamples.length)
+            throw new IllegalArgumentException("Invalid delay line position " + position);
+        this.position = position;
+        ByteBuffer delayed = source.duplicate();
+        delayed.limit(delayed.position() + Float.BYTES * delayedSamples.length);
+        delayed.asFloatBuffer().get(delayedSamples);
+        source.position(delayed.limit());
     }
 
 }
@@ -19,35 +19,53 @@ package io.github.c0urante.kafka.sound.demo.reverb;
 
 import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
 
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.function.Supplier;
-import java.util.stream.IntStream;
+import java.util.function.DoubleSupplier;
 
 public class CombFilter {
 
-    private volatile Supplier<Double> decay;
-    private final Queue<Short> delayedSamples;
+    private final DoubleSupplier decay;
+    // Circular buffer; the slot at the current position holds the sample from exactly one delay ago,
+    // which we read and then overwrite with the newest sample
+    private final short[] delayedSamples;
+    private int position;
 
-    public CombFilter(int delay, Supplier<Double> decay) {
+    public CombFilter(int delay, DoubleSupplier decay) {
         if (delay <= 0)
             throw new IllegalArgumentException("Delay must be positive");
 
         this.decay = decay;
-        // GUYS LOOK I USED A LINKED LIST IRL
-        this.delayedSamples = new LinkedList<>();
         // Don't need to store our delay; just assume that everything was silent for
         // the complete duration of it before we started tracking samples
-        IntStream.range(0, delay).forEach(i -> delayedSamples.add((short) 0));
+        this.delayedSamples = new short[delay];
+        this.position = 0;
     }
 
-    public synchronized short apply(short sample) {
-        // Queue::poll is more elegant but IntelliJ won't stfu about NPEs from unboxing
-        // Lol now it's trying to tell me there's a typo in stfu
-        double outputSample = ((delayedSamples.remove() * decay.get()) + sample);
-        delayedSamples.add(SampleUtils.coerceToSample(outputSample));
+    public short apply(short sample) {
+        double decay = this.decay.getAsDouble();
+        return apply(sample, decay, 1 / (1 + decay));
+    }
+
+    /**
+     * Filter an entire block of samples, reading the decay only once for the whole block.
+     * The input and output arrays may be the same.
+     */
+    public void apply(short[] in, short[] out) {
+        if (out.length < in.length)
+            throw new IllegalArgumentException("Output array must be at least as large as input array");
+
+        double decay = this.decay.getAsDouble();
+        double normalization = 1 / (1 + decay);
+        for (int i = 0; i < in.length; i++) {
+            out[i] = apply(in[i], decay, normalization);
+        }
+    }
+
+    private short apply(short sample, double decay, double normalization) {
+        double outputSample = (delayedSamples[position] * decay) + sample;
+        delayedSamples[position] = SampleUtils.coerceToSample(outputSample);
+        position = position + 1 == delayedSamples.length ? 0 : position + 1;
         // We divide by (1 + decay) to make sure that we don't get overflow errors
-        return (short) (outputSample / (1 + decay.get()));
+        return (short) (outputSample * normalization);
     }
 
 }
@@ -0,0 +1,296 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.reverb;
+
+import io.github.c0urante.kafka.sound.demo.streams.StatefulBlockEffect;
+import io.github.c0urante.kafka.sound.demo.util.RealFft;
+import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A convolution reverb: convolves the input with a recorded impulse response (i.e., the sound of a real room,
+ * or hall, or cathedral, or anything else, responding to a single click).
+ * <p>
+ * Convolving directly with a multi-second impulse response would cost hundreds of thousands of multiplications
+ * per sample, so instead, the impulse response is split into equal partitions, each of which is convolved in the
+ * frequency domain with a correspondingly delayed block of the input (uniformly partitioned overlap-save).
+ * Every partition's spectrum is computed once, up front, and the spectra of the most recent blocks of input are
+ * kept in a ring, so each block only costs one forward FFT, one inverse FFT, and one complex multiply-add per
+ * partition per frequency bin. Everything involved is real, so the FFTs are {@link RealFft real FFTs}, and only
+ * the non-redundant half of each spectrum is ever computed or stored. All buffers are allocated up front.
+ * <p>
+ * The wet signal is delayed by one partition, so smaller partitions mean lower latency (but more work per sample).
+ * The dry signal isn't delayed at all.
+ */
+public class ConvolutionReverb implements StatefulBlockEffect {
+
+    private final int partitionSize;
+    private final int partitions;
+    // Number of non-redundant frequency bins for real input
+    private final int bins;
+    private final RealFft fft;
+    private final float wet;
+    private final float dry;
+    // Spectra of every partition of the impulse response, one after the other; shared with forks
+    private final double[] responseReal;
+    private final double[] responseImaginary;
+
+    // The previous block of input, then the block currently being filled in
+    private final double[] window;
+    // Spectra of the most recent windows of input, most recent first (starting from spectrumHead)
+    private final double[] spectraReal;
+    private final double[] spectraImaginary;
+    private int spectrumHead;
+    // Raw input for the last few blocks, used to snapshot state without having to save all those spectra
+    private final short[] history;
+    private int historyBlock;
+    // Wet output for the block currently being filled in
+    private final double[] output;
+    private int position;
+
+    private final double[] real;
+    private final double[] imaginary;
+    // The output of each inverse FFT, only the second half of which is kept
+    private final double[] signal;
+    private final short[] singleSample;
+
+    /**
+     * @param impulseResponse the impulse response to convolve with; normalized to unit energy, so its overall
+     *                        volume doesn't matter
+     * @param partitionSize the size of each partition of the impulse response, in samples; must be a power of two
+     * @param mix the proportion of reverberated signal in the output, from 0 (fully dry) to 1 (fully wet)
+     */
+    public ConvolutionReverb(short[] impulseResponse, int partitionSize, double mix) {
+        if (impulseResponse.length == 0)
+            throw new IllegalArgumentException("Impulse response may not be empty");
+        if (partitionSize < 2 || Integer.bitCount(partitionSize) != 1)
+            throw new IllegalArgumentException("Partition size must be a power of two no less than 2");
+        if (mix < 0 || mix > 1)
+            throw new IllegalArgumentException("Mix must be in the range [0, 1]");
+
+        this.partitionSize = partitionSize;
+        this.partitions = (impulseResponse.length + partitionSize - 1) / partitionSize;
+        this.fft = new RealFft(partitionSize * 2);
+        this.bins = fft.bins();
+        this.wet = (float) mix;
+        this.dry = 1 - (float) mix;
+        this.responseReal = new double[partitions * bins];
+        this.responseImaginary = new double[partitions * bins];
+
+        double energy = 0;
+        for (short sample : impulseResponse)
+            energy += (double) sample * sample;
+        if (energy == 0)
+            throw new IllegalArgumentException("Impulse response may not be silent");
+        double scale = 1 / Math.sqrt(energy);
+
+        double[] signal = new double[fft.size()];
+        double[] real = new double[bins];
+        double[] imaginary = new double[bins];
+        for (int partition = 0; partition < partitions; partition++) {
+            // Each partition goes in the first half, with zeros after it, as overlap-save expects
+            Arrays.fill(signal, 0);
+            int start = partition * partitionSize;
+            int end = Math.min(start + partitionSize, impulseResponse.length);
+            for (int i = start; i < end; i++)
+                signal[i - start] = impulseResponse[i] * scale;
+            fft.forward(signal, real, imaginary);
+            System.arraycopy(real, 0, responseReal, partition * bins, bins);
+            System.arraycopy(imaginary, 0, responseImaginary, partition * bins, bins);
+        }
+
+        this.window = new double[partitionSize * 2];
+        this.spectraReal = new double[partitions * bins];
+        this.spectraImaginary = new double[partitions * bins];
+        this.history = new short[(partitions + 2) * partitionSize];
+        this.output = new double[partitionSize];
+        this.real = real;
+        this.imaginary = imaginary;
+        this.signal = signal;
+        this.singleSample = new short[1];
+    }
+
+    private ConvolutionReverb(ConvolutionReverb original) {
+        this.partitionSize = original.partitionSize;
+        this.partitions = original.partitions;
+        this.bins = original.bins;
+        this.fft = original.fft;
+        this.wet = original.wet;
+        this.dry = original.dry;
+        this.responseReal = original.responseReal;
+        this.responseImaginary = original.responseImaginary;
+
+        this.window = new double[partitionSize * 2];
+        this.spectraReal = new double[partitions * bins];
+        this.spectraImaginary = new double[partitions * bins];
+        this.history = new short[(partitions + 2) * partitionSize];
+        this.output = new double[partitionSize];
+        this.real = new double[bins];
+        this.imaginary = new double[bins];
+        this.signal = new double[fft.size()];
+        this.singleSample = new short[1];
+    }
+
+    /**
+     * Read an impulse response from a file of raw, little-endian PCM16 samples (the same format the rest of the
+     * demo uses), at {@link io.github.c0urante.kafka.sound.demo.util.AudioFormats#SAMPLE_RATE the usual sample rate}.
+     */
+    public static short[] readImpulseResponse(Path file) {
+        try {
+            return SampleUtils.decodeSampleBlock(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read impulse response from " + file, e);
+        }
+    }
+
+    @Override
+    public short[] apply(short[] samples) {
+        int processed = 0;
+        while (processed < samples.length) {
+            // Split wherever a block of input fills up
+            int run = Math.min(samples.length - processed, partitionSize - position);
+            int historyOffset = historyBlock * partitionSize + position;
+            for (int i = 0; i < run; i++) {
+                short sample = samples[processed + i];
+                window[partitionSize + position + i] = sample;
+                history[historyOffset + i] = sample;
+                samples[processed + i] = SampleUtils.coerceToSample((sample * dry) + (output[position + i] * wet));
+            }
+            processed += run;
+            position += run;
+            if (position == partitionSize) {
+                convolve();
+                position = 0;
+            }
+        }
+        return samples;
+    }
+
+    public Short apply(Short sample) {
+        singleSample[0] = sample;
+        return apply(singleSample)[0];
+    }
+
+    private void convolve() {
+        pushSpectrum();
+
+        // Multiply every delayed input spectrum with the matching partition of the impulse response, and sum it all up
+        Arrays.fill(real, 0, bins, 0);
+        Arrays.fill(imaginary, 0, bins, 0);
+        for (int partition = 0; partition < partitions; partition++) {
+            int spectrum = ((spectrumHead + partition) % partitions) * bins;
+            int response = partition * bins;
+            for (int bin = 0; bin < bins; bin++) {
+                double inputReal = spectraReal[spectrum + bin];
+                double inputImaginary = spectraImaginary[spectrum + bin];
+                double responseReal = this.responseReal[response + bin];
+                double responseImaginary = this.responseImaginary[response + bin];
+                real[bin] += inputReal * responseReal - inputImaginary * responseImaginary;
+                imaginary[bin] += inputReal * responseImaginary + inputImaginary * responseReal;
+            }
+        }
+        fft.inverse(real, imaginary, signal);
+        // Only the second half is free of wraparound
+        System.arraycopy(signal, partitionSize, output, 0, partitionSize);
+
+        System.arraycopy(window, partitionSize, window, 0, partitionSize);
+        historyBlock = (historyBlock + 1) % (partitions + 2);
+    }
+
+    private void pushSpectrum() {
+        fft.forward(window, real, imaginary);
+        spectrumHead = (spectrumHead + partitions - 1) % partitions;
+        System.arraycopy(real, 0, spectraReal, spectrumHead * bins, bins);
+        System.arraycopy(imaginary, 0, spectraImaginary, spectrumHead * bins, bins);
+    }
+
+    @Override
+    public ConvolutionReverb fork() {
+        return new ConvolutionReverb(this);
+    }
+
+    @Override
+    public int stateSize() {
+        return Integer.BYTES * 3
+                + Short.BYTES * ((partitions + 1) * partitionSize + position)
+                + Double.BYTES * partitionSize;
+    }
+
+    // Input spectra are rebuilt from the raw input on restore, which is a lot smaller than the spectra themselves.
+    // Layout: [partitions][partition size][position][last (partitions + 1) blocks of input, oldest first]
+    //   [input so far for the current block][wet output for the current block]
+    @Override
+    public void saveState(ByteBuffer destination) {
+        destination.putInt(partitions);
+        destination.putInt(partitionSize);
+        destination.putInt(position);
+        int blocks = partitions + 2;
+        for (int block = 1; block < blocks; block++) {
+            // Starting with the oldest complete block, right after the one currently being filled in
+            int offset = ((historyBlock + block) % blocks) * partitionSize;
+            destination.asShortBuffer().put(history, offset, partitionSize);
+            destination.position(destination.position() + Short.BYTES * partitionSize);
+        }
+        destination.asShortBuffer().put(history, historyBlock * partitionSize, position);
+        destination.position(destination.position() + Short.BYTES * position);
+        for (double sample : output)
+            destination.putDouble(sample);
+    }
+
+    @Override
+    public void restoreState(ByteBuffer source) {
+        int partitions = source.getInt();
+        int partitionSize = source.getInt();
+        int position = source.getInt();
+        if (partitions != this.partitions || partitionSize != this.partitionSize)
+            throw new IllegalArgumentException("Reverb state does not match the configured impulse response");
+        if (position < 0 || position >= partitionSize)
+            throw new IllegalArgumentException("Invalid position " + position);
+
+        // Lay the history back out from the start of the ring, then rebuild every input spectrum from it
+        int blocks = partitions + 2;
+        source.asShortBuffer().get(history, 0, (blocks - 1) * partitionSize);
+        source.position(source.position() + Short.BYTES * (blocks - 1) * partitionSize);
+        spectrumHead = 0;
+        for (int block = 1; block < blocks - 1; block++) {
+            for (int i = 0; i < partitionSize; i++) {
+                window[i] = history[(block - 1) * partitionSize + i];
+                window[partitionSize + i] = history[block * partitionSize + i];
+            }
+            pushSpectrum();
+        }
+
+        historyBlock = blocks - 1;
+        source.asShortBuffer().get(history, historyBlock * partitionSize, position);
+        source.position(source.position() + Short.BYTES * position);
+        for (int i = 0; i < partitionSize; i++) {
+            window[i] = history[(blocks - 2) * partitionSize + i];
+            window[partitionSize + i] = i < position ? history[historyBlock * partitionSize + i] : 0;
+        }
+        for (int i = 0; i < partitionSize; i++)
+            output[i] = source.getDouble();
+        this.position = position;
+    }
+
+}
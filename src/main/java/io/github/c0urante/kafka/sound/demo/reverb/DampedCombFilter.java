@@ -0,0 +1,93 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.reverb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A feedback comb filter with a one-pole low-pass filter in its feedback path, so that high frequencies
+ * die out faster than low ones (like they do in real rooms). This is the comb filter used in Freeverb.
+ */
+public class DampedCombFilter {
+
+    private final float[] delayedSamples;
+    private int position;
+    private float filtered;
+
+    /**
+     * @param delay the length of the delay line, in samples
+     */
+    public DampedCombFilter(int delay) {
+        if (delay <= 0)
+            throw new IllegalArgumentException("Delay must be positive");
+        this.delayedSamples = new float[delay];
+        this.position = 0;
+        this.filtered = 0;
+    }
+
+    /**
+     * Run the first {@code length} samples of {@code input} through the filter, adding its output to {@code sums}.
+     * @param feedback how much of the (damped) delayed signal to feed back into the delay line
+     * @param damping how much to low-pass the feedback signal; 0 for not at all, approaching 1 for a lot
+     */
+    public void apply(float[] input, float[] sums, int length, float feedback, float damping) {
+        float undamped = 1 - damping;
+        float filtered = this.filtered;
+        int processed = 0;
+        while (processed < length) {
+            int run = Math.min(length - processed, delayedSamples.length - position);
+            for (int i = 0; i < run; i++) {
+                float output = delayedSamples[position + i];
+                filtered = (output * undamped) + (filtered * damping);
+                delayedSamples[position + i] = input[processed + i] + (filtered * feedback);
+                sums[processed + i] += output;
+            }
+            processed += run;
+            position += run;
+            if (position == delayedSamples.length)
+                position = 0;
+        }
+        this.filtered = filtered;
+    }
+
+    int stateSize() {
+        return Integer.BYTES + Float.BYTES + Float.BYTES * delayedSamples.length;
+    }
+
+    void saveState(ByteBuffer destination) {
+        destination.putInt(position);
+        destination.putFloat(filtered);
+        destination.asFloatBuffer().put(delayedSamples);
+        destination.position(destination.position() + Float.BYTES * delayedSamples.length);
+    }
+
+    void restoreState(ByteBuffer source) {
+        if (source.remaining() < stateSize())
+            throw new IllegalArgumentException("Not enough state for delay line of length " + delayedSamples.length);
+        int position = source.getInt();
+        if (position < 0 || position >= delayedSamples.length)
+            throw new IllegalArgumentException("Invalid delay line position " + position);
+        this.position = position;
+        filtered = source.getFloat();
+        ByteBuffer delayed = source.duplicate();
+        delayed.limit(delayed.position() + Float.BYTES * delayedSamples.length);
+        delayed.asFloatBuffer().get(delayedSamples);
+        source.position(delayed.limit());
+    }
+
+}
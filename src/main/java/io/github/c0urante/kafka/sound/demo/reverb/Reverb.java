@@ -17,15 +17,22 @@
  */
 package io.github.c0urante.kafka.sound.demo.reverb;
 
+import io.github.c0urante.kafka.sound.demo.streams.StatefulBlockEffect;
 import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
 import io.github.c0urante.kafka.sound.demo.util.AdjustableDouble;
-import org.apache.kafka.streams.kstream.ValueMapper;
 
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.nio.ByteBuffer;
 
-public class Reverb implements ValueMapper<Short, Short> {
+/**
+ * A parallel bank of {@link CombFilter comb filters}, averaged together.
+ * <p>
+ * Instead of delegating to individual comb filter instances, the state for every comb is kept in
+ * struct-of-arrays form (one contiguous delay line buffer, plus arrays of offsets, lengths, and
+ * positions into it) and whole blocks are processed one comb at a time. Within a block, each comb's
+ * inner loop is split at the point where its delay line wraps around, so that it's a plain loop over
+ * contiguous array ranges with no branches or loop-carried dependencies, which C2 can auto-vectorize.
+ */
+public class Reverb implements StatefulBlockEffect {
 
     private static final double MAX_DECAY = 0.999;
     private static final double MIN_DECAY = 0.001;
@@ -34,36 +41,166 @@ public class Reverb implements ValueMapper<Short, Short> {
             23, 29, 31, 37, 41, 43, 47, 53, 59, 61, 67, 71, 73, 79, 83, 89, 97
     };
 
-    private final List<CombFilter> combFilters;
     private final AdjustableDouble decay;
 
+    // Comb filter state
+    private final float[] delayLines;
+    private final int[] delayLineOffsets;
+    private final int[] delayLineLengths;
+    private final int[] delayLinePositions;
+
+    // Scratch space for block processing
+    private final short[] singleSample;
+    private float[] input;
+    private float[] sums;
+
     public Reverb(double initialDecay) {
         this(initialDecay, DEFAULT_DELAYS);
     }
 
     public Reverb(double initialDecay, int... delays) {
-        this.decay = new AdjustableDouble(MIN_DECAY, MAX_DECAY, initialDecay);
-        this.combFilters = IntStream.of(delays).mapToObj(
-                delay -> new CombFilter(SampleUtils.msToSamples(delay), decay::current)
-        ).collect(Collectors.toList());
+        this(new AdjustableDouble(MIN_DECAY, MAX_DECAY, initialDecay), delayLineLengths(delays));
+    }
+
+    private Reverb(AdjustableDouble decay, int[] delayLineLengths) {
+        this.decay = decay;
+
+        this.delayLineOffsets = new int[delayLineLengths.length];
+        this.delayLineLengths = delayLineLengths;
+        this.delayLinePositions = new int[delayLineLengths.length];
+        int totalLength = 0;
+        for (int i = 0; i < delayLineLengths.length; i++) {
+            delayLineOffsets[i] = totalLength;
+            totalLength += delayLineLengths[i];
+        }
+        // Just like with individual comb filters, assume that everything was silent before we started
+        this.delayLines = new float[totalLength];
+
+        this.singleSample = new short[1];
+        this.input = new float[0];
+        this.sums = new float[0];
+    }
+
+    private static int[] delayLineLengths(int[] delays) {
+        if (delays.length == 0)
+            throw new IllegalArgumentException("At least one delay must be provided");
+
+        int[] result = new int[delays.length];
+        for (int i = 0; i < delays.length; i++) {
+            result[i] = SampleUtils.msToSamples(delays[i]);
+            if (result[i] <= 0)
+                throw new IllegalArgumentException("Delay must be positive");
+        }
+        return result;
     }
 
     @Override
+    public short[] apply(short[] samples) {
+        int length = samples.length;
+        // Filters upstream hand over empty blocks while they fill up their first window, and there's nothing to
+        // advance the decay by until something actually arrives
+        if (length == 0)
+            return samples;
+        if (input.length < length) {
+            input = new float[length];
+            sums = new float[length];
+        }
+
+        for (int i = 0; i < length; i++) {
+            input[i] = samples[i];
+            sums[i] = 0;
+        }
+
+        // Read the decay once per block, after catching it up to where it would be at the end of this block
+        float decay = (float) this.decay.advance(length);
+        for (int comb = 0; comb < delayLineOffsets.length; comb++) {
+            int offset = delayLineOffsets[comb];
+            int delayLineLength = delayLineLengths[comb];
+            int position = delayLinePositions[comb];
+
+            int processed = 0;
+            while (processed < length) {
+                int run = Math.min(length - processed, delayLineLength - position);
+                combRun(input, sums, processed, delayLines, offset + position, run, decay);
+                processed += run;
+                position += run;
+                if (position == delayLineLength)
+                    position = 0;
+            }
+
+            delayLinePositions[comb] = position;
+        }
+
+        // We divide by (1 + decay) to make sure that we don't get overflow errors, then average across combs
+        float normalization = 1 / ((1 + decay) * delayLineOffsets.length);
+        for (int i = 0; i < length; i++) {
+            samples[i] = SampleUtils.coerceToSample(sums[i] * normalization);
+        }
+        return samples;
+    }
+
     public Short apply(Short sample) {
-        decay.next();
-        List<Short> filteredSamples = combFilters.stream()
-                .map(combFilter -> combFilter.apply(sample))
-                .collect(Collectors.toList());
-        return average(filteredSamples);
+        singleSample[0] = sample;
+        return apply(singleSample)[0];
+    }
+
+    @Override
+    public Reverb fork() {
+        return new Reverb(decay.follower(), delayLineLengths);
+    }
+
+    @Override
+    public int stateSize() {
+        return Integer.BYTES * (1 + delayLinePositions.length) + Float.BYTES * delayLines.length;
+    }
+
+    // Layout: [comb count][positions][delay lines]
+    @Override
+    public void saveState(ByteBuffer destination) {
+        destination.putInt(delayLinePositions.length);
+        for (int position : delayLinePositions)
+            destination.putInt(position);
+        destination.asFloatBuffer().put(delayLines);
+        destination.position(destination.position() + Float.BYTES * delayLines.length);
+    }
+
+    @Override
+    public void restoreState(ByteBuffer source) {
+        if (source.remaining() != stateSize() || source.getInt(source.position()) != delayLinePositions.length)
+            throw new IllegalArgumentException("Reverb state does not match the configured delays");
+
+        source.getInt();
+        int[] positions = new int[delayLinePositions.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = source.getInt();
+            if (positions[i] < 0 || positions[i] >= delayLineLengths[i])
+                throw new IllegalArgumentException("Invalid delay line position " + positions[i]);
+        }
+        System.arraycopy(positions, 0, delayLinePositions, 0, positions.length);
+        source.asFloatBuffer().get(delayLines);
+        source.position(source.limit());
     }
 
     public AdjustableDouble decay() {
         return decay;
     }
 
-    private static short average(List<Short> shorts) {
-        int sum = shorts.stream().mapToInt(Short::intValue).sum();
-        return (short) (sum / shorts.size());
+    // Each delay line slot holds the output from exactly one delay ago; read it, then replace it with
+    // the newest output. The run never wraps around the end of the delay line, and never revisits a slot.
+    private static void combRun(
+            float[] input,
+            float[] sums,
+            int inputOffset,
+            float[] delayLines,
+            int delayLineOffset,
+            int length,
+            float decay
+    ) {
+        for (int i = 0; i < length; i++) {
+            float output = input[inputOffset + i] + (decay * delayLines[delayLineOffset + i]);
+            delayLines[delayLineOffset + i] = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, output));
+            sums[inputOffset + i] += output;
+        }
     }
 
 }
@@ -0,0 +1,214 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.reverb;
+
+import io.github.c0urante.kafka.sound.demo.streams.StatefulBlockEffect;
+import io.github.c0urante.kafka.sound.demo.util.AdjustableDouble;
+import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
+import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A Schroeder reverb, tuned like Freeverb: a parallel bank of {@link DampedCombFilter damped comb filters}
+ * whose summed output is fed through a series of {@link AllPassFilter all-pass filters}.
+ * The all-passes do the work of smearing the echoes together, so we get a dense tail out of far fewer
+ * comb filters than {@link Reverb} needs.
+ */
+public class SchroederReverb implements StatefulBlockEffect {
+
+    private static final double MIN_ROOM_SIZE = 0.0;
+    private static final double MAX_ROOM_SIZE = 1.0;
+
+    // Freeverb's tunings, in samples at 44.1kHz
+    private static final int TUNING_SAMPLE_RATE = 44100;
+    public static final int[] DEFAULT_COMB_DELAYS = new int[] {
+            1116, 1188, 1277, 1356, 1422, 1491, 1557, 1617
+    };
+    public static final int[] DEFAULT_ALL_PASS_DELAYS = new int[] {
+            556, 441, 341, 225
+    };
+    private static final double ALL_PASS_FEEDBACK = 0.5;
+
+    // Room size maps onto comb feedback in the range [0.7, 0.98]
+    private static final float ROOM_SIZE_SCALE = 0.28f;
+    private static final float ROOM_SIZE_OFFSET = 0.7f;
+    private static final float DAMPING_SCALE = 0.4f;
+    // Keeps the sum of all the combs from blowing up
+    private static final float INPUT_GAIN = 0.015f;
+    private static final float WET_SCALE = 3;
+
+    private final AdjustableDouble roomSize;
+    private final float damping;
+    private final float wet;
+    private final float dry;
+    private final int[] combDelays;
+    private final int[] allPassDelays;
+    private final DampedCombFilter[] combFilters;
+    private final AllPassFilter[] allPassFilters;
+
+    private final short[] singleSample;
+    private float[] input;
+    private float[] sums;
+
+    public SchroederReverb(double initialRoomSize, double damping, double mix) {
+        this(initialRoomSize, damping, mix, DEFAULT_COMB_DELAYS, DEFAULT_ALL_PASS_DELAYS);
+    }
+
+    /**
+     * @param initialRoomSize the initial room size, from 0 to 1; larger rooms have longer tails
+     * @param damping how quickly high frequencies are absorbed, from 0 to 1
+     * @param mix the proportion of reverberated signal in the output, from 0 (fully dry) to 1 (fully wet)
+     * @param combDelays the delays for each comb filter, in samples at 44.1kHz
+     * @param allPassDelays the delays for each all-pass filter, in samples at 44.1kHz
+     */
+    public SchroederReverb(double initialRoomSize, double damping, double mix, int[] combDelays, int[] allPassDelays) {
+        if (damping < 0 || damping > 1)
+            throw new IllegalArgumentException("Damping must be in the range [0, 1]");
+        if (mix < 0 || mix > 1)
+            throw new IllegalArgumentException("Mix must be in the range [0, 1]");
+        if (combDelays.length == 0)
+            throw new IllegalArgumentException("At least one comb filter delay must be provided");
+
+        this.roomSize = new AdjustableDouble(MIN_ROOM_SIZE, MAX_ROOM_SIZE, initialRoomSize);
+        this.damping = (float) damping * DAMPING_SCALE;
+        this.wet = (float) mix * WET_SCALE;
+        this.dry = 1 - (float) mix;
+        this.combDelays = combDelays.clone();
+        this.allPassDelays = allPassDelays.clone();
+        this.combFilters = createCombFilters(combDelays);
+        this.allPassFilters = createAllPassFilters(allPassDelays);
+
+        this.singleSample = new short[1];
+        this.input = new float[0];
+        this.sums = new float[0];
+    }
+
+    private SchroederReverb(SchroederReverb original) {
+        this.roomSize = original.roomSize.follower();
+        this.damping = original.damping;
+        this.wet = original.wet;
+        this.dry = original.dry;
+        this.combDelays = original.combDelays;
+        this.allPassDelays = original.allPassDelays;
+        this.combFilters = createCombFilters(combDelays);
+        this.allPassFilters = createAllPassFilters(allPassDelays);
+
+        this.singleSample = new short[1];
+        this.input = new float[0];
+        this.sums = new float[0];
+    }
+
+    private static DampedCombFilter[] createCombFilters(int[] combDelays) {
+        return Arrays.stream(combDelays)
+                .map(SchroederReverb::scaleDelay)
+                .mapToObj(DampedCombFilter::new)
+                .toArray(DampedCombFilter[]::new);
+    }
+
+    private static AllPassFilter[] createAllPassFilters(int[] allPassDelays) {
+        return Arrays.stream(allPassDelays)
+                .map(SchroederReverb::scaleDelay)
+                .mapToObj(delay -> new AllPassFilter(delay, ALL_PASS_FEEDBACK))
+                .toArray(AllPassFilter[]::new);
+    }
+
+    @Override
+    public short[] apply(short[] samples) {
+        int length = samples.length;
+        // Same as for Reverb; there's nothing to advance the room size by until samples actually arrive
+        if (length == 0)
+            return samples;
+        if (input.length < length) {
+            input = new float[length];
+            sums = new float[length];
+        }
+
+        for (int i = 0; i < length; i++) {
+            input[i] = samples[i] * INPUT_GAIN;
+            sums[i] = 0;
+        }
+
+        float feedback = (float) roomSize.advance(length) * ROOM_SIZE_SCALE + ROOM_SIZE_OFFSET;
+        for (DampedCombFilter combFilter : combFilters) {
+            combFilter.apply(input, sums, length, feedback, damping);
+        }
+        for (AllPassFilter allPassFilter : allPassFilters) {
+            allPassFilter.apply(sums, length);
+        }
+
+        for (int i = 0; i < length; i++) {
+            samples[i] = SampleUtils.coerceToSample((samples[i] * dry) + (sums[i] * wet));
+        }
+        return samples;
+    }
+
+    public Short apply(Short sample) {
+        singleSample[0] = sample;
+        return apply(singleSample)[0];
+    }
+
+    @Override
+    public SchroederReverb fork() {
+        return new SchroederReverb(this);
+    }
+
+    @Override
+    public int stateSize() {
+        int result = Integer.BYTES * 2;
+        for (DampedCombFilter combFilter : combFilters)
+            result += combFilter.stateSize();
+        for (AllPassFilter allPassFilter : allPassFilters)
+            result += allPassFilter.stateSize();
+        return result;
+    }
+
+    // Layout: [comb count][all-pass count][each comb's state][each all-pass's state]
+    @Override
+    public void saveState(ByteBuffer destination) {
+        destination.putInt(combFilters.length);
+        destination.putInt(allPassFilters.length);
+        for (DampedCombFilter combFilter : combFilters)
+            combFilter.saveState(destination);
+        for (AllPassFilter allPassFilter : allPassFilters)
+            allPassFilter.saveState(destination);
+    }
+
+    @Override
+    public void restoreState(ByteBuffer source) {
+        if (source.remaining() != stateSize()
+                || source.getInt() != combFilters.length
+                || source.getInt() != allPassFilters.length) {
+            throw new IllegalArgumentException("Reverb state does not match the configured delays");
+        }
+        for (DampedCombFilter combFilter : combFilters)
+            combFilter.restoreState(source);
+        for (AllPassFilter allPassFilter : allPassFilters)
+            allPassFilter.restoreState(source);
+    }
+
+    public AdjustableDouble roomSize() {
+        return roomSize;
+    }
+
+    private static int scaleDelay(int delay) {
+        return Math.max(1, (int) ((long) delay * AudioFormats.SAMPLE_RATE / TUNING_SAMPLE_RATE));
+    }
+
+}
@@ -19,7 +19,10 @@ package io.github.c0urante.kafka.sound.demo.streams;
 
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -27,7 +30,7 @@ import java.util.Properties;
 import static org.apache.kafka.common.config.ConfigDef.Range;
 import static org.apache.kafka.common.config.ConfigDef.Type;
 
-class ApplicationConfig extends AbstractConfig {
+public class ApplicationConfig extends AbstractConfig {
 
     public static final String INPUT_TOPIC_CONFIG = "input.topic";
     public static final String INPUT_TOPIC_DOC =
@@ -37,10 +40,61 @@ class ApplicationConfig extends AbstractConfig {
     public static final String OUTPUT_TOPIC_DOC =
             "Topic to write processed audio to (if the application produces output)";
 
+    public static final String PITCH_EVENTS_TOPIC_CONFIG = "pitch.events.topic";
+    public static final String PITCH_EVENTS_TOPIC_DOC =
+            "Topic to write note-on and note-off events to (if the application detects pitches); "
+                    + "if not set, pitch events are not written anywhere";
+
+    public static final String REVERB_ALGORITHM_CONFIG = "reverb.algorithm";
+    public static final String REVERB_ALGORITHM_COMB = "comb";
+    public static final String REVERB_ALGORITHM_SCHROEDER = "schroeder";
+    public static final String REVERB_ALGORITHM_CONVOLUTION = "convolution";
+    public static final String REVERB_ALGORITHM_DEFAULT = REVERB_ALGORITHM_COMB;
+    public static final String REVERB_ALGORITHM_DOC =
+            "Which reverb to use (if the application adds reverb): '" + REVERB_ALGORITHM_COMB + "' for a bank of "
+                    + "plain comb filters, '" + REVERB_ALGORITHM_SCHROEDER + "' for a Freeverb-style Schroeder reverb, "
+                    + "or '" + REVERB_ALGORITHM_CONVOLUTION + "' to convolve with a recorded impulse response";
+
+    public static final String REVERB_IMPULSE_RESPONSE_PATH_CONFIG = "reverb.impulse.response.path";
+    public static final String REVERB_IMPULSE_RESPONSE_PATH_DOC =
+            "File to read the impulse response for convolution reverb from, as raw little-endian PCM16 samples; "
+                    + "required if " + REVERB_ALGORITHM_CONFIG + " is '" + REVERB_ALGORITHM_CONVOLUTION + "'";
+
+    public static final String REVERB_PARTITION_SIZE_CONFIG = "reverb.partition.size";
+    public static final int REVERB_PARTITION_SIZE_DEFAULT = 512;
+    public static final String REVERB_PARTITION_SIZE_DOC =
+            "Size (in samples) of each partition of the impulse response for convolution reverb; must be a power "
+                    + "of two. The reverberated signal lags by this much, so smaller partitions mean lower latency, "
+                    + "at the cost of more work per sample";
+
+    public static final String DISTORTION_OVERSAMPLING_FACTOR_CONFIG = "distortion.oversampling.factor";
+    public static final int DISTORTION_OVERSAMPLING_FACTOR_DEFAULT = 1;
+    public static final String DISTORTION_OVERSAMPLING_FACTOR_DOC =
+            "How much to oversample by when clipping (if the application adds distortion): 1, 2, 4, or 8. "
+                    + "Higher factors cut down on aliasing from hard clippers, at the cost of more work per sample";
+
+    public static final String LOOP_SLOT_DIRECTORY_CONFIG = "loop.slot.directory";
+    public static final String LOOP_SLOT_DIRECTORY_DOC =
+            "Directory to keep loop slots in (if the application loops), so that they can be recalled after a restart; "
+                    + "if not set, loops are only kept in memory";
+
+    public static final String LOOP_RECALL_CONFIG = "loop.recall";
+    public static final boolean LOOP_RECALL_DEFAULT = false;
+    public static final String LOOP_RECALL_DOC =
+            "Whether to pick up loops left in the " + LOOP_SLOT_DIRECTORY_CONFIG + " by an earlier run on startup; "
+                    + "if false, every slot starts out empty and old loops are ignored until they're recorded over";
+
     public static final String OUTPUT_VALUE_SIZE_CONFIG = "output.value.size";
     public static final int OUTPUT_VALUE_SIZE_DEFAULT = 1024;
     public static final String OUTPUT_VALUE_SIZE_DOC =
-            "Size of values (in bytes) for records written to the output topic";
+            "Size of values (in bytes) for records written to the output topic by per-sample topologies "
+                    + "(block-oriented topologies preserve the size of input records)";
+
+    public static final String STATE_SNAPSHOT_INTERVAL_MS_CONFIG = "state.snapshot.interval.ms";
+    public static final long STATE_SNAPSHOT_INTERVAL_MS_DEFAULT = 1000;
+    public static final String STATE_SNAPSHOT_INTERVAL_MS_DOC =
+            "How often (in milliseconds) to snapshot the state of stateful effects (delay lines, loops, etc.) "
+                    + "into their state stores, which is how much audio state can be lost on failover";
 
     public static ConfigDef configDef() {
         return new ConfigDef()
@@ -54,6 +108,55 @@ class ApplicationConfig extends AbstractConfig {
                         Type.STRING,
                         ConfigDef.Importance.HIGH,
                         OUTPUT_TOPIC_DOC
+                ).define(
+                        PITCH_EVENTS_TOPIC_CONFIG,
+                        Type.STRING,
+                        null,
+                        ConfigDef.Importance.MEDIUM,
+                        PITCH_EVENTS_TOPIC_DOC
+                ).define(
+                        REVERB_ALGORITHM_CONFIG,
+                        Type.STRING,
+                        REVERB_ALGORITHM_DEFAULT,
+                        ConfigDef.ValidString.in(
+                                REVERB_ALGORITHM_COMB,
+                                REVERB_ALGORITHM_SCHROEDER,
+                                REVERB_ALGORITHM_CONVOLUTION
+                        ),
+                        ConfigDef.Importance.MEDIUM,
+                        REVERB_ALGORITHM_DOC
+                ).define(
+                        REVERB_IMPULSE_RESPONSE_PATH_CONFIG,
+                        Type.STRING,
+                        null,
+                        ConfigDef.Importance.MEDIUM,
+                        REVERB_IMPULSE_RESPONSE_PATH_DOC
+                ).define(
+                        REVERB_PARTITION_SIZE_CONFIG,
+                        Type.INT,
+                        REVERB_PARTITION_SIZE_DEFAULT,
+                        Range.atLeast(2),
+                        ConfigDef.Importance.LOW,
+                        REVERB_PARTITION_SIZE_DOC
+                ).define(
+                        DISTORTION_OVERSAMPLING_FACTOR_CONFIG,
+                        Type.INT,
+                        DISTORTION_OVERSAMPLING_FACTOR_DEFAULT,
+                        Range.between(1, 8),
+                        ConfigDef.Importance.LOW,
+                        DISTORTION_OVERSAMPLING_FACTOR_DOC
+                ).define(
+                        LOOP_SLOT_DIRECTORY_CONFIG,
+                        Type.STRING,
+                        null,
+                        ConfigDef.Importance.MEDIUM,
+                        LOOP_SLOT_DIRECTORY_DOC
+                ).define(
+                        LOOP_RECALL_CONFIG,
+                        Type.BOOLEAN,
+                        LOOP_RECALL_DEFAULT,
+                        ConfigDef.Importance.LOW,
+                        LOOP_RECALL_DOC
                 ).define(
                         OUTPUT_VALUE_SIZE_CONFIG,
                         Type.INT,
@@ -61,12 +164,27 @@ class ApplicationConfig extends AbstractConfig {
                         Range.atLeast(1),
                         ConfigDef.Importance.LOW,
                         OUTPUT_VALUE_SIZE_DOC
+                ).define(
+                        STATE_SNAPSHOT_INTERVAL_MS_CONFIG,
+                        Type.LONG,
+                        STATE_SNAPSHOT_INTERVAL_MS_DEFAULT,
+                        Range.atLeast(1),
+                        ConfigDef.Importance.LOW,
+                        STATE_SNAPSHOT_INTERVAL_MS_DOC
                 );
     }
 
     private final String inputTopic;
     private final String outputTopic;
+    private final String pitchEventsTopic;
+    private final String reverbAlgorithm;
+    private final Path reverbImpulseResponsePath;
+    private final int reverbPartitionSize;
+    private final int distortionOversamplingFactor;
+    private final Path loopSlotDirectory;
+    private final boolean loopRecall;
     private final int outputValueSize;
+    private final long stateSnapshotIntervalMs;
 
     public ApplicationConfig(Properties props) {
         this(new HashMap<>(props));
@@ -77,7 +195,25 @@ class ApplicationConfig extends AbstractConfig {
 
         this.inputTopic = getString(INPUT_TOPIC_CONFIG);
         this.outputTopic = getString(OUTPUT_TOPIC_CONFIG);
+        this.pitchEventsTopic = getString(PITCH_EVENTS_TOPIC_CONFIG);
+        this.reverbAlgorithm = getString(REVERB_ALGORITHM_CONFIG);
+        String reverbImpulseResponsePath = getString(REVERB_IMPULSE_RESPONSE_PATH_CONFIG);
+        if (reverbImpulseResponsePath == null && REVERB_ALGORITHM_CONVOLUTION.equals(reverbAlgorithm)) {
+            throw new ConfigException(
+                    REVERB_IMPULSE_RESPONSE_PATH_CONFIG + " is required for " + REVERB_ALGORITHM_CONVOLUTION + " reverb");
+        }
+        this.reverbImpulseResponsePath = reverbImpulseResponsePath != null ? Paths.get(reverbImpulseResponsePath) : null;
+        this.reverbPartitionSize = getInt(REVERB_PARTITION_SIZE_CONFIG);
+        this.distortionOversamplingFactor = getInt(DISTORTION_OVERSAMPLING_FACTOR_CONFIG);
+        if (Integer.bitCount(distortionOversamplingFactor) != 1) {
+            throw new ConfigException(
+                    DISTORTION_OVERSAMPLING_FACTOR_CONFIG, distortionOversamplingFactor, "Must be 1, 2, 4, or 8");
+        }
+        String loopSlotDirectory = getString(LOOP_SLOT_DIRECTORY_CONFIG);
+        this.loopSlotDirectory = loopSlotDirectory != null ? Paths.get(loopSlotDirectory) : null;
+        this.loopRecall = getBoolean(LOOP_RECALL_CONFIG);
         this.outputValueSize = getInt(OUTPUT_VALUE_SIZE_CONFIG);
+        this.stateSnapshotIntervalMs = getLong(STATE_SNAPSHOT_INTERVAL_MS_CONFIG);
     }
 
     public String inputTopic() {
@@ -88,8 +224,40 @@ class ApplicationConfig extends AbstractConfig {
         return outputTopic;
     }
 
+    public String pitchEventsTopic() {
+        return pitchEventsTopic;
+    }
+
+    public String reverbAlgorithm() {
+        return reverbAlgorithm;
+    }
+
+    public Path reverbImpulseResponsePath() {
+        return reverbImpulseResponsePath;
+    }
+
+    public int reverbPartitionSize() {
+        return reverbPartitionSize;
+    }
+
+    public int distortionOversamplingFactor() {
+        return distortionOversamplingFactor;
+    }
+
+    public Path loopSlotDirectory() {
+        return loopSlotDirectory;
+    }
+
+    public boolean loopRecall() {
+        return loopRecall;
+    }
+
     public int outputValueSize() {
         return outputValueSize;
     }
 
+    public long stateSnapshotIntervalMs() {
+        return stateSnapshotIntervalMs;
+    }
+
 }
@@ -0,0 +1,138 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.metrics.stats.WindowedCount;
+import org.apache.kafka.streams.StreamsMetrics;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Audio-specific metrics for a single processor (in a single stream task), registered with Kafka Streams'
+ * metrics so that they show up over JMX (or any other configured reporter) right next to the built-in ones,
+ * under the {@value #GROUP} group.
+ * <p>
+ * Everything here is recorded once per block, never once per sample.
+ */
+class AudioMetrics {
+
+    static final String GROUP = "stream-audio-metrics";
+    // Percentile histograms are linear, so this is a trade-off between range and resolution
+    private static final int HISTOGRAM_SIZE_BYTES = 4000;
+
+    private final StreamsMetrics metrics;
+    private final Map<String, String> tags;
+    private final String sensorPrefix;
+    private final List<Sensor> sensors;
+
+    public AudioMetrics(ProcessorContext context, String processor) {
+        this(context.metrics(), tags(context, processor));
+    }
+
+    AudioMetrics(StreamsMetrics metrics, Map<String, String> tags) {
+        this.metrics = metrics;
+        this.tags = tags;
+        // Sensor names have to be unique across the whole registry
+        this.sensorPrefix = GROUP + "." + String.join(".", tags.values()) + ".";
+        this.sensors = new ArrayList<>();
+    }
+
+    private static Map<String, String> tags(ProcessorContext context, String processor) {
+        Map<String, String> result = new HashMap<>();
+        result.put("thread-id", Thread.currentThread().getName());
+        result.put("task-id", context.taskId().toString());
+        result.put("processor", processor);
+        return result;
+    }
+
+    /**
+     * A sensor for how long something takes (in milliseconds) per block: average, max, and a few percentiles,
+     * plus the rate and total number of blocks.
+     * @param stage the part of the processor being timed; added as a tag, if not null
+     * @param maxMs the largest value the percentile histogram has to cover; anything higher lands in the top bucket
+     */
+    public Sensor timeSensor(String name, String stage, String description, double maxMs) {
+        Map<String, String> tags = tags(stage);
+        Sensor result = sensor(name, stage);
+        result.add(metricName(name + "-avg", "The average " + description, tags), new Avg());
+        result.add(metricName(name + "-max", "The maximum " + description, tags), new Max());
+        result.add(new Percentiles(
+                HISTOGRAM_SIZE_BYTES,
+                maxMs,
+                Percentiles.BucketSizing.LINEAR,
+                new Percentile(metricName(name + "-p50", "The median " + description, tags), 50),
+                new Percentile(metricName(name + "-p99", "The 99th percentile " + description, tags), 99),
+                new Percentile(metricName(name + "-p999", "The 99.9th percentile " + description, tags), 99.9)
+        ));
+        result.add(new Meter(
+                new WindowedCount(),
+                metricName("blocks-rate", "The number of blocks per second", tags),
+                metricName("blocks-total", "The total number of blocks", tags)
+        ));
+        return result;
+    }
+
+    /**
+     * A sensor for the rate and total of some quantity, like samples.
+     */
+    public Sensor throughputSensor(String name, String stage, String unit) {
+        Map<String, String> tags = tags(stage);
+        Sensor result = sensor(name, stage);
+        result.add(new Meter(
+                metricName(name + "-rate", "The number of " + unit + " per second", tags),
+                metricName(name + "-total", "The total number of " + unit, tags)
+        ));
+        return result;
+    }
+
+    public void close() {
+        sensors.forEach(metrics::removeSensor);
+        sensors.clear();
+    }
+
+    private Sensor sensor(String name, String stage) {
+        String sensorName = sensorPrefix + (stage != null ? stage + "." : "") + name;
+        Sensor result = metrics.addSensor(sensorName, Sensor.RecordingLevel.INFO);
+        sensors.add(result);
+        return result;
+    }
+
+    private Map<String, String> tags(String stage) {
+        if (stage == null)
+            return tags;
+        Map<String, String> result = new HashMap<>(tags);
+        result.put("stage", stage);
+        return result;
+    }
+
+    private static MetricName metricName(String name, String description, Map<String, String> tags) {
+        return new MetricName(name, GROUP, description, tags);
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import org.apache.kafka.streams.kstream.ValueMapper;
+
+/**
+ * An effect that processes an entire block of samples (usually the contents of a single
+ * record) at a time, instead of one sample per record.
+ * <p>
+ * Implementations are free to modify the block they are given in place and return it, which
+ * is what most effects do in order to avoid allocating a new array for every record.
+ * <p>
+ * Instances are not expected to be thread-safe (aside from their controls); instead, each stream task
+ * and key gets its own {@link #fork() fork} of the effect.
+ */
+public interface BlockEffect extends ValueMapper<short[], short[]> {
+
+    @Override
+    short[] apply(short[] samples);
+
+    /**
+     * Process a block that's known to have been captured at a certain time. Most effects don't care when things
+     * happened, so by default, the timestamp is ignored.
+     * @param timestamp the wall-clock time (in milliseconds since the epoch) at which the block finished recording,
+     *                  or a negative value if unknown
+     */
+    default short[] apply(short[] samples, long timestamp) {
+        return apply(samples);
+    }
+
+    /**
+     * Create a new instance of this effect with its own audio state (delay lines, buffers, etc.), but which is
+     * still driven by this instance's controls, so that a single pedal can steer every key and task at once.
+     */
+    BlockEffect fork();
+
+    /**
+     * Like {@link #fork()}, but for a particular stream of audio (e.g., one key within one stream task), which goes
+     * by the same ID across restarts. Only effects that keep state outside of memory (in files, say) need to tell
+     * their forks apart; by default, the ID is ignored.
+     * @param streamId identifies the stream of audio; safe to use as a file name
+     */
+    default BlockEffect fork(String streamId) {
+        return fork();
+    }
+
+}
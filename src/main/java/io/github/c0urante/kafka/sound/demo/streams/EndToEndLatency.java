@@ -0,0 +1,73 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.streams.kstream.ValueTransformer;
+import org.apache.kafka.streams.kstream.ValueTransformerSupplier;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+/**
+ * Passes blocks through untouched, and records how long it's been since each one was produced to the input topic
+ * (going by its timestamp). Meant to go right before the output topic, so that it covers everything: the producer
+ * on the other end, the trip through the input topic, and every stage of processing along the way.
+ * <p>
+ * Only meaningful if whatever produces the input and this application agree on what time it is.
+ */
+class EndToEndLatency implements ValueTransformerSupplier<short[], short[]> {
+
+    // Anything past this is a glitch, no matter how far past it is
+    private static final double MAX_LATENCY_MS = 5000;
+
+    @Override
+    public ValueTransformer<short[], short[]> get() {
+        return new ValueTransformer<short[], short[]>() {
+            private ProcessorContext context;
+            private AudioMetrics metrics;
+            private Sensor latency;
+
+            @Override
+            public void init(ProcessorContext context) {
+                this.context = context;
+                this.metrics = new AudioMetrics(context, "output");
+                this.latency = metrics.timeSensor(
+                        "record-e2e-latency",
+                        null,
+                        "end-to-end latency in ms, from the production of an input block to its output",
+                        MAX_LATENCY_MS
+                );
+            }
+
+            @Override
+            public short[] transform(short[] samples) {
+                long timestamp = context.timestamp();
+                if (timestamp >= 0 && latency.shouldRecord()) {
+                    long now = System.currentTimeMillis();
+                    latency.record(now - timestamp, now);
+                }
+                return samples;
+            }
+
+            @Override
+            public void close() {
+                metrics.close();
+            }
+        };
+    }
+
+}
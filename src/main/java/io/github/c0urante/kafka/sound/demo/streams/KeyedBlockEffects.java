@@ -0,0 +1,481 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.kstream.ValueTransformerWithKey;
+import org.apache.kafka.streams.kstream.ValueTransformerWithKeySupplier;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.StoreBuilder;
+import org.apache.kafka.streams.state.Stores;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Runs a chain of {@link BlockEffect effects} with separate state for every key (i.e., every channel or musician),
+ * and within each stream task. Since no state is shared between tasks, more partitions and more stream threads
+ * (or instances) translate directly into more cores doing audio processing.
+ * <p>
+ * Records without a key all share the same chain (per task).
+ * <p>
+ * If any of the effects are {@link StatefulBlockEffect stateful}, the state of each key's chain is snapshotted
+ * periodically into a changelogged key-value store, and restored from it the first time the key is seen by a task
+ * (e.g., after a restart, or after the partition has moved to another instance). Every effect in the chain gets
+ * snapshots of its own, so that big effects that rarely change (like loops) aren't written out again just because
+ * a small one next to them (like a reverb) changes all the time. Each snapshot is written as a whole, split into
+ * chunks if it's too large to fit into a single changelog record; every chunk is tagged with the snapshot it belongs
+ * to, so that a snapshot that was only partially written is never restored. Snapshots are skipped for effects whose
+ * state {@link StatefulBlockEffect#stateChanged() hasn't changed}, or that haven't changed since the last one, and
+ * effects that persist their own state (i.e., aren't {@link StatefulBlockEffect#snapshotted() snapshotted}) are
+ * left out entirely.
+ * <p>
+ * How long each effect takes per block, and how many samples make it through the chain, are recorded
+ * as {@link AudioMetrics audio metrics}, with one stage per effect.
+ */
+class KeyedBlockEffects implements ValueTransformerWithKeySupplier<byte[], short[], short[]> {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyedBlockEffects.class);
+
+    // Keep well clear of the default max message size for changelog records
+    static final int MAX_CHUNK_SIZE = 512 * 1024;
+    // 128 MiB; anything claiming to be bigger than that is corrupt
+    static final int MAX_CHUNKS = 256;
+    // Generation (8 bytes) and chunk count (4 bytes)
+    private static final int CHUNK_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final byte NULL_KEY = 0;
+    private static final byte NON_NULL_KEY = 1;
+    private static final int STATELESS = -1;
+    // A block that takes this long to process is far too late to be heard anyway
+    private static final double MAX_STAGE_LATENCY_MS = 100;
+
+    private final String storeName;
+    private final Duration snapshotInterval;
+    private final BlockEffect[] effects;
+    private final boolean stateful;
+
+    public KeyedBlockEffects(BlockEffect... effects) {
+        this(null, null, effects);
+    }
+
+    public KeyedBlockEffects(String storeName, Duration snapshotInterval, BlockEffect... effects) {
+        this.storeName = storeName;
+        this.snapshotInterval = snapshotInterval;
+        this.effects = effects;
+        this.stateful = storeName != null && Arrays.stream(effects).anyMatch(KeyedBlockEffects::snapshotted);
+    }
+
+    @Override
+    public ValueTransformerWithKey<byte[], short[], short[]> get() {
+        return new Transformer();
+    }
+
+    @Override
+    public Set<StoreBuilder<?>> stores() {
+        if (!stateful)
+            return null;
+
+        StoreBuilder<KeyValueStore<Bytes, byte[]>> store = Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(storeName),
+                Serdes.Bytes(),
+                Serdes.ByteArray()
+        );
+        return Collections.singleton(store);
+    }
+
+    private class Transformer implements ValueTransformerWithKey<byte[], short[], short[]> {
+
+        private final Map<Bytes, Chain> chains = new HashMap<>();
+        private ProcessorContext context;
+        private KeyValueStore<Bytes, byte[]> store;
+        // Snapshots are copied into chunks before being written, so one buffer does for every chain
+        private ByteBuffer snapshotBuffer;
+        private AudioMetrics metrics;
+        private Sensor[] stageLatency;
+        private Sensor samplesProcessed;
+
+        @Override
+        public void init(ProcessorContext context) {
+            this.context = context;
+            initMetrics();
+            if (stateful) {
+                this.store = context.getStateStore(storeName);
+                context.schedule(snapshotInterval, PunctuationType.WALL_CLOCK_TIME, timestamp -> snapshot());
+            }
+        }
+
+        @Override
+        public short[] transform(byte[] key, short[] samples) {
+            Bytes chainKey = key != null ? Bytes.wrap(key) : null;
+            Chain chain = chains.get(chainKey);
+            if (chain == null) {
+                chain = new Chain(key, fork(key));
+                if (store != null)
+                    restore(chain);
+                chains.put(chainKey, chain);
+            }
+            chain.dirty = true;
+
+            // Usually set by the producer right after the block was captured
+            long timestamp = context != null ? context.timestamp() : -1;
+            if (metrics == null || !samplesProcessed.shouldRecord())
+                return apply(chain.effects, samples, timestamp);
+
+            // One clock read per stage boundary, so the cost doesn't grow with the block size
+            short[] result = samples;
+            long start = System.nanoTime();
+            for (int i = 0; i < chain.effects.length; i++) {
+                result = chain.effects[i].apply(result, timestamp);
+                long end = System.nanoTime();
+                stageLatency[i].record((end - start) / 1_000_000.0);
+                start = end;
+            }
+            samplesProcessed.record(samples.length);
+            return result;
+        }
+
+        @Override
+        public void close() {
+            chains.clear();
+            if (metrics != null)
+                metrics.close();
+        }
+
+        private void initMetrics() {
+            metrics = new AudioMetrics(context, storeName != null ? storeName : "effects");
+            stageLatency = new Sensor[effects.length];
+            for (int i = 0; i < effects.length; i++) {
+                stageLatency[i] = metrics.timeSensor(
+                        "process-latency",
+                        stageName(i, effects[i]),
+                        "time in ms for one effect to process a block",
+                        MAX_STAGE_LATENCY_MS
+                );
+            }
+            samplesProcessed = metrics.throughputSensor("samples", null, "samples processed");
+        }
+
+        private short[] apply(BlockEffect[] effects, short[] samples, long timestamp) {
+            short[] result = samples;
+            for (BlockEffect effect : effects) {
+                result = effect.apply(result, timestamp);
+            }
+            return result;
+        }
+
+        private BlockEffect[] fork(byte[] key) {
+            String streamId = streamId(key);
+            BlockEffect[] result = new BlockEffect[effects.length];
+            for (int i = 0; i < effects.length; i++) {
+                result[i] = effects[i].fork(streamId);
+            }
+            return result;
+        }
+
+        // Tasks (and keys) keep the same IDs across restarts, so effects can use this to find anything they left behind
+        private String streamId(byte[] key) {
+            StringBuilder result = new StringBuilder();
+            if (context != null)
+                result.append(context.taskId()).append('-');
+            if (key == null)
+                return result.append("no-key").toString();
+            result.append("key-");
+            for (byte b : key)
+                result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return result.toString();
+        }
+
+        private void snapshot() {
+            for (Chain chain : chains.values()) {
+                if (!chain.dirty)
+                    continue;
+                for (int stage = 0; stage < chain.effects.length; stage++) {
+                    BlockEffect effect = chain.effects[stage];
+                    if (!snapshotted(effect) || !((StatefulBlockEffect) effect).stateChanged())
+                        continue;
+                    int snapshotStage = stage;
+                    snapshotBuffer = serialize(effect, snapshotBuffer);
+                    chain.snapshots[stage].write(snapshotBuffer, (chunk, value) -> {
+                        if (value != null) {
+                            store.put(chain.storeKey(snapshotStage, chunk), value);
+                        } else {
+                            store.delete(chain.storeKey(snapshotStage, chunk));
+                        }
+                    });
+                }
+                chain.dirty = false;
+            }
+        }
+
+        private void restore(Chain chain) {
+            // Restored into a separate set of forks, which only replace the chain's once every stage has made it
+            // through; otherwise, a failure partway through (or even partway through a single effect) would leave
+            // the chain half-restored
+            BlockEffect[] restored = null;
+            for (int stage = 0; stage < chain.effects.length; stage++) {
+                if (!snapshotted(chain.effects[stage]))
+                    continue;
+                int snapshotStage = stage;
+                ByteBuffer snapshot = chain.snapshots[stage]
+                        .read(chunk -> store.get(chain.storeKey(snapshotStage, chunk)));
+                if (snapshot == null)
+                    continue;
+
+                if (restored == null)
+                    restored = fork(chain.key);
+                try {
+                    deserialize(new BlockEffect[] {restored[stage]}, snapshot);
+                } catch (IllegalArgumentException | BufferUnderflowException e) {
+                    // Probably saved before the effects were reconfigured; better to start from silence than to crash
+                    log.warn("Failed to restore effect state; starting from scratch instead", e);
+                    return;
+                }
+            }
+            if (restored != null)
+                chain.effects = restored;
+        }
+    }
+
+    private static boolean snapshotted(BlockEffect effect) {
+        return effect instanceof StatefulBlockEffect && ((StatefulBlockEffect) effect).snapshotted();
+    }
+
+    static ByteBuffer serialize(BlockEffect[] effects) {
+        return serialize(effects, null);
+    }
+
+    // The same layout, for a single effect
+    private static ByteBuffer serialize(BlockEffect effect, ByteBuffer reuse) {
+        int size = Integer.BYTES + ((StatefulBlockEffect) effect).stateSize();
+        ByteBuffer result = reuse != null && reuse.capacity() >= size ? reuse : ByteBuffer.allocate(size);
+        result.clear();
+        result.putInt(size - Integer.BYTES);
+        ((StatefulBlockEffect) effect).saveState(result);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Layout: [state size or -1 for stateless effects][state]...
+     * @param reuse a buffer left over from a previous snapshot, which is reused if it's big enough; may be null
+     * @return the snapshot, ready to be read from
+     */
+    static ByteBuffer serialize(BlockEffect[] effects, ByteBuffer reuse) {
+        int size = 0;
+        for (BlockEffect effect : effects) {
+            size += Integer.BYTES;
+            if (snapshotted(effect))
+                size += ((StatefulBlockEffect) effect).stateSize();
+        }
+
+        ByteBuffer result = reuse != null && reuse.capacity() >= size ? reuse : ByteBuffer.allocate(size);
+        result.clear();
+        for (BlockEffect effect : effects) {
+            if (snapshotted(effect)) {
+                StatefulBlockEffect statefulEffect = (StatefulBlockEffect) effect;
+                result.putInt(statefulEffect.stateSize());
+                statefulEffect.saveState(result);
+            } else {
+                result.putInt(STATELESS);
+            }
+        }
+        result.flip();
+        return result;
+    }
+
+    static void deserialize(BlockEffect[] effects, ByteBuffer snapshot) {
+        for (BlockEffect effect : effects) {
+            int size = snapshot.getInt();
+            if (size == STATELESS)
+                continue;
+            if (size < 0 || size > snapshot.remaining())
+                throw new IllegalArgumentException("Invalid effect state size " + size);
+
+            int end = snapshot.position() + size;
+            if (snapshotted(effect)) {
+                ByteBuffer state = snapshot.duplicate();
+                state.limit(end);
+                ((StatefulBlockEffect) effect).restoreState(state);
+            }
+            snapshot.position(end);
+        }
+    }
+
+    // The index keeps stages apart when the same kind of effect shows up more than once in a chain
+    static String stageName(int index, BlockEffect effect) {
+        String name = effect.getClass().getSimpleName();
+        // Lambdas and anonymous classes
+        if (name.isEmpty() || name.contains("$"))
+            name = "effect";
+        return index + "-" + name;
+    }
+
+    /**
+     * Splits snapshots into chunks (and puts them back together) for a single effect in a single chain. Each chunk leads with the
+     * generation of the snapshot it belongs to and the total number of chunks in that snapshot.
+     */
+    static class SnapshotChunks {
+        private final CRC32 checksum = new CRC32();
+        private long generation = 0;
+        private int chunks = 0;
+        private long lastChecksum = -1;
+
+        /**
+         * @param store called once per chunk to write, and with a null value for every leftover chunk to delete
+         * @return false if the snapshot was skipped, because it's the same as the last one
+         */
+        public boolean write(ByteBuffer snapshot, BiConsumer<Integer, byte[]> store) {
+            checksum.reset();
+            checksum.update(snapshot.duplicate());
+            if (chunks > 0 && checksum.getValue() == lastChecksum)
+                return false;
+
+            int size = snapshot.remaining();
+            int newChunks = Math.max(1, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+            if (newChunks > MAX_CHUNKS) {
+                log.warn("Effect state is too large to snapshot ({} bytes); skipping", size);
+                return false;
+            }
+
+            generation++;
+            ByteBuffer source = snapshot.duplicate();
+            for (int chunk = 0; chunk < newChunks; chunk++) {
+                int length = Math.min(MAX_CHUNK_SIZE, source.remaining());
+                ByteBuffer value = ByteBuffer.allocate(CHUNK_HEADER_SIZE + length)
+                        .putLong(generation)
+                        .putInt(newChunks);
+                ByteBuffer payload = source.duplicate();
+                payload.limit(payload.position() + length);
+                value.put(payload);
+                source.position(source.position() + length);
+                store.accept(chunk, value.array());
+            }
+            // Clean up after any larger snapshots that came before
+            for (int chunk = newChunks; chunk < chunks; chunk++)
+                store.accept(chunk, null);
+
+            chunks = newChunks;
+            lastChecksum = checksum.getValue();
+            return true;
+        }
+
+        /**
+         * @return the most recent complete snapshot, or null if there isn't one
+         */
+        public ByteBuffer read(IntFunction<byte[]> store) {
+            byte[] firstChunk = store.apply(0);
+            if (firstChunk == null)
+                return null;
+            if (firstChunk.length < CHUNK_HEADER_SIZE) {
+                log.warn("Malformed effect state; starting from scratch instead");
+                return null;
+            }
+
+            ByteBuffer header = ByteBuffer.wrap(firstChunk);
+            long firstGeneration = header.getLong();
+            int totalChunks = header.getInt();
+            if (totalChunks < 1 || totalChunks > MAX_CHUNKS) {
+                log.warn("Invalid chunk count {} for effect state; starting from scratch instead", totalChunks);
+                return null;
+            }
+            // Whatever's there now has to be cleaned up by the next snapshot, even if it can't be restored
+            this.generation = firstGeneration;
+            this.chunks = totalChunks;
+
+            byte[][] allChunks = new byte[totalChunks][];
+            allChunks[0] = firstChunk;
+            int size = firstChunk.length - CHUNK_HEADER_SIZE;
+            for (int chunk = 1; chunk < totalChunks; chunk++) {
+                byte[] nextChunk = store.apply(chunk);
+                if (nextChunk == null) {
+                    log.warn("Missing chunk {} of {} for effect state; starting from scratch instead", chunk, totalChunks);
+                    return null;
+                }
+                header = ByteBuffer.wrap(nextChunk);
+                if (nextChunk.length < CHUNK_HEADER_SIZE
+                        || header.getLong() != firstGeneration
+                        || header.getInt() != totalChunks) {
+                    // Most likely a crash partway through writing a snapshot
+                    log.warn("Chunk {} of {} for effect state is from a different snapshot; "
+                            + "starting from scratch instead", chunk, totalChunks);
+                    return null;
+                }
+                allChunks[chunk] = nextChunk;
+                size += nextChunk.length - CHUNK_HEADER_SIZE;
+            }
+
+            ByteBuffer result = ByteBuffer.allocate(size);
+            for (byte[] chunk : allChunks)
+                result.put(chunk, CHUNK_HEADER_SIZE, chunk.length - CHUNK_HEADER_SIZE);
+            result.flip();
+            return result;
+        }
+    }
+
+    private static class Chain {
+        private final byte[] key;
+        private final byte[] storeKeyPrefix;
+        private BlockEffect[] effects;
+        // One for each snapshotted effect, by stage
+        private final SnapshotChunks[] snapshots;
+        private boolean dirty;
+
+        public Chain(byte[] key, BlockEffect[] effects) {
+            this.key = key;
+            // Distinguish null keys from empty ones
+            if (key == null) {
+                this.storeKeyPrefix = new byte[] {NULL_KEY};
+            } else {
+                this.storeKeyPrefix = new byte[key.length + 1];
+                storeKeyPrefix[0] = NON_NULL_KEY;
+                System.arraycopy(key, 0, storeKeyPrefix, 1, key.length);
+            }
+            this.effects = effects;
+            this.snapshots = new SnapshotChunks[effects.length];
+            for (int stage = 0; stage < effects.length; stage++) {
+                if (snapshotted(effects[stage]))
+                    snapshots[stage] = new SnapshotChunks();
+            }
+            this.dirty = false;
+        }
+
+        public Bytes storeKey(int stage, int chunk) {
+            return Bytes.wrap(ByteBuffer.allocate(storeKeyPrefix.length + 2 * Integer.BYTES)
+                    .put(storeKeyPrefix)
+                    .putInt(stage)
+                    .putInt(chunk)
+                    .array());
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import io.github.c0urante.kafka.sound.demo.pitch.NoteTracker;
+import io.github.c0urante.kafka.sound.demo.pitch.PitchDetector;
+import io.github.c0urante.kafka.sound.demo.pitch.PitchEvent;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.kstream.ValueTransformerWithKey;
+import org.apache.kafka.streams.kstream.ValueTransformerWithKeySupplier;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks notes with a separate {@link NoteTracker} (and {@link PitchDetector#fork() fork} of the pitch detector)
+ * for every key, within each stream task, the same way {@link KeyedBlockEffects} keeps separate effects. Pitch
+ * detectors keep a window of recent samples and note trackers keep track of where they are in the stream, so
+ * neither can be shared between keys (or threads) without mixing up everyone's audio.
+ * <p>
+ * Records without a key all share the same tracker (per task).
+ */
+class KeyedNoteTrackers implements ValueTransformerWithKeySupplier<byte[], short[], Iterable<PitchEvent>> {
+
+    private final PitchDetector pitchDetector;
+
+    public KeyedNoteTrackers(PitchDetector pitchDetector) {
+        this.pitchDetector = pitchDetector;
+    }
+
+    @Override
+    public ValueTransformerWithKey<byte[], short[], Iterable<PitchEvent>> get() {
+        return new ValueTransformerWithKey<byte[], short[], Iterable<PitchEvent>>() {
+            private final Map<Bytes, NoteTracker> noteTrackers = new HashMap<>();
+
+            @Override
+            public void init(ProcessorContext context) {
+            }
+
+            @Override
+            public Iterable<PitchEvent> transform(byte[] key, short[] samples) {
+                return noteTrackers
+                        .computeIfAbsent(key != null ? Bytes.wrap(key) : null, k -> new NoteTracker(pitchDetector.fork()))
+                        .apply(samples);
+            }
+
+            @Override
+            public void close() {
+                noteTrackers.clear();
+            }
+        };
+    }
+
+}
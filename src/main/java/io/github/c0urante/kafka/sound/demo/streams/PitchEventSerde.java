@@ -0,0 +1,95 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import io.github.c0urante.kafka.sound.demo.pitch.PitchEvent;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serde for {@link PitchEvent pitch events}, in a fixed-size (big-endian) binary format:
+ * event type (1 byte, 0 for note-on and 1 for note-off), MIDI note (1 byte), sample offset (8 bytes),
+ * frequency in Hz (4-byte float), cents (4-byte float), and probability (4-byte float).
+ * That's 22 bytes per event, and there are only ever two events per note.
+ */
+public class PitchEventSerde implements Serde<PitchEvent> {
+
+    static final int SERIALIZED_SIZE = 22;
+    private static final PitchEvent.Type[] TYPES = PitchEvent.Type.values();
+
+    @Override
+    public Serializer<PitchEvent> serializer() {
+        return new PitchEventSerializer();
+    }
+
+    @Override
+    public Deserializer<PitchEvent> deserializer() {
+        return new PitchEventDeserializer();
+    }
+
+    public static class PitchEventSerializer implements Serializer<PitchEvent> {
+
+        @Override
+        public byte[] serialize(String topic, PitchEvent event) {
+            if (event == null)
+                return null;
+
+            return ByteBuffer.allocate(SERIALIZED_SIZE)
+                    .put((byte) event.type.ordinal())
+                    .put((byte) event.midiNote)
+                    .putLong(event.sampleOffset)
+                    .putFloat(event.frequency)
+                    .putFloat(event.cents)
+                    .putFloat(event.probability)
+                    .array();
+        }
+
+    }
+
+    public static class PitchEventDeserializer implements Deserializer<PitchEvent> {
+
+        @Override
+        public PitchEvent deserialize(String topic, byte[] serialized) {
+            if (serialized == null)
+                return null;
+            if (serialized.length != SERIALIZED_SIZE)
+                throw new SerializationException("Pitch events must be exactly " + SERIALIZED_SIZE + " bytes long");
+
+            ByteBuffer buffer = ByteBuffer.wrap(serialized);
+            int type = buffer.get();
+            if (type < 0 || type >= TYPES.length)
+                throw new SerializationException("Unknown pitch event type " + type);
+            // MIDI notes only go up to 127, but there's no reason to choke on anything up to 255
+            int midiNote = buffer.get() & 0xFF;
+            return new PitchEvent(
+                    TYPES[type],
+                    buffer.getLong(),
+                    midiNote,
+                    buffer.getFloat(),
+                    buffer.getFloat(),
+                    buffer.getFloat()
+            );
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
+import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Serde for blocks of PCM16 samples. Serialized records carry the {@link AudioFormats audio format}
+ * in a header so that consumers can tell what they're reading; records without that header (such as the
+ * ones written by the microphone source connector) are assumed to use the default format.
+ */
+public class SampleBlockSerde implements Serde<short[]> {
+
+    public static final String FORMAT_HEADER = "audio.format";
+
+    // Sample rate (4 bytes), sample size in bits (1 byte), channel count (1 byte), big-endian flag (1 byte)
+    private static final int FORMAT_HEADER_SIZE = 7;
+    private static final byte[] DEFAULT_FORMAT = encodeFormat(
+            AudioFormats.SAMPLE_RATE,
+            AudioFormats.SAMPLE_SIZE,
+            AudioFormats.CHANNELS_COUNT,
+            AudioFormats.BIG_ENDIAN
+    );
+
+    @Override
+    public Serializer<short[]> serializer() {
+        return new SampleBlockSerializer();
+    }
+
+    @Override
+    public Deserializer<short[]> deserializer() {
+        return new SampleBlockDeserializer();
+    }
+
+    public static class SampleBlockSerializer implements Serializer<short[]> {
+
+        // The producer copies serialized values into its own buffers before send() returns, so
+        // we can safely reuse the same array for every record (per thread, since Kafka Streams
+        // shares serializer instances across stream threads) as long as the block size stays the same
+        private final ThreadLocal<byte[]> buffer = ThreadLocal.withInitial(() -> new byte[0]);
+
+        @Override
+        public byte[] serialize(String topic, short[] samples) {
+            if (samples == null)
+                return null;
+
+            byte[] result = buffer.get();
+            if (result.length != samples.length * 2) {
+                result = new byte[samples.length * 2];
+                buffer.set(result);
+            }
+            return SampleUtils.encodeSamplesInto(samples, result);
+        }
+
+        @Override
+        public byte[] serialize(String topic, Headers headers, short[] samples) {
+            if (headers != null) {
+                // Kafka Streams forwards the headers of input records, which may already include one of these
+                headers.remove(FORMAT_HEADER);
+                headers.add(FORMAT_HEADER, DEFAULT_FORMAT);
+            }
+            return serialize(topic, samples);
+        }
+
+    }
+
+    public static class SampleBlockDeserializer implements Deserializer<short[]> {
+
+        @Override
+        public short[] deserialize(String topic, byte[] encodedSamples) {
+            if (encodedSamples == null)
+                return null;
+
+            return decode(encodedSamples, AudioFormats.BIG_ENDIAN);
+        }
+
+        @Override
+        public short[] deserialize(String topic, Headers headers, byte[] encodedSamples) {
+            if (encodedSamples == null)
+                return null;
+
+            Header format = headers != null ? headers.lastHeader(FORMAT_HEADER) : null;
+            if (format == null)
+                return deserialize(topic, encodedSamples);
+
+            return decode(encodedSamples, readBigEndian(format.value()));
+        }
+
+        private static short[] decode(byte[] encodedSamples, boolean bigEndian) {
+            if (encodedSamples.length % 2 != 0)
+                throw new SerializationException("Encoded sample array must have exactly two bytes per sample");
+
+            // Kafka Streams hands each deserialized value to the rest of the topology, which may hold on to it
+            // or modify it in place, so this is the one copy per record that we can't avoid
+            short[] result = new short[encodedSamples.length / 2];
+            if (bigEndian) {
+                ByteBuffer.wrap(encodedSamples).order(ByteOrder.BIG_ENDIAN).asShortBuffer().get(result);
+            } else {
+                SampleUtils.decodeSamplesInto(encodedSamples, result);
+            }
+            return result;
+        }
+
+    }
+
+    static byte[] encodeFormat(int sampleRate, int sampleSize, int channels, boolean bigEndian) {
+        return ByteBuffer.allocate(FORMAT_HEADER_SIZE)
+                .putInt(sampleRate)
+                .put((byte) sampleSize)
+                .put((byte) channels)
+                .put((byte) (bigEndian ? 1 : 0))
+                .array();
+    }
+
+    // Validate everything about the format, but only return the one property that we can actually accommodate
+    private static boolean readBigEndian(byte[] format) {
+        if (format == null || format.length != FORMAT_HEADER_SIZE)
+            throw new SerializationException("Malformed " + FORMAT_HEADER + " header");
+
+        ByteBuffer buffer = ByteBuffer.wrap(format);
+        int sampleRate = buffer.getInt();
+        int sampleSize = buffer.get();
+        int channels = buffer.get();
+        boolean bigEndian = buffer.get() != 0;
+
+        if (sampleRate != AudioFormats.SAMPLE_RATE
+                || sampleSize != AudioFormats.SAMPLE_SIZE
+                || channels != AudioFormats.CHANNELS_COUNT) {
+            throw new SerializationException(String.format(
+                    "Unsupported audio format (sample rate %d, sample size %d, channels %d); "
+                            + "only %d Hz, %d-bit, %d-channel audio is supported",
+                    sampleRate, sampleSize, channels,
+                    AudioFormats.SAMPLE_RATE, AudioFormats.SAMPLE_SIZE, AudioFormats.CHANNELS_COUNT
+            ));
+        }
+
+        return bigEndian;
+    }
+
+}
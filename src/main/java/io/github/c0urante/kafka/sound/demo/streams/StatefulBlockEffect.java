@@ -0,0 +1,59 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link BlockEffect} whose audio state (delay lines, buffered samples, recorded loops, etc.) can be
+ * snapshotted into a state store, so that it survives restarts and rebalances.
+ * <p>
+ * Only the audio state is saved; controls belong to whoever is driving the effect.
+ */
+public interface StatefulBlockEffect extends BlockEffect {
+
+    /**
+     * @return the number of bytes that {@link #saveState(ByteBuffer)} will write, if invoked right now
+     */
+    int stateSize();
+
+    void saveState(ByteBuffer destination);
+
+    /**
+     * @throws IllegalArgumentException if the state isn't compatible with this instance (e.g., because
+     * it was saved by an instance with a different configuration)
+     */
+    void restoreState(ByteBuffer source);
+
+    /**
+     * @return whether the state has changed since it was last {@link #saveState(ByteBuffer) saved}; effects whose
+     * state is big, but only changes now and then, can use this to skip snapshots that wouldn't change anything
+     */
+    default boolean stateChanged() {
+        return true;
+    }
+
+    /**
+     * @return whether the state should be periodically snapshotted into a state store; effects that
+     * persist their own state some other way should opt out
+     */
+    default boolean snapshotted() {
+        return true;
+    }
+
+}
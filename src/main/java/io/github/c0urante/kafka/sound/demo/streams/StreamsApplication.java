@@ -17,16 +17,21 @@
  */
 package io.github.c0urante.kafka.sound.demo.streams;
 
+import io.github.c0urante.kafka.sound.demo.pitch.PitchDetector;
+import io.github.c0urante.kafka.sound.demo.pitch.PitchEvent;
 import io.github.c0urante.kafka.sound.demo.util.CliUtils;
 import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.KafkaStreams;
 import org.apache.kafka.streams.StreamsBuilder;
 import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.kstream.Consumed;
 import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.kstream.Produced;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -38,11 +43,14 @@ public abstract class StreamsApplication {
     private static final Logger log = LoggerFactory.getLogger(StreamsApplication.class);
 
     private final String applicationId;
+    private final SampleBlockSerde sampleBlockSerde;
     private final ApplicationConfig appConfig;
     private final StreamsConfig streamsConfig;
+    private int effectStores;
 
     protected StreamsApplication(String applicationId, String[] args) {
         this.applicationId = applicationId;
+        this.sampleBlockSerde = new SampleBlockSerde();
 
         Properties userProps = CliUtils.readProps(args);
         this.appConfig = new ApplicationConfig(userProps);
@@ -55,8 +63,11 @@ public abstract class StreamsApplication {
 
     public void start() {
         StreamsBuilder builder = new StreamsBuilder();
-        KStream<byte[], byte[]> encodedSamplesStream = builder.stream(appConfig.inputTopic());
-        defineTopology(encodedSamplesStream);
+        KStream<byte[], short[]> sampleBlocksStream = builder.stream(
+                appConfig.inputTopic(),
+                Consumed.with(Serdes.ByteArray(), sampleBlockSerde)
+        );
+        defineTopology(sampleBlocksStream);
 
         KafkaStreams streams = new KafkaStreams(builder.build(), streamsConfig);
         streams.setUncaughtExceptionHandler(StreamsApplication::handleError);
@@ -70,14 +81,21 @@ public abstract class StreamsApplication {
         streams.start();
     }
 
-    protected abstract void defineTopology(KStream<byte[], byte[]> encodedSamplesStream);
+    /**
+     * @return the application-specific settings (topics, which effects to use, etc.) from the config file
+     */
+    protected ApplicationConfig config() {
+        return appConfig;
+    }
+
+    protected abstract void defineTopology(KStream<byte[], short[]> sampleBlocksStream);
 
     private Map<String, Object> baseStreamsConfig() {
         Map<String, Object> result = new HashMap<>();
 
         result.put(StreamsConfig.APPLICATION_ID_CONFIG, applicationId);
         result.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, Serdes.ByteArraySerde.class);
-        result.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, Serdes.ByteArraySerde.class);
+        result.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, SampleBlockSerde.class);
 
         return result;
     }
@@ -87,16 +105,74 @@ public abstract class StreamsApplication {
         return StreamThreadExceptionResponse.SHUTDOWN_APPLICATION;
     }
 
-    protected <K> KStream<K, Short> samples(KStream<K, byte[]> encodedSamplesStream) {
-        return encodedSamplesStream
-                .flatMapValues(SampleUtils::decodeSamples);
+    protected <K> KStream<K, Short> samples(KStream<K, short[]> sampleBlocksStream) {
+        return sampleBlocksStream
+                .flatMapValues(SampleUtils::toList);
     }
 
-    protected void publishProcessedSamples(KStream<?, Short> samplesStream) {
-        KStream<?, byte[]> encodedSamplesStream = samplesStream
+    protected void publishProcessedSamples(KStream<byte[], Short> samplesStream) {
+        KStream<byte[], short[]> sampleBlocksStream = samplesStream
                 .mapValues(new Grouping<>(appConfig.outputValueSize()))
-                .mapValues(SampleUtils::encodeSamples);
-        encodedSamplesStream.to(appConfig.outputTopic());
+                .mapValues(SampleUtils::toShorts);
+        publishProcessedSampleBlocks(sampleBlocksStream);
+    }
+
+    // Block-oriented alternatives to the above; each record carries an entire block of samples
+    // from start to finish, instead of being exploded into one record per sample and then regrouped.
+    // This cuts out almost all of the per-record overhead of Kafka Streams (and all of the boxing).
+
+    /**
+     * Run the given effects on every block, in order. Each stream task gets its own copy of every effect
+     * for each key it sees, so keyed input (e.g., one musician or channel per key) spread across several
+     * partitions can be processed in parallel by as many stream threads as there are partitions.
+     * <p>
+     * The state of {@link StatefulBlockEffect stateful effects} is periodically snapshotted into a state store,
+     * so that it can be recovered from the store's changelog after a restart or rebalance.
+     */
+    protected KStream<byte[], short[]> process(KStream<byte[], short[]> sampleBlocksStream, BlockEffect... effects) {
+        // Only used if at least one of the effects is stateful
+        String storeName = "effect-state-" + effectStores++;
+        Duration snapshotInterval = Duration.ofMillis(appConfig.stateSnapshotIntervalMs());
+        return sampleBlocksStream.transformValues(new KeyedBlockEffects(storeName, snapshotInterval, effects));
+    }
+
+    /**
+     * Detect notes in every block, and turn them into note-on and note-off events. Like with {@link #process effects},
+     * each stream task gets its own {@link PitchDetector#fork() fork} of the pitch detector for each key it sees.
+     */
+    protected KStream<byte[], PitchEvent> detectNotes(
+            KStream<byte[], short[]> sampleBlocksStream,
+            PitchDetector pitchDetector
+    ) {
+        return sampleBlocksStream.flatTransformValues(new KeyedNoteTrackers(pitchDetector));
+    }
+
+    /**
+     * Write processed blocks to the output topic. Blocks are written as-is, which preserves
+     * the framing of the input topic; the {@link ApplicationConfig#OUTPUT_VALUE_SIZE_CONFIG output value size}
+     * is only used for per-sample topologies.
+     * <p>
+     * The end-to-end latency of every block (from when it was produced to the input topic to when it's
+     * about to be produced to the output topic) is recorded on the way out; see {@link EndToEndLatency}.
+     */
+    protected void publishProcessedSampleBlocks(KStream<byte[], short[]> sampleBlocksStream) {
+        sampleBlocksStream
+                .transformValues(new EndToEndLatency())
+                .to(appConfig.outputTopic(), Produced.with(Serdes.ByteArray(), sampleBlockSerde));
+    }
+
+    /**
+     * Write pitch events to the {@link ApplicationConfig#PITCH_EVENTS_TOPIC_CONFIG pitch events topic}, if one is
+     * configured. Events are small and rare (two per note) compared to raw audio, which makes them a lot cheaper
+     * to consume for things like tuning analysis or MIDI conversion.
+     */
+    protected void publishPitchEvents(KStream<byte[], PitchEvent> pitchEventsStream) {
+        String topic = appConfig.pitchEventsTopic();
+        if (topic == null) {
+            log.info("No pitch events topic configured; pitch events will not be published");
+            return;
+        }
+        pitchEventsStream.to(topic, Produced.with(Serdes.ByteArray(), new PitchEventSerde()));
     }
 
 }
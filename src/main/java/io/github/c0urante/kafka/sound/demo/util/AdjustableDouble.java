@@ -17,14 +17,33 @@
  */
 package io.github.c0urante.kafka.sound.demo.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.DoubleUnaryOperator;
 
+/**
+ * A smoothed parameter, adjusted by control threads (pedals, UIs, etc.) and read by a single audio thread.
+ * <p>
+ * Nothing here takes a lock. Control threads publish immutable {@link Target targets} through an atomic
+ * reference, and the audio thread picks up the latest one the next time it calls {@link #next()},
+ * {@link #advance(int)}, or {@link #ramp(double[], int)}. All of the smoothing state is owned by the audio
+ * thread, so at most one thread at a time should be invoking those three methods. If the same parameter needs to
+ * drive more than one audio thread, give each of them its own {@link #follower() follower}.
+ */
 public class AdjustableDouble {
 
     private final double min;
     private final double max;
 
-    private volatile double currentValue;
+    // Written by control threads, read by the audio thread
+    private final AtomicReference<Target> target;
+    // Written by the audio thread (and, for immediate adjustments, control threads); read by anyone
+    private final AtomicLong published;
+
+    // Owned by the audio thread
+    private Target appliedTarget;
+    private long appliedJump;
+    private double currentValue;
     private double goalValue;
     private double delta;
 
@@ -35,52 +54,175 @@ public class AdjustableDouble {
         this.min = min;
         this.max = max;
 
-        setNow(initialValue);
+        Target initialTarget = new Target(initialValue, 0, initialValue, 0);
+        this.target = new AtomicReference<>(initialTarget);
+        this.published = new AtomicLong(Double.doubleToRawLongBits(initialValue));
+
+        this.appliedTarget = initialTarget;
+        this.appliedJump = 0;
+        this.currentValue = initialValue;
+        this.goalValue = initialValue;
+        this.delta = 0;
     }
 
-    public synchronized void setNow(double value) {
-        currentValue = value;
-        goalValue = value;
-        delta = 0;
+    private AdjustableDouble(AdjustableDouble leader) {
+        this.min = leader.min;
+        this.max = leader.max;
+        this.target = leader.target;
+        this.published = leader.published;
+
+        // Start wherever the leader last was, and pick up any ramp it's in the middle of on the first read
+        Target latest = target.get();
+        this.appliedTarget = null;
+        this.appliedJump = latest.jump;
+        this.currentValue = current();
+        this.goalValue = currentValue;
+        this.delta = 0;
     }
 
-    public synchronized double adjustNow(DoubleUnaryOperator adjustment) {
-        currentValue = boundValue(adjustment.applyAsDouble(goalValue));
-        goalValue = currentValue;
-        delta = 0;
+    /**
+     * Create another view of this value that's controlled by the same targets, but keeps its own smoothing state,
+     * so that it can be read by a different audio thread than this one.
+     */
+    public AdjustableDouble follower() {
+        return new AdjustableDouble(this);
+    }
 
-        return currentValue;
+    public void setNow(double value) {
+        Target previous;
+        do {
+            previous = target.get();
+        } while (!target.compareAndSet(previous, previous.jumpTo(value)));
+        published.lazySet(Double.doubleToRawLongBits(value));
+    }
+
+    public double adjustNow(DoubleUnaryOperator adjustment) {
+        Target previous;
+        double value;
+        do {
+            previous = target.get();
+            value = boundValue(adjustment.applyAsDouble(previous.goal));
+        } while (!target.compareAndSet(previous, previous.jumpTo(value)));
+        published.lazySet(Double.doubleToRawLongBits(value));
+
+        return value;
+    }
+
+    public double setDelayed(double value, int delay) {
+        checkDelay(delay);
+
+        double goal = boundValue(value);
+        Target previous;
+        do {
+            previous = target.get();
+        } while (!target.compareAndSet(previous, previous.rampTo(goal, delay)));
+
+        return goal;
     }
 
-    public synchronized double setDelayed(double value, int delay) {
+    public double adjustDelayed(DoubleUnaryOperator adjustment, int delay) {
         checkDelay(delay);
 
-        this.goalValue = boundValue(value);
-        this.delta = (goalValue - currentValue) / delay;
+        Target previous;
+        double goal;
+        do {
+            previous = target.get();
+            goal = boundValue(adjustment.applyAsDouble(previous.goal));
+        } while (!target.compareAndSet(previous, previous.rampTo(goal, delay)));
 
-        return goalValue;
+        return goal;
     }
 
-    public synchronized double adjustDelayed(DoubleUnaryOperator adjustment, int delay) {
-        double proposedValue = adjustment.applyAsDouble(goalValue);
-        return setDelayed(proposedValue, delay);
+    /**
+     * @return the value most recently used by the audio thread, or set immediately by a control thread;
+     * safe to call from any thread
+     */
+    public double current() {
+        return Double.longBitsToDouble(published.get());
+    }
+
+    public double next() {
+        pickUpTarget();
+        step();
+        publish();
+        return currentValue;
+    }
+
+    /**
+     * Equivalent to invoking {@link #next()} {@code steps} times, but in constant time.
+     */
+    public double advance(int steps) {
+        if (steps <= 0)
+            throw new IllegalArgumentException("Invalid step count " + steps + ": must be positive");
+
+        pickUpTarget();
+        if (delta != 0) {
+            double remaining = goalValue - currentValue;
+            if (Math.abs(remaining) <= Math.abs(delta * steps)) {
+                currentValue = goalValue;
+                delta = 0;
+            } else {
+                currentValue += delta * steps;
+            }
+        }
+        publish();
+        return currentValue;
     }
 
-    public synchronized double current() {
+    /**
+     * Fill the first {@code length} elements of {@code destination} with the values that would be returned
+     * by invoking {@link #next()} {@code length} times.
+     * @return the last value written to the destination
+     */
+    public double ramp(double[] destination, int length) {
+        if (length <= 0)
+            throw new IllegalArgumentException("Invalid ramp length " + length + ": must be positive");
+        if (destination.length < length)
+            throw new IllegalArgumentException("Destination array is too short for ramp of length " + length);
+
+        pickUpTarget();
+        int i = 0;
+        while (delta != 0 && i < length) {
+            step();
+            destination[i++] = currentValue;
+        }
+        // Once we've arrived, it's the same value the rest of the way
+        for (; i < length; i++) {
+            destination[i] = currentValue;
+        }
+        publish();
         return currentValue;
     }
 
-    public synchronized double next() {
+    private void pickUpTarget() {
+        Target latest = target.get();
+        if (latest == appliedTarget)
+            return;
+
+        if (latest.jump != appliedJump) {
+            currentValue = latest.jumpValue;
+            appliedJump = latest.jump;
+        }
+        goalValue = latest.goal;
+        delta = latest.delay > 0 ? (goalValue - currentValue) / latest.delay : 0;
+        if (delta == 0)
+            currentValue = goalValue;
+        appliedTarget = latest;
+    }
+
+    private void step() {
         if (delta != 0) {
             currentValue += delta;
             double remaining = Math.abs(currentValue - goalValue);
-            if (Math.abs(remaining) < Math.abs(delta)) {
+            if (remaining < Math.abs(delta)) {
                 currentValue = goalValue;
-                goalValue = currentValue;
                 delta = 0;
             }
         }
-        return currentValue;
+    }
+
+    private void publish() {
+        published.lazySet(Double.doubleToRawLongBits(currentValue));
     }
 
     private double boundValue(double value) {
@@ -98,4 +240,31 @@ public class AdjustableDouble {
             throw new IllegalArgumentException("Invalid delay " + delay + ": must be positive");
     }
 
+    /**
+     * An immutable request from a control thread. Immediate adjustments are recorded as a numbered jump
+     * that's carried forward by later targets, so that a jump followed quickly by a ramp (before the audio
+     * thread has had a chance to see the jump) still starts the ramp from the right place.
+     */
+    private static class Target {
+        private final double goal;
+        private final int delay;
+        private final double jumpValue;
+        private final long jump;
+
+        private Target(double goal, int delay, double jumpValue, long jump) {
+            this.goal = goal;
+            this.delay = delay;
+            this.jumpValue = jumpValue;
+            this.jump = jump;
+        }
+
+        private Target jumpTo(double value) {
+            return new Target(value, 0, value, jump + 1);
+        }
+
+        private Target rampTo(double goal, int delay) {
+            return new Target(goal, delay, jumpValue, jump);
+        }
+    }
+
 }
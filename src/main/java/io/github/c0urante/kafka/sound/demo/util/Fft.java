@@ -0,0 +1,111 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+/**
+ * An in-place, iterative radix-2 FFT over separate real and imaginary arrays. Twiddle factors and the
+ * bit-reversal permutation are computed once up front, so transforms don't allocate anything.
+ * Instances are immutable, and can be shared freely between threads.
+ */
+public class Fft {
+
+    private final int size;
+    private final double[] cos;
+    private final double[] sin;
+    private final int[] reversed;
+
+    /**
+     * @param size the number of points in the transform; must be a power of two
+     */
+    public Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("Invalid FFT size " + size + ": must be a power of two no less than 2");
+        this.size = size;
+        this.cos = new double[size / 2];
+        this.sin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            double angle = -2 * Math.PI * i / size;
+            cos[i] = Math.cos(angle);
+            sin[i] = Math.sin(angle);
+        }
+        this.reversed = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++)
+            reversed[i] = Integer.reverse(i) >>> (Integer.SIZE - bits);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Replace the contents of the given arrays with their (unscaled) discrete Fourier transform.
+     */
+    public void forward(double[] real, double[] imaginary) {
+        transform(real, imaginary, 1);
+    }
+
+    /**
+     * The inverse of {@link #forward(double[], double[])}, including the 1/N scaling.
+     */
+    public void inverse(double[] real, double[] imaginary) {
+        transform(real, imaginary, -1);
+        double scale = 1.0 / size;
+        for (int i = 0; i < size; i++) {
+            real[i] *= scale;
+            imaginary[i] *= scale;
+        }
+    }
+
+    private void transform(double[] real, double[] imaginary, int direction) {
+        if (real.length < size || imaginary.length < size)
+            throw new IllegalArgumentException("Arrays must have room for at least " + size + " points");
+
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                double swap = real[i];
+                real[i] = real[j];
+                real[j] = swap;
+                swap = imaginary[i];
+                imaginary[i] = imaginary[j];
+                imaginary[j] = swap;
+            }
+        }
+
+        for (int half = 1; half < size; half *= 2) {
+            int stride = size / (half * 2);
+            for (int start = 0; start < size; start += half * 2) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * stride];
+                    // Conjugate twiddles give us the inverse transform
+                    double wi = sin[k * stride] * direction;
+                    int even = start + k;
+                    int odd = even + half;
+                    double oddReal = real[odd] * wr - imaginary[odd] * wi;
+                    double oddImaginary = real[odd] * wi + imaginary[odd] * wr;
+                    real[odd] = real[even] - oddReal;
+                    imaginary[odd] = imaginary[even] - oddImaginary;
+                    real[even] += oddReal;
+                    imaginary[even] += oddImaginary;
+                }
+            }
+        }
+    }
+
+}
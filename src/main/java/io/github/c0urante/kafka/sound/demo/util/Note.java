@@ -0,0 +1,68 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+/**
+ * A note in 12TET, identified by its MIDI note number. There's exactly one instance per note,
+ * all created up front, so looking one up never allocates anything.
+ */
+public final class Note {
+
+    // Well past both ends of the MIDI range (and of human hearing)
+    static final int MIN_MIDI_NOTE = -128;
+    static final int MAX_MIDI_NOTE = 255;
+
+    private static final String[] NAMES = new String[] {
+            "C", "C#", "D", "Eb", "E", "F", "F#", "G", "G#", "A", "Bb", "B"
+    };
+    private static final Note[] NOTES = new Note[MAX_MIDI_NOTE - MIN_MIDI_NOTE + 1];
+    static {
+        for (int midiNote = MIN_MIDI_NOTE; midiNote <= MAX_MIDI_NOTE; midiNote++)
+            NOTES[midiNote - MIN_MIDI_NOTE] = new Note(midiNote);
+    }
+
+    public final int midiNote;
+    /**
+     * The pitch class, without the octave (e.g., "C#")
+     */
+    public final String name;
+    /**
+     * In scientific pitch notation, where middle C is C4
+     */
+    public final int octave;
+    private final String fullName;
+
+    private Note(int midiNote) {
+        this.midiNote = midiNote;
+        this.name = NAMES[Math.floorMod(midiNote, NAMES.length)];
+        this.octave = Math.floorDiv(midiNote, NAMES.length) - 1;
+        this.fullName = name + octave;
+    }
+
+    public static Note of(int midiNote) {
+        if (midiNote < MIN_MIDI_NOTE || midiNote > MAX_MIDI_NOTE)
+            throw new IllegalArgumentException("MIDI note " + midiNote + " is out of range");
+        return NOTES[midiNote - MIN_MIDI_NOTE];
+    }
+
+    @Override
+    public String toString() {
+        return fullName;
+    }
+
+}
@@ -19,33 +19,40 @@ package io.github.c0urante.kafka.sound.demo.util;
 
 public class PitchUtils {
 
-    public static String pitch(double originalFrequency) {
-        if (originalFrequency <= 0)
-            throw new IllegalStateException("Invalid frequency: " + originalFrequency + "; must be positive");
-
-        double normalizedFrequency = originalFrequency;
-        while (normalizedFrequency < 220) {
-            normalizedFrequency *= 2;
-        }
-        while (normalizedFrequency >= 440) {
-            normalizedFrequency /= 2;
-        }
+    /**
+     * @return the MIDI note number of the nearest note to the given frequency (in 12TET, tuned to A440);
+     * may fall outside of the 0-127 range that MIDI actually supports
+     * @throws IllegalArgumentException if the frequency is too far out of range to be a note at all
+     */
+    public static int midiNote(double frequency) {
+        Note note = Tuning.A440.note(frequency);
+        if (note == null)
+            throw new IllegalArgumentException("Frequency " + frequency + " is too far out of range to be a note");
+        return note.midiNote;
+    }
 
-        String[] pitches = new String[] {
-                "A", "Bb", "B", "C", "C#", "D", "Eb", "E", "F", "F#", "G", "G#", "A"
-        };
+    /**
+     * @return how far the given frequency is from the nearest note (tuned to A440), in cents (between -50 and 50),
+     * or {@link Double#NaN} if it's too far out of range to be a note
+     */
+    public static double cents(double frequency) {
+        return Tuning.A440.cents(frequency);
+    }
 
-        for (int i = 0; i < pitches.length; i++) {
-            // 12TET is evil but hopefully there's no Jacob Collier-esque modulations to G half-sharp major
-            // or other rambunctious shit like that
-            // Insert joke here about A432, baroque tuning, questionable intonation of the performer, etc.
-            double pitchMax = 220 * (Math.pow(2, ((i + 0.5) / 12)));
-            if (pitchMax > normalizedFrequency) {
-                return pitches[i];
-            }
-        }
+    /**
+     * @return the name of the note (without the octave) for the given MIDI note number
+     */
+    public static String name(int midiNote) {
+        return Note.of(midiNote).name;
+    }
 
-        throw new IllegalStateException("Unable to deduce pitch for frequency " + originalFrequency);
+    /**
+     * @return the name of the nearest note (without the octave) to the given frequency, tuned to A440,
+     * or null if it's too far out of range to be a note
+     */
+    public static String pitch(double frequency) {
+        Note note = Tuning.A440.note(frequency);
+        return note != null ? note.name : null;
     }
 
 }
@@ -0,0 +1,161 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+/**
+ * An FFT for real-valued signals, done as a half-size {@link Fft complex FFT} over the even and odd samples,
+ * plus one extra pass to untangle the two. About twice as fast as running the full-size complex FFT with
+ * nothing in the imaginary half. Like {@link Fft}, instances are immutable, and can be shared freely between threads.
+ * <p>
+ * Only the non-negative frequency bins (0 through N/2, inclusive) are produced and consumed;
+ * the rest are just their complex conjugates.
+ */
+public class RealFft {
+
+    private final int size;
+    private final Fft fft;
+    private final double[] cos;
+    private final double[] sin;
+
+    /**
+     * @param size the number of real points in the transform; must be a power of two no less than 4
+     */
+    public RealFft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("Invalid FFT size " + size + ": must be a power of two no less than 4");
+        this.size = size;
+        this.fft = new Fft(size / 2);
+        this.cos = new double[size / 2];
+        this.sin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            double angle = -2 * Math.PI * i / size;
+            cos[i] = Math.cos(angle);
+            sin[i] = Math.sin(angle);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of frequency bins produced by {@link #forward(double[], double[], double[]) forward}
+     */
+    public int bins() {
+        return size / 2 + 1;
+    }
+
+    /**
+     * Write the (unscaled) spectrum of {@code signal} into {@code real} and {@code imaginary}, each of which
+     * must have room for at least {@link #bins()} values. The signal is left untouched.
+     */
+    public void forward(double[] signal, double[] real, double[] imaginary) {
+        if (signal.length < size)
+            throw new IllegalArgumentException("Signal must have at least " + size + " points");
+        checkBins(real, imaginary);
+
+        int half = size / 2;
+        for (int i = 0; i < half; i++) {
+            real[i] = signal[2 * i];
+            imaginary[i] = signal[2 * i + 1];
+        }
+        fft.forward(real, imaginary);
+
+        // Bins k and N/2 - k are built from the same pair of half-size bins, so they're done together
+        double dc = real[0];
+        double nyquist = imaginary[0];
+        real[0] = dc + nyquist;
+        imaginary[0] = 0;
+        real[half] = dc - nyquist;
+        imaginary[half] = 0;
+        for (int k = 1; k <= half / 2; k++) {
+            int j = half - k;
+            double zkr = real[k], zki = imaginary[k];
+            double zjr = real[j], zji = imaginary[j];
+            real[k] = split(zkr, zki, zjr, zji, k, true);
+            imaginary[k] = split(zkr, zki, zjr, zji, k, false);
+            real[j] = split(zjr, zji, zkr, zki, j, true);
+            imaginary[j] = split(zjr, zji, zkr, zki, j, false);
+        }
+    }
+
+    /**
+     * The inverse of {@link #forward(double[], double[], double[])}, including the 1/N scaling. The first
+     * {@link #bins()} values of {@code real} and {@code imaginary} are used as scratch space, and overwritten.
+     */
+    public void inverse(double[] real, double[] imaginary, double[] signal) {
+        if (signal.length < size)
+            throw new IllegalArgumentException("Signal must have room for at least " + size + " points");
+        checkBins(real, imaginary);
+
+        int half = size / 2;
+        double dc = real[0];
+        double nyquist = real[half];
+        real[0] = (dc + nyquist) / 2;
+        imaginary[0] = (dc - nyquist) / 2;
+        for (int k = 1; k <= half / 2; k++) {
+            int j = half - k;
+            double xkr = real[k], xki = imaginary[k];
+            double xjr = real[j], xji = imaginary[j];
+            real[k] = merge(xkr, xki, xjr, xji, k, true);
+            imaginary[k] = merge(xkr, xki, xjr, xji, k, false);
+            real[j] = merge(xjr, xji, xkr, xki, j, true);
+            imaginary[j] = merge(xjr, xji, xkr, xki, j, false);
+        }
+        // Now it's just the half-size spectrum of the even samples (real) and odd samples (imaginary)
+        fft.inverse(real, imaginary);
+
+        for (int i = 0; i < half; i++) {
+            signal[2 * i] = real[i];
+            signal[2 * i + 1] = imaginary[i];
+        }
+    }
+
+    // X[k] = E[k] + W^k * O[k], where E[k] = (Z[k] + conj(Z[N/2 - k])) / 2 and O[k] = (Z[k] - conj(Z[N/2 - k])) / 2i
+    private double split(double zkr, double zki, double zjr, double zji, int k, boolean realPart) {
+        double er = (zkr + zjr) / 2;
+        double ei = (zki - zji) / 2;
+        double or = (zki + zji) / 2;
+        double oi = (zjr - zkr) / 2;
+        double wr = cos[k];
+        double wi = sin[k];
+        return realPart
+                ? er + or * wr - oi * wi
+                : ei + or * wi + oi * wr;
+    }
+
+    // Z[k] = E[k] + i * O[k], where E[k] = (X[k] + conj(X[N/2 - k])) / 2 and O[k] = (X[k] - conj(X[N/2 - k])) / 2W^k
+    private double merge(double xkr, double xki, double xjr, double xji, int k, boolean realPart) {
+        double er = (xkr + xjr) / 2;
+        double ei = (xki - xji) / 2;
+        double dr = (xkr - xjr) / 2;
+        double di = (xki + xji) / 2;
+        // Dividing by W^k is multiplying by its conjugate, since it's on the unit circle
+        double wr = cos[k];
+        double wi = -sin[k];
+        double or = dr * wr - di * wi;
+        double oi = dr * wi + di * wr;
+        return realPart ? er - oi : ei + or;
+    }
+
+    private void checkBins(double[] real, double[] imaginary) {
+        if (real.length < bins() || imaginary.length < bins())
+            throw new IllegalArgumentException("Arrays must have room for at least " + bins() + " bins");
+    }
+
+}
@@ -17,6 +17,8 @@
  */
 package io.github.c0urante.kafka.sound.demo.util;
 
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -78,32 +80,118 @@ public class SampleUtils {
         return (short) Math.abs(sample);
     }
 
-    public static List<Short> decodeSamples(byte[] encodedSamples) {
-        if (encodedSamples.length % 2 != 0)
-            throw new IllegalArgumentException("Encoded sample array must have exactly two bytes per sample");
+    public static float[] toFloats(short[] shortSamples) {
+        float[] result = new float[shortSamples.length];
+        for (int i = 0; i < result.length; i++)
+            result[i] = shortSamples[i];
+        return result;
+    }
 
-        List<Short> result = new ArrayList<>(encodedSamples.length / 2);
-        for (int i = 0; i < encodedSamples.length - 1; i += 2) {
-            byte littleByte = encodedSamples[i];
-            byte bigByte = encodedSamples[i + 1];
-            short sample = (short) ((littleByte & 0xFF) | (bigByte << 8));
+    public static List<Short> toList(short[] samples) {
+        List<Short> result = new ArrayList<>(samples.length);
+        for (short sample : samples)
             result.add(sample);
-        }
         return result;
     }
 
+    public static short[] toShorts(List<Short> samples) {
+        short[] result = new short[samples.size()];
+        int i = 0;
+        for (short sample : samples)
+            result[i++] = sample;
+        return result;
+    }
+
+    public static List<Short> decodeSamples(byte[] encodedSamples) {
+        return toList(decodeSampleBlock(encodedSamples));
+    }
+
     public static byte[] encodeSamples(List<Short> samples) {
-        byte[] result = new byte[samples.size() * 2];
-        for (int i = 0; i < samples.size(); i+= 1) {
-            short sample = samples.get(i);
-            byte littleByte = (byte) (sample & 0xFF);
-            byte bigByte = (byte) ((sample >> 8) & 0xFF);
-            result[i * 2] = littleByte;
-            result[(i * 2) + 1] = bigByte;
-        }
+        return encodeSampleBlock(toShorts(samples));
+    }
+
+    public static short[] decodeSampleBlock(byte[] encodedSamples) {
+        checkEncodedLength(encodedSamples.length);
+        short[] result = new short[encodedSamples.length / 2];
+        decodeSamplesInto(encodedSamples, 0, encodedSamples.length, result, 0);
         return result;
     }
 
+    public static byte[] encodeSampleBlock(short[] samples) {
+        return encodeSamplesInto(samples, new byte[samples.length * 2]);
+    }
+
+    /**
+     * Decode little-endian PCM16 samples straight into a caller-supplied (and presumably reused) array.
+     * @return the number of samples that were decoded
+     */
+    public static int decodeSamplesInto(byte[] encodedSamples, short[] destination) {
+        checkEncodedLength(encodedSamples.length);
+        decodeSamplesInto(encodedSamples, 0, encodedSamples.length, destination, 0);
+        return encodedSamples.length / 2;
+    }
+
+    public static void decodeSamplesInto(
+            byte[] encodedSamples,
+            int offset,
+            int length,
+            short[] destination,
+            int destinationOffset
+    ) {
+        checkEncodedLength(length);
+        for (int i = 0; i < length / 2; i++) {
+            int b = offset + i * 2;
+            destination[destinationOffset + i] = (short) ((encodedSamples[b] & 0xFF) | (encodedSamples[b + 1] << 8));
+        }
+    }
+
+    public static void decodeSamplesInto(ByteBuffer encodedSamples, ShortBuffer destination) {
+        checkEncodedLength(encodedSamples.remaining());
+        int position = encodedSamples.position();
+        int limit = encodedSamples.limit();
+        for (int b = position; b < limit; b += 2)
+            destination.put((short) ((encodedSamples.get(b) & 0xFF) | (encodedSamples.get(b + 1) << 8)));
+        encodedSamples.position(limit);
+    }
+
+    /**
+     * Encode samples as little-endian PCM16 into a caller-supplied (and presumably pooled) array,
+     * which must have room for at least two bytes per sample.
+     * @return the destination array
+     */
+    public static byte[] encodeSamplesInto(short[] samples, byte[] destination) {
+        encodeSamplesInto(samples, 0, samples.length, destination, 0);
+        return destination;
+    }
+
+    public static void encodeSamplesInto(
+            short[] samples,
+            int offset,
+            int count,
+            byte[] destination,
+            int destinationOffset
+    ) {
+        for (int i = 0; i < count; i++) {
+            short sample = samples[offset + i];
+            int b = destinationOffset + i * 2;
+            destination[b] = (byte) sample;
+            destination[b + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    public static void encodeSamplesInto(ShortBuffer samples, ByteBuffer destination) {
+        while (samples.hasRemaining()) {
+            short sample = samples.get();
+            destination.put((byte) sample);
+            destination.put((byte) (sample >> 8));
+        }
+    }
+
+    private static void checkEncodedLength(int length) {
+        if (length % 2 != 0)
+            throw new IllegalArgumentException("Encoded sample array must have exactly two bytes per sample");
+    }
+
     public static int msToSamples(int ms) {
         return ms * AudioFormats.SAMPLE_RATE / 1000;
     }
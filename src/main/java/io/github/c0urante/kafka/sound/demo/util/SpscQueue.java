@@ -0,0 +1,75 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue for handing things off from exactly one producer thread to exactly one
+ * consumer thread (for example, pedal presses from the UI thread to the audio thread).
+ * Neither side ever blocks; {@link #offer(Object)} fails if the queue is full, and {@link #poll()}
+ * returns null if it's empty.
+ */
+public class SpscQueue<E> {
+
+    private final Object[] elements;
+    private final int mask;
+    // Index of the next element to read; only written by the consumer
+    private final AtomicLong head;
+    // Index of the next element to write; only written by the producer
+    private final AtomicLong tail;
+
+    /**
+     * @param capacity the maximum number of elements in the queue; must be a power of two
+     */
+    public SpscQueue(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Invalid capacity " + capacity + ": must be a power of two");
+        this.elements = new Object[capacity];
+        this.mask = capacity - 1;
+        this.head = new AtomicLong(0);
+        this.tail = new AtomicLong(0);
+    }
+
+    public boolean offer(E element) {
+        if (element == null)
+            throw new NullPointerException("Queue elements may not be null");
+
+        long tail = this.tail.get();
+        if (tail - head.get() == elements.length)
+            return false;
+        elements[(int) (tail & mask)] = element;
+        // Publishes the element to the consumer
+        this.tail.lazySet(tail + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long head = this.head.get();
+        if (head == tail.get())
+            return null;
+        int index = (int) (head & mask);
+        E result = (E) elements[index];
+        elements[index] = null;
+        // Hands the slot back to the producer
+        this.head.lazySet(head + 1);
+        return result;
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+/**
+ * Maps frequencies to {@link Note notes} in 12TET, relative to a configurable reference pitch for A4.
+ * <p>
+ * Each lookup is a single logarithm, rounded to the nearest semitone and used as an index into the
+ * table of notes, so it's cheap enough to do for every detected pitch, on every channel, at every hop.
+ * Instances are immutable, and can be shared freely between threads.
+ */
+public class Tuning {
+
+    // MIDI note numbers count semitones, with A4 at 69
+    private static final int A4_MIDI_NOTE = 69;
+    private static final double SEMITONES_PER_NATURAL_LOG = 12 / Math.log(2);
+
+    // 12TET is evil but hopefully there's no Jacob Collier-esque modulations to G half-sharp major
+    // or other rambunctious shit like that
+    public static final Tuning A440 = new Tuning(440);
+
+    private final double a4Frequency;
+    // Semitones from MIDI note 0, minus the semitones to the frequency (which only need to be added)
+    private final double offset;
+
+    /**
+     * @param a4Frequency the frequency of A4, in Hz (e.g., 440, 415 for baroque pitch, or 432 for... reasons)
+     */
+    public Tuning(double a4Frequency) {
+        if (!(a4Frequency > 0) || Double.isInfinite(a4Frequency))
+            throw new IllegalArgumentException("Invalid A4 frequency: " + a4Frequency + "; must be positive");
+        this.a4Frequency = a4Frequency;
+        this.offset = A4_MIDI_NOTE - Math.log(a4Frequency) * SEMITONES_PER_NATURAL_LOG;
+    }
+
+    public double a4Frequency() {
+        return a4Frequency;
+    }
+
+    /**
+     * @return the nearest note to the given frequency, or null if it's too far out of range to be a note
+     */
+    public Note note(double frequency) {
+        long midiNote = Math.round(semitones(frequency));
+        return inRange(midiNote) ? Note.of((int) midiNote) : null;
+    }
+
+    /**
+     * @return how far the given frequency is from the nearest note, in cents (between -50 and 50),
+     * or {@link Double#NaN} if it's too far out of range to be a note
+     */
+    public double cents(double frequency) {
+        double semitones = semitones(frequency);
+        long midiNote = Math.round(semitones);
+        return inRange(midiNote) ? (semitones - midiNote) * 100 : Double.NaN;
+    }
+
+    /**
+     * Find both the nearest note and how far off from it the given frequency is, with a single lookup.
+     * If the frequency is too far out of range to be a note, the reading's note is null and its cents are NaN.
+     * @param reading where to put the result, so that it can be reused from one lookup to the next
+     * @return {@code reading}
+     */
+    public Reading read(double frequency, Reading reading) {
+        double semitones = semitones(frequency);
+        long midiNote = Math.round(semitones);
+        if (inRange(midiNote)) {
+            reading.note = Note.of((int) midiNote);
+            reading.cents = (semitones - midiNote) * 100;
+        } else {
+            reading.note = null;
+            reading.cents = Double.NaN;
+        }
+        return reading;
+    }
+
+    /**
+     * The result of {@link #read(double, Reading) reading} a frequency; meant to be reused.
+     */
+    public static class Reading {
+        private Note note;
+        private double cents;
+
+        public Note note() {
+            return note;
+        }
+
+        public double cents() {
+            return cents;
+        }
+    }
+
+    // In fractional MIDI note numbers
+    private double semitones(double frequency) {
+        if (!(frequency > 0))
+            throw new IllegalArgumentException("Invalid frequency: " + frequency + "; must be positive");
+        return Math.log(frequency) * SEMITONES_PER_NATURAL_LOG + offset;
+    }
+
+    // Anything past the ends of the table isn't a note anyone can hear anyway; rather than pretend it's the nearest
+    // note that's actually in the table (and report it as wildly out of tune), don't call it a note at all
+    private static boolean inRange(long midiNote) {
+        return midiNote >= Note.MIN_MIDI_NOTE && midiNote <= Note.MAX_MIDI_NOTE;
+    }
+
+}
@@ -335,6 +335,33 @@ public class DistortionTest {
         testGraduallyScaledAmplifiedDistortionAlgorithm(1, 20, 5, new Overdrive());
     }
 
+    @Test
+    public void testOversampledHardClip_10_05_2() {
+        testOversampledDistortionAlgorithm(10, 2, new Hard(0.05));
+    }
+
+    @Test
+    public void testOversampledHardClip_10_05_8() {
+        // Compare to testHardClip_10_05; the high end should be noticeably less harsh
+        testOversampledDistortionAlgorithm(10, 8, new Hard(0.05));
+    }
+
+    @Test
+    public void testOversampledSquareClip_2_4() {
+        testOversampledDistortionAlgorithm(2, 4, new Square());
+    }
+
+    private void testOversampledDistortionAlgorithm(
+            double amplificationFactor,
+            int oversamplingFactor,
+            ClippingAlgorithm algorithm
+    ) {
+        Distortion distortion = new Distortion(algorithm);
+        distortion.amplificationFactor().setNow(amplificationFactor);
+        distortion.setOversamplingFactor(oversamplingFactor);
+        AudioTestUtils.testAlgorithmOnFile(AudioTestUtils.QUEEN_GUITAR_2_FILE, AudioTestUtils.batch(distortion::apply));
+    }
+
     private void testAmplifiedDistortionAlgorithm(double amplificationFactor, ClippingAlgorithm algorithm) {
         Distortion distortion = new Distortion(algorithm);
         distortion.amplificationFactor().setNow(amplificationFactor);
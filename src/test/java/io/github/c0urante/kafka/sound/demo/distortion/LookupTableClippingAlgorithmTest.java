@@ -0,0 +1,75 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.distortion;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LookupTableClippingAlgorithmTest {
+
+    private static final List<ClippingAlgorithm> ALGORITHMS = Arrays.asList(
+            new None(),
+            new Square(),
+            new Overdrive(),
+            new Reciprocal(),
+            new CubicNonLinearity(),
+            new Exponential(),
+            new Hard(),
+            new HyperbolicTangent()
+    );
+
+    @Test
+    public void testTableMatchesDelegate() {
+        for (ClippingAlgorithm algorithm : ALGORITHMS) {
+            LookupTableClippingAlgorithm tabulated = new LookupTableClippingAlgorithm(algorithm);
+            assertEquals(algorithm.name(), tabulated.name());
+            for (int sample = Short.MIN_VALUE; sample <= Short.MAX_VALUE; sample++) {
+                assertEquals(algorithm.clip((short) sample), tabulated.clip((short) sample));
+            }
+        }
+    }
+
+    @Test
+    public void testInterpolation() {
+        LookupTableClippingAlgorithm tabulated = new LookupTableClippingAlgorithm(new HyperbolicTangent());
+        for (short sample : new short[] {Short.MIN_VALUE, -1000, 0, 1000, Short.MAX_VALUE}) {
+            assertEquals(tabulated.clip(sample), tabulated.clip((float) sample), 0.0001);
+        }
+
+        float low = tabulated.clip((short) 1000);
+        float high = tabulated.clip((short) 1001);
+        float between = tabulated.clip(1000.5f);
+        assertTrue(between >= Math.min(low, high) && between <= Math.max(low, high));
+
+        // Out-of-range inputs are coerced
+        assertEquals(tabulated.clip(Short.MAX_VALUE), tabulated.clip(1e6f), 0.0001);
+        assertEquals(tabulated.clip(Short.MIN_VALUE), tabulated.clip(-1e6f), 0.0001);
+    }
+
+    @Test
+    public void testOfDoesNotDoubleWrap() {
+        LookupTableClippingAlgorithm tabulated = LookupTableClippingAlgorithm.of(new Hard());
+        assertTrue(tabulated == LookupTableClippingAlgorithm.of(tabulated));
+    }
+
+}
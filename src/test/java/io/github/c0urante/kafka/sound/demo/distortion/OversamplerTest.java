@@ -0,0 +1,91 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.distortion;
+
+import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class OversamplerTest {
+
+    @Test
+    public void testPassthroughPreservesLevel() {
+        for (int factor : new int[] {2, 4, 8}) {
+            Oversampler oversampler = new Oversampler(factor);
+            double inputEnergy = 0;
+            double outputEnergy = 0;
+            // Several blocks, to make sure that history carries over correctly
+            for (int block = 0; block < 8; block++) {
+                short[] samples = sine(1000, block * 512, 512);
+                for (short sample : samples)
+                    inputEnergy += block > 0 ? sample * (double) sample : 0;
+                oversampler.apply(samples, (buffer, offset, length) -> { });
+                for (short sample : samples)
+                    outputEnergy += block > 0 ? sample * (double) sample : 0;
+            }
+            assertEquals(1.0, Math.sqrt(outputEnergy / inputEnergy), 0.02);
+        }
+    }
+
+    @Test
+    public void testStageSeesOversampledBlock() {
+        Oversampler oversampler = new Oversampler(4);
+        int[] oversampledLength = new int[1];
+        oversampler.apply(new short[100], (buffer, offset, length) -> oversampledLength[0] = length);
+        assertEquals(400, oversampledLength[0]);
+    }
+
+    @Test
+    public void testForksHaveTheirOwnHistory() {
+        Oversampler original = new Oversampler(4);
+        original.apply(sine(1000, 0, 512), (buffer, offset, length) -> { });
+
+        // A fork of a well-used oversampler should behave exactly like a brand new one
+        Oversampler fork = original.fork();
+        Oversampler fresh = new Oversampler(4);
+        assertEquals(4, fork.factor());
+        assertArrayEquals(
+                fresh.apply(sine(440, 0, 512), (buffer, offset, length) -> { }),
+                fork.apply(sine(440, 0, 512), (buffer, offset, length) -> { })
+        );
+
+        // And so should one that's been reset
+        original.reset();
+        assertArrayEquals(
+                new Oversampler(4).apply(sine(440, 0, 512), (buffer, offset, length) -> { }),
+                original.apply(sine(440, 0, 512), (buffer, offset, length) -> { })
+        );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFactor() {
+        new Oversampler(3);
+    }
+
+    private static short[] sine(double frequency, int start, int length) {
+        short[] result = new short[length];
+        for (int i = 0; i < length; i++) {
+            double t = (double) (start + i) / AudioFormats.SAMPLE_RATE;
+            result[i] = (short) (10000 * Math.sin(2 * Math.PI * frequency * t));
+        }
+        return result;
+    }
+
+}
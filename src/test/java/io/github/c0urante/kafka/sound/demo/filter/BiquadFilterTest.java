@@ -0,0 +1,143 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.filter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BiquadFilterTest {
+
+    private static final int LENGTH = 4096;
+
+    @Test
+    public void testLowPass() {
+        short[] dc = new BiquadLowPass(1000).filter(constant(LENGTH, 10_000));
+        short[] nyquist = new BiquadLowPass(1000).filter(alternating(LENGTH, 10_000));
+
+        // No latency
+        assertEquals(LENGTH, dc.length);
+        assertEquals(10_000, dc[LENGTH - 1], 1);
+        assertEquals(0, nyquist[LENGTH - 1], 1);
+    }
+
+    @Test
+    public void testHighPass() {
+        short[] dc = new BiquadHighPass(1000).filter(constant(LENGTH, 10_000));
+        short[] nyquist = new BiquadHighPass(1000).filter(alternating(LENGTH, 10_000));
+
+        assertEquals(0, dc[LENGTH - 1], 1);
+        assertEquals(10_000, Math.abs(nyquist[LENGTH - 1]), 10);
+    }
+
+    @Test
+    public void testBandPass() {
+        BiquadBandPass filter = new BiquadBandPass(500, 2000);
+        assertEquals(0, filter.filter(constant(LENGTH, 10_000))[LENGTH - 1], 1);
+        assertTrue(Math.abs(filter.filter(alternating(LENGTH, 10_000))[LENGTH - 1]) < 10);
+    }
+
+    @Test
+    public void testBlockSizeDoesNotMatter() {
+        short[] input = alternating(LENGTH, 5_000);
+        for (int i = 0; i < LENGTH; i += 3)
+            input[i] = 1_000;
+
+        short[] expected = new BiquadBandPass(200, 5000).filter(input.clone());
+
+        BiquadBandPass filter = new BiquadBandPass(200, 5000);
+        short[] actual = new short[LENGTH];
+        int offset = 0;
+        for (int blockSize = 1; offset < LENGTH; blockSize = blockSize * 2 + 1) {
+            int length = Math.min(blockSize, LENGTH - offset);
+            short[] block = filter.filter(Arrays.copyOfRange(input, offset, offset + length));
+            System.arraycopy(block, 0, actual, offset, length);
+            offset += length;
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testSaveAndRestore() {
+        short[] input = alternating(LENGTH, 5_000);
+        BiquadLowPass original = new BiquadLowPass(3000);
+        original.filter(Arrays.copyOf(input, LENGTH / 2));
+
+        ByteBuffer state = ByteBuffer.allocate(original.stateSize());
+        original.saveState(state);
+        state.flip();
+        BiquadLowPass restored = new BiquadLowPass(3000);
+        restored.restoreState(state);
+
+        short[] rest = Arrays.copyOfRange(input, LENGTH / 2, LENGTH);
+        assertArrayEquals(original.filter(rest.clone()), restored.filter(rest.clone()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRestoreMismatchedState() {
+        BiquadLowPass lowPass = new BiquadLowPass(3000);
+        ByteBuffer state = ByteBuffer.allocate(lowPass.stateSize());
+        lowPass.saveState(state);
+        state.flip();
+        new BiquadBandPass(300, 3000).restoreState(state);
+    }
+
+    @Test
+    public void testRetuningKeepsState() {
+        BiquadLowPass retuned = new BiquadLowPass(3000);
+        BiquadLowPass untouched = new BiquadLowPass(3000);
+        short[] input = alternating(LENGTH, 5_000);
+        retuned.filter(input.clone());
+        untouched.filter(input.clone());
+
+        retuned.retune(0, 3000);
+        assertArrayEquals(untouched.filter(input.clone()), retuned.filter(input.clone()));
+    }
+
+    @Test
+    public void testCutoffChangesDoNotClick() {
+        Filter filter = new Filter((low, high) -> new BiquadLowPass(high));
+        filter.max(200);
+        filter.apply(constant(LENGTH, 10_000));
+
+        // Both cutoffs pass DC through untouched, so there shouldn't be any sign of the change
+        // (a brand-new filter would start back at zero)
+        filter.max(5000);
+        for (short sample : filter.apply(constant(64, 10_000)))
+            assertEquals(10_000, sample, 10);
+    }
+
+    private static short[] constant(int length, int sample) {
+        short[] result = new short[length];
+        Arrays.fill(result, (short) sample);
+        return result;
+    }
+
+    private static short[] alternating(int length, int sample) {
+        short[] result = new short[length];
+        for (int i = 0; i < length; i++)
+            result[i] = (short) (i % 2 == 0 ? sample : -sample);
+        return result;
+    }
+
+}
@@ -90,6 +90,26 @@ public class FilterTest {
         testLowPassSpTarsos(1024, 28160);
     }
 
+    @Test
+    public void testLowPassBiquad_440() {
+        testFilterAlgorithm(new BiquadLowPass(440));
+    }
+
+    @Test
+    public void testLowPassBiquad_1760() {
+        testFilterAlgorithm(new BiquadLowPass(1760));
+    }
+
+    @Test
+    public void testHighPassBiquad_1760() {
+        testFilterAlgorithm(new BiquadHighPass(1760));
+    }
+
+    @Test
+    public void testBandPassBiquad_440_1760() {
+        testFilterAlgorithm(new BiquadBandPass(440, 1760));
+    }
+
     private void testLowPassSpTarsos(int windowSize, float cutoff) {
         testFilterAlgorithm(new LowPassSingleStage(windowSize, cutoff));
     }
@@ -0,0 +1,79 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.filter;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TarsosDspFilterTest {
+
+    @Test
+    public void testWindowing() {
+        TarsosDspFilter filter = new Doubler(4);
+
+        // Nothing comes out until a window's been filled
+        assertArrayEquals(new short[0], filter.filter(new short[] {1, 2, 3}));
+        assertArrayEquals(new short[] {2, 4, 6, 8, 10, 12, 14, 16}, filter.filter(new short[] {4, 5, 6, 7, 8, 9}));
+        assertArrayEquals(new short[] {18, 20, 22, 24}, filter.filter(new short[] {10, 11, 12}));
+    }
+
+    @Test
+    public void testSaveAndRestoreBufferedSamples() {
+        TarsosDspFilter filter = new Doubler(4);
+        filter.filter(new short[] {1, 2});
+
+        ByteBuffer state = ByteBuffer.allocate(filter.stateSize());
+        filter.saveState(state);
+        state.flip();
+
+        TarsosDspFilter restored = new Doubler(4);
+        restored.restoreState(state);
+        assertEquals(0, state.remaining());
+        assertArrayEquals(new short[] {2, 4, 6, 8}, restored.filter(new short[] {3, 4}));
+    }
+
+    private static class Doubler extends TarsosDspFilter {
+        public Doubler(int windowSize) {
+            super(new AudioProcessor() {
+                @Override
+                public boolean process(AudioEvent audioEvent) {
+                    float[] samples = audioEvent.getFloatBuffer();
+                    for (int i = 0; i < samples.length; i++)
+                        samples[i] *= 2;
+                    return true;
+                }
+
+                @Override
+                public void processingFinished() {
+                }
+            }, windowSize);
+        }
+
+        @Override
+        public String name() {
+            return "Doubler";
+        }
+    }
+
+}
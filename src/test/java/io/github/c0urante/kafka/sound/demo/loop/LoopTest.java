@@ -0,0 +1,368 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.loop;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoopTest {
+
+    @Test
+    public void testFirstLoopAndLayers() {
+        Loop loop = new Loop(0.5);
+
+        // Nothing happens until the first press
+        assertArrayEquals(new short[] {1, 2}, loop.apply(new short[] {1, 2}));
+
+        loop.loop();
+        assertArrayEquals(new short[] {10, 20}, loop.apply(new short[] {10, 20}));
+        assertArrayEquals(new short[] {30}, loop.apply(new short[] {30}));
+
+        // Close the loop; playback starts right away, and a new layer starts recording
+        loop.loop();
+        // (The new layer is audible, at half volume, as soon as we come back around)
+        assertArrayEquals(new short[] {12, 24, 36, 15}, loop.apply(new short[] {2, 4, 6, 4}));
+
+        // Stop recording layers, but keep playing them
+        loop.loop();
+        assertArrayEquals(new short[] {22, 33}, loop.apply(new short[] {0, 0}));
+        assertArrayEquals(new short[] {13, 22}, loop.apply(new short[] {0, 0}));
+
+        // Commit the layers and start another, then wipe it
+        loop.loop();
+        assertArrayEquals(new short[] {33, 113}, loop.apply(new short[] {0, 100}));
+        loop.clear();
+        assertArrayEquals(new short[] {22, 33, 13}, loop.apply(new short[] {0, 0, 0}));
+
+        // Wipe the whole loop
+        loop.clear();
+        assertArrayEquals(new short[] {5}, loop.apply(new short[] {5}));
+    }
+
+    @Test
+    public void testAbortFirstLoop() {
+        Loop loop = new Loop(1);
+        loop.loop();
+        loop.apply(new short[] {1, 2, 3});
+        loop.clear();
+        assertArrayEquals(new short[] {4, 5}, loop.apply(new short[] {4, 5}));
+    }
+
+    @Test
+    public void testEmptyFirstLoopIsIgnored() {
+        Loop loop = new Loop(1);
+        loop.loop();
+        loop.loop();
+        assertArrayEquals(new short[] {4, 5}, loop.apply(new short[] {4, 5}));
+    }
+
+    @Test
+    public void testSaturation() {
+        Loop loop = new Loop(1);
+        loop.loop();
+        loop.apply(new short[] {Short.MAX_VALUE});
+        loop.loop();
+        assertArrayEquals(new short[] {Short.MAX_VALUE}, loop.apply(new short[] {Short.MAX_VALUE}));
+    }
+
+    @Test
+    public void testSlots() throws Exception {
+        Path directory = Files.createTempDirectory("loop-slots");
+        try {
+            Loop loop = new Loop(1, directory, 2);
+            loop.loop();
+            loop.apply(new short[] {1, 2, 3});
+            loop.loop();
+            loop.clear();
+            assertArrayEquals(new short[] {1, 2, 3}, loop.apply(new short[3]));
+
+            // The new slot is empty
+            assertEquals("Slot 2", loop.nextSlot());
+            assertArrayEquals(new short[3], loop.apply(new short[3]));
+
+            // The old one isn't, and starts playing from the top
+            assertEquals("Slot 1", loop.nextSlot());
+            assertArrayEquals(new short[] {1, 2, 3}, loop.apply(new short[3]));
+
+            // Loops in files outlive the Loop instance that recorded them, if asked to
+            loop.awaitPersistence();
+            Loop recalled = new Loop(1, directory, 2, true);
+            assertArrayEquals(new short[] {1, 2, 3, 1}, recalled.apply(new short[4]));
+
+            // But by default, they're left alone
+            Loop fresh = new Loop(1, directory, 2);
+            assertArrayEquals(new short[4], fresh.apply(new short[4]));
+            assertEquals("Slot 2", fresh.nextSlot());
+            assertEquals("Slot 1", fresh.nextSlot());
+            assertArrayEquals(new short[4], fresh.apply(new short[4]));
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void testClearDeletesSlot() throws Exception {
+        Path directory = Files.createTempDirectory("loop-slots");
+        try {
+            Loop loop = new Loop(1, directory, 2);
+            loop.loop();
+            loop.apply(new short[] {1, 2, 3});
+            loop.loop();
+            // Abandon the first layer, so that the next clear wipes the whole loop
+            loop.clear();
+            loop.apply(new short[3]);
+            loop.awaitPersistence();
+            assertTrue(Files.exists(directory.resolve("slot-1.loop")));
+
+            // Wipe the whole loop; it shouldn't come back, either by switching slots or by restarting
+            loop.clear();
+            loop.apply(new short[3]);
+            loop.awaitPersistence();
+            assertFalse(Files.exists(directory.resolve("slot-1.loop")));
+            loop.nextSlot();
+            loop.nextSlot();
+            assertArrayEquals(new short[3], loop.apply(new short[3]));
+            assertArrayEquals(new short[3], new Loop(1, directory, 2, true).apply(new short[3]));
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void testForksLoopSeparately() {
+        Loop loop = new Loop(1, null, 2);
+        Loop first = loop.fork();
+        Loop second = loop.fork();
+
+        // One press goes to every fork, but each one records (and plays back) nothing but its own audio
+        loop.loop();
+        first.apply(new short[] {1, 2});
+        second.apply(new short[] {5, 5, 5});
+        loop.loop();
+        assertArrayEquals(new short[] {1, 2, 1}, first.apply(new short[] {0, 0, 0}));
+        assertArrayEquals(new short[] {5, 5, 5, 5}, second.apply(new short[] {0, 0, 0, 0}));
+
+        // Forks made later on start out in the same slot as everyone else
+        assertEquals("Slot 2", loop.nextSlot());
+        Loop third = loop.fork();
+        loop.loop();
+        third.apply(new short[] {7});
+        loop.loop();
+        assertArrayEquals(new short[] {7, 7}, third.apply(new short[] {0, 0}));
+        assertArrayEquals(new short[] {0, 0}, first.apply(new short[] {0, 0}));
+    }
+
+    @Test
+    public void testForksKeepTheirOwnFiles() throws Exception {
+        Path directory = Files.createTempDirectory("loop-slots");
+        try {
+            Loop loop = new Loop(1, directory, 1);
+            Loop fork = loop.fork("0_0-key-01");
+            loop.loop();
+            fork.apply(new short[] {1, 2, 3});
+            loop.loop();
+            fork.apply(new short[] {0});
+            fork.awaitPersistence();
+
+            assertTrue(Files.exists(directory.resolve("0_0-key-01").resolve("slot-1.loop")));
+            assertFalse(Files.exists(directory.resolve("slot-1.loop")));
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void testStateOnlyChangesWithTheSavedLoop() {
+        Loop loop = new Loop(1);
+        // Even an empty loop is worth one snapshot
+        assertTrue(loop.stateChanged());
+        snapshot(loop);
+        assertFalse(loop.stateChanged());
+
+        // Recording the first loop doesn't change anything until it's finished
+        loop.loop();
+        loop.apply(new short[] {1, 2, 3});
+        assertFalse(loop.stateChanged());
+        loop.loop();
+        loop.apply(new short[] {10, 20});
+        assertTrue(loop.stateChanged());
+        snapshot(loop);
+
+        // Neither does recording (or finishing) a layer, until it's committed
+        loop.apply(new short[] {0});
+        loop.loop();
+        loop.apply(new short[] {0, 0});
+        assertFalse(loop.stateChanged());
+        loop.loop();
+        loop.apply(new short[] {0});
+        assertTrue(loop.stateChanged());
+        assertArrayEquals(new int[] {3, 0, 11, 22, 3}, snapshot(loop));
+
+        loop.clear();
+        loop.clear();
+        loop.apply(new short[] {0});
+        assertTrue(loop.stateChanged());
+        assertArrayEquals(new int[] {-1, 0}, snapshot(loop));
+    }
+
+    @Test
+    public void testRestoreIntoFork() {
+        Loop loop = new Loop(1);
+        Loop original = loop.fork();
+        loop.loop();
+        original.apply(new short[] {1, 2, 3});
+        loop.loop();
+        original.apply(new short[] {0});
+
+        ByteBuffer state = ByteBuffer.allocate(original.stateSize());
+        original.saveState(state);
+        state.flip();
+        Loop restored = loop.fork();
+        restored.restoreState(state);
+        assertFalse(restored.stateChanged());
+        assertArrayEquals(original.apply(new short[] {0, 0, 0}), restored.apply(new short[] {0, 0, 0}));
+    }
+
+    @Test
+    public void testLayersMergeWhilePlaying() {
+        Loop loop = new Loop(1);
+        loop.loop();
+        loop.apply(new short[] {1, 2, 3, 4});
+        loop.loop();
+        loop.apply(new short[] {10, 20, 30, 40});
+        loop.loop();
+        loop.apply(new short[] {0, 0});
+
+        // Commit halfway through the loop; the new layer is only folded in as the playhead passes over it,
+        // but that shouldn't make any difference to what we hear or what gets snapshotted
+        loop.loop();
+        loop.loop();
+        assertArrayEquals(new short[] {33, 44}, loop.apply(new short[] {0, 0}));
+        assertArrayEquals(new int[] {4, 0, 11, 22, 33, 44}, snapshot(loop));
+        assertArrayEquals(new short[] {11, 22, 33}, loop.apply(new short[] {0, 0, 0}));
+
+        // Commit again before the first merge is finished
+        loop.loop();
+        loop.apply(new short[] {100});
+        loop.loop();
+        loop.loop();
+        assertArrayEquals(new short[] {11, 22, 33, 144}, loop.apply(new short[] {0, 0, 0, 0}));
+        assertArrayEquals(new int[] {4, 0, 11, 22, 33, 144}, snapshot(loop));
+    }
+
+    @Test
+    public void testCommandsTakeEffectAtNextBlock() {
+        Loop loop = new Loop(1);
+        loop.loop();
+        loop.loop();
+        loop.loop();
+        // All three presses land before the block, so recording starts, aborts, and starts again
+        loop.apply(new short[] {7});
+        loop.loop();
+        assertArrayEquals(new short[] {8}, loop.apply(new short[] {1}));
+    }
+
+    @Test
+    public void testLatePressesTakeEffectRetroactively() {
+        Loop loop = new Loop(1);
+        // Blocks of 10ms, each filled with its own number
+        for (int block = 1; block <= 3; block++)
+            loop.apply(block(block), 1000 + 10 * block);
+
+        // Both presses only make it to the audio thread a block late
+        loop.loop(1010);
+        loop.apply(block(4), 1040);
+        loop.loop(1030);
+
+        // So the loop is blocks 2 and 3, and block 4 ended up on the first layer instead
+        assertArrayEquals(block(3), loop.apply(block(0), 1050));
+        assertArrayEquals(block(2 + 4), loop.apply(block(0), 1060));
+        assertEquals(2 + 882, snapshot(loop).length);
+    }
+
+    @Test
+    public void testEarlyPressesWaitForTheRightSample() {
+        Loop loop = new Loop(1);
+        loop.apply(block(0), 1010);
+
+        // Press 2ms (88 samples) into the next block, and 6ms (265 samples) into the one after
+        loop.loop(1012);
+        loop.loop(1026);
+        short[] firstLoop = loop.apply(block(1), 1020);
+        short[] output = loop.apply(block(2), 1030);
+
+        assertArrayEquals(block(1), firstLoop);
+        // The loop starts back at the top right after the second press
+        for (int i = 0; i < 441; i++)
+            assertEquals(i < 265 ? 2 : 1 + 2, output[i]);
+        assertEquals(2 + (441 - 88) + 265, snapshot(loop).length);
+    }
+
+    @Test
+    public void testQuantizedLoopLength() {
+        Loop loop = new Loop(1);
+        // One beat per block
+        loop.setTempo(6000);
+        loop.apply(block(0), 1010);
+        loop.loop(1010);
+        loop.apply(block(1), 1020);
+        loop.apply(block(2), 1030);
+
+        // A little past the second beat; the loop gets trimmed back to it
+        loop.loop(1031);
+        assertArrayEquals(block(1), loop.apply(block(0), 1040));
+        assertEquals(2 + 882, snapshot(loop).length);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(path);
+        }
+    }
+
+    // 10ms worth of the same sample
+    private static short[] block(int sample) {
+        short[] result = new short[441];
+        Arrays.fill(result, (short) sample);
+        return result;
+    }
+
+    private static int[] snapshot(Loop loop) {
+        ByteBuffer state = ByteBuffer.allocate(loop.stateSize());
+        loop.saveState(state);
+        state.flip();
+        int[] result = new int[state.remaining() / Integer.BYTES];
+        state.asIntBuffer().get(result);
+        return result;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class FftPitchAlgorithmTest {
+
+    @Test
+    public void testAutocorrelationMatchesNaive() {
+        int windowSize = 64;
+        Random random = new Random(4);
+        float[] window = new float[windowSize];
+        for (int i = 0; i < windowSize; i++)
+            window[i] = random.nextInt(2000) - 1000;
+
+        Autocorrelation autocorrelation = new Autocorrelation(windowSize);
+        // Twice, to make sure nothing from the first window leaks into the second
+        autocorrelation.compute(new float[windowSize]);
+        autocorrelation.compute(window);
+        for (int lag = 0; lag <= autocorrelation.maxLag(); lag++) {
+            double correlation = 0;
+            double overlapEnergy = 0;
+            for (int j = 0; j + lag < windowSize; j++) {
+                correlation += window[j] * window[j + lag];
+                overlapEnergy += window[j] * window[j] + window[j + lag] * window[j + lag];
+            }
+            assertEquals(correlation, autocorrelation.correlation()[lag], 1e-6);
+            assertEquals(overlapEnergy, autocorrelation.overlapEnergy()[lag], 1e-6);
+        }
+    }
+
+    @Test
+    public void testYin() {
+        testPitches(FftYin::new);
+    }
+
+    @Test
+    public void testMcLeod() {
+        testPitches(FftMcLeodPitchMethod::new);
+    }
+
+    @Test
+    public void testSilence() {
+        for (PitchAlgorithm algorithm : new PitchAlgorithm[] {new FftYin(), new FftMcLeodPitchMethod()}) {
+            List<Pitch> pitches = algorithm.pitches(new short[4096]);
+            assertFalse(pitches.isEmpty());
+            for (Pitch pitch : pitches)
+                assertNull(pitch.name);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowSizeMustBePowerOfTwo() {
+        new FftYin(3000, 256);
+    }
+
+    private interface Factory {
+        PitchAlgorithm create(int windowSize, int hopSize);
+    }
+
+    private void testPitches(Factory algorithm) {
+        testPitch(algorithm.create(2048, 256), 440.0, "A");
+        testPitch(algorithm.create(2048, 256), 196.0, "G");
+        // Cello C string, and bass E string; those need bigger windows
+        testPitch(algorithm.create(4096, 256), 65.41, "C");
+        testPitch(algorithm.create(4096, 256), 41.20, "E");
+    }
+
+    private void testPitch(PitchAlgorithm algorithm, double frequency, String expected) {
+        // A sawtooth, for plenty of harmonics (and plenty of chances for octave errors)
+        short[] samples = new short[8192];
+        for (int i = 0; i < samples.length; i++) {
+            double phase = (i * frequency / AudioFormats.SAMPLE_RATE) % 1;
+            samples[i] = (short) (8000 * (2 * phase - 1));
+        }
+
+        List<Pitch> pitches = algorithm.pitches(samples);
+        assertFalse(pitches.isEmpty());
+        for (Pitch pitch : pitches)
+            assertEquals(algorithm.name() + " at " + frequency + " Hz", expected, pitch.name);
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import io.github.c0urante.kafka.sound.demo.util.Tuning;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NoteTrackerTest {
+
+    private static final double A = 440;
+    private static final double A_SHARP = 441;
+    private static final double B = 493.88;
+    private static final double NONE = -1;
+
+    @Test
+    public void testRepeatedNotesAreCollapsed() {
+        List<List<Pitch>> detected = new ArrayList<>();
+        detected.add(pitches(NONE, A, A_SHARP, A));
+        detected.add(pitches(A, A, B, B));
+        detected.add(pitches(B, NONE, NONE, NONE));
+        NoteTracker tracker = tracker(detected);
+
+        List<PitchEvent> events = tracker.apply(new short[100]);
+        assertEquals(1, events.size());
+        assertNoteOn(events.get(0), 69, 50);
+
+        events = tracker.apply(new short[100]);
+        assertEquals(2, events.size());
+        assertNoteOff(events.get(0), 69, 175);
+        assertNoteOn(events.get(1), 71, 175);
+
+        events = tracker.apply(new short[100]);
+        assertEquals(1, events.size());
+        assertNoteOff(events.get(0), 71, 250);
+
+        assertTrue(tracker.apply(new short[100]).isEmpty());
+    }
+
+    @Test
+    public void testNoteOffCarriesNoteOn() {
+        NoteTracker tracker = tracker(Collections.singletonList(pitches(A_SHARP, A, NONE, NONE, NONE)));
+        List<PitchEvent> events = tracker.apply(new short[100]);
+        assertEquals(2, events.size());
+        assertEquals(events.get(0).frequency, events.get(1).frequency, 0);
+        assertEquals(events.get(0).cents, events.get(1).cents, 0);
+        assertEquals(3.9, events.get(0).cents, 0.1);
+    }
+
+    @Test
+    public void testBriefDropoutsDontEndNotes() {
+        List<List<Pitch>> detected = new ArrayList<>();
+        detected.add(pitches(A, NONE, NONE, A));
+        detected.add(pitches(NONE, NONE));
+        detected.add(pitches(NONE));
+        NoteTracker tracker = tracker(detected);
+
+        List<PitchEvent> events = tracker.apply(new short[100]);
+        assertEquals(1, events.size());
+        assertNoteOn(events.get(0), 69, 25);
+
+        // Two misses aren't enough, even when they're at the end of a block
+        assertTrue(tracker.apply(new short[100]).isEmpty());
+
+        // But the third is, and the note ends where it first went missing
+        events = tracker.apply(new short[100]);
+        assertEquals(1, events.size());
+        assertNoteOff(events.get(0), 69, 150);
+    }
+
+    @Test
+    public void testDifferentNoteAfterDropout() {
+        NoteTracker tracker = tracker(Collections.singletonList(pitches(A, NONE, B)));
+        List<PitchEvent> events = tracker.apply(new short[100]);
+        assertEquals(3, events.size());
+        assertNoteOn(events.get(0), 69, 33);
+        assertNoteOff(events.get(1), 69, 66);
+        assertNoteOn(events.get(2), 71, 100);
+    }
+
+    @Test
+    public void testOctavesAreDifferentNotes() {
+        NoteTracker tracker = tracker(Collections.singletonList(pitches(A, A * 2)));
+        List<PitchEvent> events = tracker.apply(new short[100]);
+        assertEquals(3, events.size());
+        assertNoteOn(events.get(0), 69, 50);
+        assertNoteOff(events.get(1), 69, 100);
+        assertNoteOn(events.get(2), 81, 100);
+    }
+
+    @Test
+    public void testTuning() {
+        NoteTracker tracker = tracker(Collections.singletonList(pitches(432)), new Tuning(432));
+        List<PitchEvent> events = tracker.apply(new short[100]);
+        assertEquals(1, events.size());
+        assertNoteOn(events.get(0), 69, 100);
+        assertEquals(0, events.get(0).cents, 0.001);
+    }
+
+    // Spreads the given pitches evenly over a block of 100 samples
+    private static List<Pitch> pitches(double... frequencies) {
+        Pitch[] result = new Pitch[frequencies.length];
+        for (int i = 0; i < frequencies.length; i++)
+            result[i] = new Pitch(frequencies[i], 0.9f).at((i + 1) * 100 / frequencies.length);
+        return Arrays.asList(result);
+    }
+
+    private static NoteTracker tracker(List<List<Pitch>> detected) {
+        return tracker(detected, Tuning.A440);
+    }
+
+    private static NoteTracker tracker(List<List<Pitch>> detected, Tuning tuning) {
+        List<List<Pitch>> remaining = new ArrayList<>(detected);
+        return new NoteTracker(
+                samples -> remaining.isEmpty() ? Collections.emptyList() : remaining.remove(0),
+                tuning,
+                NoteTracker.DEFAULT_MAX_MISSES
+        );
+    }
+
+    private static void assertNoteOn(PitchEvent event, int midiNote, long sampleOffset) {
+        assertEquals(PitchEvent.Type.NOTE_ON, event.type);
+        assertEquals(midiNote, event.midiNote);
+        assertEquals(sampleOffset, event.sampleOffset);
+    }
+
+    private static void assertNoteOff(PitchEvent event, int midiNote, long sampleOffset) {
+        assertEquals(PitchEvent.Type.NOTE_OFF, event.type);
+        assertEquals(midiNote, event.midiNote);
+        assertEquals(sampleOffset, event.sampleOffset);
+    }
+
+}
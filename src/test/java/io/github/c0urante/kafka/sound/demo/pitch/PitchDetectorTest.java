@@ -0,0 +1,69 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class PitchDetectorTest {
+
+    @Test
+    public void testForksFollowAlgorithm() {
+        PitchDetector detector = new PitchDetector(2048, 256);
+        PitchDetector fork = detector.fork();
+        String initial = detector.currentAlgorithm();
+        assertEquals(initial, fork.currentAlgorithm());
+
+        String next = detector.nextAlgorithm();
+        assertFalse(initial.equals(next));
+        assertEquals(next, fork.currentAlgorithm());
+
+        // Forks can drive the choice too
+        assertEquals(initial, fork.prevAlgorithm());
+        assertEquals(initial, detector.currentAlgorithm());
+    }
+
+    @Test
+    public void testForksHaveTheirOwnWindows() {
+        PitchDetector detector = new PitchDetector(2048, 256);
+        PitchDetector fork = detector.fork();
+
+        short[] samples = new short[4096];
+        for (int i = 0; i < samples.length; i++) {
+            double phase = (i * 440.0 / AudioFormats.SAMPLE_RATE) % 1;
+            samples[i] = (short) (8000 * (2 * phase - 1));
+        }
+        List<Pitch> pitches = fork.pitches(samples);
+        assertFalse(pitches.isEmpty());
+        for (Pitch pitch : pitches)
+            assertEquals("A", pitch.name);
+
+        // Nothing the fork heard should make it into the original's window
+        pitches = detector.pitches(new short[2048]);
+        assertFalse(pitches.isEmpty());
+        for (Pitch pitch : pitches)
+            assertNull(pitch.name);
+    }
+
+}
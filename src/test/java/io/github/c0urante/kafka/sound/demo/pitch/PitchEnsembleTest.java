@@ -0,0 +1,153 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import io.github.c0urante.kafka.sound.demo.util.Tuning;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PitchEnsembleTest {
+
+    @Test
+    public void testWeightedVote() {
+        PitchEnsemble ensemble = ensemble(fixed(-1, 0));
+        Pitch pitch = ensemble.fuse(Arrays.asList(
+                new Pitch(440, 0.5f),
+                new Pitch(440, 0.5f),
+                new Pitch(493.88, 0.9f),
+                new Pitch(-1, 0.8f)
+        ));
+        assertEquals("A", pitch.name);
+        assertEquals(0.25, pitch.probability, 0.0001);
+        assertEquals(440, pitch.frequency, 0.0001);
+
+        pitch = ensemble.fuse(Arrays.asList(
+                new Pitch(440, 0.4f),
+                new Pitch(440, 0.4f),
+                new Pitch(493.88, 0.9f),
+                new Pitch(-1, 0.8f)
+        ));
+        assertEquals("B", pitch.name);
+    }
+
+    @Test
+    public void testOctavesDisagree() {
+        PitchEnsemble ensemble = ensemble(fixed(-1, 0));
+        // Two algorithms hear A3, one hears A4 but is surer of it than either of the others; if octaves didn't count,
+        // this would be a unanimous vote for A4
+        Pitch pitch = ensemble.fuse(Arrays.asList(
+                new Pitch(220, 0.4f),
+                new Pitch(220, 0.4f),
+                new Pitch(440, 0.7f)
+        ));
+        assertEquals(220, pitch.frequency, 0.0001);
+        assertEquals(0.8 / 3, pitch.probability, 0.0001);
+
+        pitch = ensemble.fuse(Arrays.asList(
+                new Pitch(220, 0.3f),
+                new Pitch(220, 0.3f),
+                new Pitch(440, 0.7f)
+        ));
+        assertEquals(440, pitch.frequency, 0.0001);
+        assertEquals(0.7 / 3, pitch.probability, 0.0001);
+    }
+
+    @Test
+    public void testTuning() {
+        // In baroque tuning, A440 is (just about) Bb
+        PitchEnsemble ensemble = new PitchEnsemble(
+                2,
+                Collections.singletonList(fixed(-1, 0)),
+                ForkJoinPool.commonPool(),
+                new Tuning(415)
+        );
+        Pitch pitch = ensemble.fuse(Arrays.asList(
+                new Pitch(440, 0.5f),
+                new Pitch(441, 0.5f)
+        ));
+        assertEquals("Bb", pitch.name);
+        assertEquals("A", new Pitch(440, 0.5f).name);
+        assertEquals("Bb", new Pitch(440, 0.5f).in(new Tuning(415)).name);
+    }
+
+    @Test
+    public void testNoPitch() {
+        PitchEnsemble ensemble = ensemble(fixed(-1, 0.1f), fixed(-1, 0.9f));
+        Pitch pitch = ensemble.pitch(new float[4]);
+        assertNull(pitch.name);
+        assertEquals(0, pitch.probability, 0);
+    }
+
+    @Test
+    public void testEveryAlgorithmSeesEveryWindow() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            PitchEnsemble ensemble = new PitchEnsemble(
+                    256,
+                    Arrays.asList(new FftYin(), new FftMcLeodPitchMethod(), new FftYin()),
+                    pool
+            );
+            short[] samples = new short[8192];
+            for (int i = 0; i < samples.length; i++)
+                samples[i] = (short) (8000 * Math.sin(2 * Math.PI * 440 * i / 44100));
+
+            List<Pitch> pitches = ensemble.pitches(samples);
+            assertEquals(1 + (8192 - 2048) / 256, pitches.size());
+            for (Pitch pitch : pitches)
+                assertEquals("A", pitch.name);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedWindowSizes() {
+        new PitchEnsemble(256, Arrays.asList(new FftYin(2048, 256), new FftYin(4096, 256)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoAlgorithms() {
+        new PitchEnsemble(256, Collections.emptyList());
+    }
+
+    private static PitchEnsemble ensemble(WindowedPitchAlgorithm... algorithms) {
+        return new PitchEnsemble(2, Arrays.asList(algorithms));
+    }
+
+    private static WindowedPitchAlgorithm fixed(double frequency, float probability) {
+        return new WindowedPitchAlgorithm(4, 2) {
+            @Override
+            public Pitch pitch(float[] window) {
+                return new Pitch(frequency, probability);
+            }
+
+            @Override
+            public String name() {
+                return "Fixed";
+            }
+        };
+    }
+
+}
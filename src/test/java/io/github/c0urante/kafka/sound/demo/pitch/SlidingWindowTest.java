@@ -0,0 +1,81 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.pitch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SlidingWindowTest {
+
+    @Test
+    public void testOverlappingWindows() {
+        SlidingWindow window = new SlidingWindow(4, 2);
+        List<float[]> windows = windows(window, new short[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+
+        assertEquals(3, windows.size());
+        assertArrayEquals(new float[] {1, 2, 3, 4}, windows.get(0), 0);
+        assertArrayEquals(new float[] {3, 4, 5, 6}, windows.get(1), 0);
+        assertArrayEquals(new float[] {5, 6, 7, 8}, windows.get(2), 0);
+    }
+
+    @Test
+    public void testWindowsSpanBlocks() {
+        SlidingWindow window = new SlidingWindow(4, 3);
+        List<float[]> windows = new ArrayList<>();
+        for (short sample = 1; sample <= 10; sample++) {
+            windows.addAll(windows(window, new short[] {sample}));
+        }
+
+        assertEquals(3, windows.size());
+        assertArrayEquals(new float[] {1, 2, 3, 4}, windows.get(0), 0);
+        assertArrayEquals(new float[] {4, 5, 6, 7}, windows.get(1), 0);
+        assertArrayEquals(new float[] {7, 8, 9, 10}, windows.get(2), 0);
+    }
+
+    @Test
+    public void testNonOverlappingWindows() {
+        SlidingWindow window = new SlidingWindow(3, 3);
+        List<float[]> windows = windows(window, new short[] {1, 2, 3, 4, 5, 6, 7});
+
+        assertEquals(2, windows.size());
+        assertArrayEquals(new float[] {1, 2, 3}, windows.get(0), 0);
+        assertArrayEquals(new float[] {4, 5, 6}, windows.get(1), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHopLargerThanWindow() {
+        new SlidingWindow(4, 5);
+    }
+
+    private static List<float[]> windows(SlidingWindow window, short[] samples) {
+        List<float[]> result = new ArrayList<>();
+        int offset = 0;
+        while (offset < samples.length) {
+            offset = window.add(samples, offset);
+            if (window.ready())
+                result.add(window.window().clone());
+        }
+        return result;
+    }
+
+}
@@ -19,6 +19,7 @@ package io.github.c0urante.kafka.sound.demo.reverb;
 
 import io.github.c0urante.kafka.sound.demo.AudioTestUtils;
 import io.github.c0urante.kafka.sound.demo.InteractiveTest;
+import io.github.c0urante.kafka.sound.demo.util.SampleUtils;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
@@ -74,8 +75,10 @@ public class CombFilterTest {
         int delayInSamples = delay * AudioTestUtils.SAMPLE_RATE / 1000;
         CombFilter combFilter = new CombFilter(delayInSamples, () -> decay);
         AudioTestUtils.testAlgorithmOnDefaultFile(samples -> {
-            samples.replaceAll(combFilter::apply);
-            return samples;
+            // All at once, through the block API; filtered in place
+            short[] block = SampleUtils.toShorts(samples);
+            combFilter.apply(block, block);
+            return SampleUtils.toList(block);
         });
     }
 
@@ -0,0 +1,108 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.reverb;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ConvolutionReverbTest {
+
+    private static final int PARTITION_SIZE = 64;
+
+    @Test
+    public void testMatchesDirectConvolution() {
+        Random random = new Random(3);
+        short[] impulseResponse = noise(random, 300);
+        short[] input = noise(random, 2000);
+
+        ConvolutionReverb reverb = new ConvolutionReverb(impulseResponse, PARTITION_SIZE, 1);
+        short[] actual = applyInOddBlocks(reverb, input);
+
+        double energy = 0;
+        for (short sample : impulseResponse)
+            energy += (double) sample * sample;
+        double scale = 1 / Math.sqrt(energy);
+        for (int n = 0; n < input.length; n++) {
+            // The wet signal lags by one partition
+            double expected = 0;
+            for (int k = 0; k < impulseResponse.length && k <= n - PARTITION_SIZE; k++)
+                expected += impulseResponse[k] * scale * input[n - PARTITION_SIZE - k];
+            assertEquals("Sample " + n, expected, actual[n], 1.01);
+        }
+    }
+
+    @Test
+    public void testSaveAndRestore() {
+        Random random = new Random(4);
+        short[] impulseResponse = noise(random, 500);
+        short[] input = noise(random, 3001);
+
+        ConvolutionReverb original = new ConvolutionReverb(impulseResponse, PARTITION_SIZE, 0.5);
+        original.apply(Arrays.copyOf(input, 1000));
+
+        ByteBuffer state = ByteBuffer.allocate(original.stateSize());
+        original.saveState(state);
+        state.flip();
+        ConvolutionReverb restored = new ConvolutionReverb(impulseResponse, PARTITION_SIZE, 0.5).fork();
+        restored.restoreState(state);
+        assertEquals(0, state.remaining());
+
+        short[] rest = Arrays.copyOfRange(input, 1000, input.length);
+        assertArrayEquals(original.apply(rest.clone()), restored.apply(rest.clone()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSilentImpulseResponse() {
+        new ConvolutionReverb(new short[100], PARTITION_SIZE, 0.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRestoreStateForDifferentImpulseResponse() {
+        ConvolutionReverb reverb = new ConvolutionReverb(noise(new Random(5), 100), PARTITION_SIZE, 0.5);
+        ByteBuffer state = ByteBuffer.allocate(reverb.stateSize());
+        reverb.saveState(state);
+        state.flip();
+        new ConvolutionReverb(noise(new Random(5), 1000), PARTITION_SIZE, 0.5).restoreState(state);
+    }
+
+    private static short[] applyInOddBlocks(ConvolutionReverb reverb, short[] input) {
+        short[] result = new short[input.length];
+        int offset = 0;
+        for (int blockSize = 1; offset < input.length; blockSize = blockSize % 200 + 37) {
+            int length = Math.min(blockSize, input.length - offset);
+            short[] block = reverb.apply(Arrays.copyOfRange(input, offset, offset + length));
+            System.arraycopy(block, 0, result, offset, length);
+            offset += length;
+        }
+        return result;
+    }
+
+    private static short[] noise(Random random, int length) {
+        short[] result = new short[length];
+        for (int i = 0; i < length; i++)
+            result[i] = (short) (random.nextGaussian() * 3000);
+        return result;
+    }
+
+}
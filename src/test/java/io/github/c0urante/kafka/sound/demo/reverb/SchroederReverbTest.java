@@ -0,0 +1,58 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.reverb;
+
+import io.github.c0urante.kafka.sound.demo.AudioTestUtils;
+import io.github.c0urante.kafka.sound.demo.InteractiveTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(InteractiveTest.class)
+public class SchroederReverbTest {
+
+    @Test
+    public void testSchroederReverb_small_room() {
+        testSchroederReverb(0.3, 0.5, 0.3);
+    }
+
+    @Test
+    public void testSchroederReverb_large_room() {
+        testSchroederReverb(0.85, 0.5, 0.3);
+    }
+
+    @Test
+    public void testSchroederReverb_large_bright_room() {
+        testSchroederReverb(0.85, 0.1, 0.3);
+    }
+
+    @Test
+    public void testSchroederReverb_cathedral() {
+        testSchroederReverb(0.98, 0.2, 0.5);
+    }
+
+    @Test
+    public void testSchroederReverb_fully_wet() {
+        testSchroederReverb(0.85, 0.5, 1.0);
+    }
+
+    private void testSchroederReverb(double roomSize, double damping, double mix) {
+        SchroederReverb reverb = new SchroederReverb(roomSize, damping, mix);
+        AudioTestUtils.testAlgorithmOnFile(AudioTestUtils.QUEEN_OPENING_FILE, AudioTestUtils.batch(reverb::apply));
+    }
+
+}
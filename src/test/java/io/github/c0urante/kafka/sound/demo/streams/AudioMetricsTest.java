@@ -0,0 +1,155 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.streams.StreamsMetrics;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioMetricsTest {
+
+    private final Metrics registry = new Metrics();
+    private final StreamsMetrics streamsMetrics = new RegistryStreamsMetrics(registry);
+
+    @Test
+    public void testTimeSensor() {
+        AudioMetrics metrics = new AudioMetrics(streamsMetrics, Collections.singletonMap("processor", "effects"));
+        Sensor sensor = metrics.timeSensor("process-latency", "0-Distortion", "time", 100);
+        for (int i = 1; i <= 100; i++)
+            sensor.record(i / 10.0);
+
+        assertEquals(10.0, value("process-latency-max", "0-Distortion"), 0.0);
+        assertEquals(5.05, value("process-latency-avg", "0-Distortion"), 0.0001);
+        // The histogram is bucketed, so percentiles are only approximate
+        assertEquals(5.0, value("process-latency-p50", "0-Distortion"), 0.5);
+        assertEquals(10.0, value("process-latency-p99", "0-Distortion"), 0.5);
+        assertEquals(100.0, value("blocks-total", "0-Distortion"), 0.0);
+    }
+
+    @Test
+    public void testStagesAreSeparate() {
+        AudioMetrics metrics = new AudioMetrics(streamsMetrics, Collections.singletonMap("processor", "effects"));
+        metrics.timeSensor("process-latency", "0-Distortion", "time", 100).record(1);
+        metrics.timeSensor("process-latency", "1-Distortion", "time", 100).record(2);
+        metrics.throughputSensor("samples", null, "samples").record(441);
+
+        assertEquals(1.0, value("process-latency-max", "0-Distortion"), 0.0);
+        assertEquals(2.0, value("process-latency-max", "1-Distortion"), 0.0);
+        assertEquals(441.0, value("samples-total", null), 0.0);
+    }
+
+    @Test
+    public void testClose() {
+        AudioMetrics metrics = new AudioMetrics(streamsMetrics, Collections.singletonMap("processor", "effects"));
+        metrics.timeSensor("process-latency", "0-Distortion", "time", 100);
+        metrics.throughputSensor("samples", null, "samples");
+        metrics.close();
+
+        assertTrue(registry.metrics().keySet().stream().noneMatch(name -> AudioMetrics.GROUP.equals(name.group())));
+    }
+
+    @Test
+    public void testStageNames() {
+        assertEquals("0-Passthrough", KeyedBlockEffects.stageName(0, new Passthrough()));
+        BlockEffect anonymous = new Passthrough() { };
+        assertEquals("3-effect", KeyedBlockEffects.stageName(3, anonymous));
+    }
+
+    private double value(String name, String stage) {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("processor", "effects");
+        if (stage != null)
+            tags.put("stage", stage);
+        Metric metric = registry.metric(new MetricName(name, AudioMetrics.GROUP, "", tags));
+        return (double) metric.metricValue();
+    }
+
+    private static class Passthrough implements BlockEffect {
+        @Override
+        public short[] apply(short[] samples) {
+            return samples;
+        }
+
+        @Override
+        public BlockEffect fork() {
+            return this;
+        }
+    }
+
+    // Just enough of the real thing to register sensors with
+    private static class RegistryStreamsMetrics implements StreamsMetrics {
+        private final Metrics registry;
+
+        public RegistryStreamsMetrics(Metrics registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public Map<MetricName, ? extends Metric> metrics() {
+            return registry.metrics();
+        }
+
+        @Override
+        public Sensor addSensor(String name, Sensor.RecordingLevel recordingLevel) {
+            return registry.sensor(name, recordingLevel);
+        }
+
+        @Override
+        public Sensor addSensor(String name, Sensor.RecordingLevel recordingLevel, Sensor... parents) {
+            return registry.sensor(name, recordingLevel, parents);
+        }
+
+        @Override
+        public void removeSensor(Sensor sensor) {
+            registry.removeSensor(sensor.name());
+        }
+
+        @Override
+        public Sensor addLatencyRateTotalSensor(
+                String scopeName,
+                String entityName,
+                String operationName,
+                Sensor.RecordingLevel recordingLevel,
+                String... tags
+        ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Sensor addRateTotalSensor(
+                String scopeName,
+                String entityName,
+                String operationName,
+                Sensor.RecordingLevel recordingLevel,
+                String... tags
+        ) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
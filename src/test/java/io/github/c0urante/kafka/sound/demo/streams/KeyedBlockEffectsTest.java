@@ -0,0 +1,268 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import io.github.c0urante.kafka.sound.demo.distortion.Distortion;
+import io.github.c0urante.kafka.sound.demo.loop.Loop;
+import io.github.c0urante.kafka.sound.demo.reverb.Reverb;
+import io.github.c0urante.kafka.sound.demo.reverb.SchroederReverb;
+import org.apache.kafka.streams.kstream.ValueTransformerWithKey;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KeyedBlockEffectsTest {
+
+    @Test
+    public void testStatePerKey() {
+        KeyedBlockEffects effects = new KeyedBlockEffects(new Counter());
+        ValueTransformerWithKey<byte[], short[], short[]> transformer = effects.get();
+
+        assertArrayEquals(new short[] {1, 1}, transformer.transform(new byte[] {1}, new short[2]));
+        assertArrayEquals(new short[] {2, 2}, transformer.transform(new byte[] {1}, new short[2]));
+        assertArrayEquals(new short[] {1, 1}, transformer.transform(new byte[] {2}, new short[2]));
+        assertArrayEquals(new short[] {1, 1}, transformer.transform(null, new short[2]));
+        assertArrayEquals(new short[] {2, 2}, transformer.transform(null, new short[2]));
+        assertArrayEquals(new short[] {3, 3}, transformer.transform(new byte[] {1}, new short[2]));
+    }
+
+    @Test
+    public void testStatePerTask() {
+        KeyedBlockEffects effects = new KeyedBlockEffects(new Counter());
+        ValueTransformerWithKey<byte[], short[], short[]> first = effects.get();
+        ValueTransformerWithKey<byte[], short[], short[]> second = effects.get();
+
+        assertArrayEquals(new short[] {1}, first.transform(new byte[] {1}, new short[1]));
+        assertArrayEquals(new short[] {1}, second.transform(new byte[] {1}, new short[1]));
+    }
+
+    @Test
+    public void testChainOrder() {
+        KeyedBlockEffects effects = new KeyedBlockEffects(new Counter(), new Doubler());
+        assertEquals(2, effects.get().transform(null, new short[1])[0]);
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() {
+        BlockEffect[] original = new BlockEffect[] {
+                new Reverb(0.8, 23, 29, 31).fork(),
+                new Distortion().fork(),
+                new SchroederReverb(0.8, 0.5, 0.5).fork()
+        };
+        BlockEffect[] restored = new BlockEffect[original.length];
+        for (int i = 0; i < original.length; i++)
+            restored[i] = original[i].fork();
+
+        Random random = new Random(1234);
+        for (int block = 0; block < 10; block++)
+            run(original, noise(random));
+
+        ByteBuffer snapshot = KeyedBlockEffects.serialize(original);
+        KeyedBlockEffects.deserialize(restored, snapshot);
+        assertEquals(0, snapshot.remaining());
+
+        short[] block = noise(random);
+        assertArrayEquals(run(original, block.clone()), run(restored, block.clone()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSnapshotMismatch() {
+        ByteBuffer snapshot = KeyedBlockEffects.serialize(new BlockEffect[] {new Reverb(0.8, 23, 29)});
+        KeyedBlockEffects.deserialize(new BlockEffect[] {new Reverb(0.8, 23, 31)}, snapshot);
+    }
+
+    @Test
+    public void testSnapshotBufferReuse() {
+        BlockEffect[] effects = new BlockEffect[] {new Reverb(0.8, 23, 29).fork()};
+        ByteBuffer first = KeyedBlockEffects.serialize(effects);
+        assertSame(first, KeyedBlockEffects.serialize(effects, first));
+        assertEquals(first.limit(), KeyedBlockEffects.serialize(effects, ByteBuffer.allocate(1 << 16)).remaining());
+    }
+
+    @Test
+    public void testChunksRoundTrip() {
+        Map<Integer, byte[]> store = new HashMap<>();
+        ByteBuffer snapshot = snapshot(KeyedBlockEffects.MAX_CHUNK_SIZE * 2 + 100, 1);
+
+        assertTrue(new KeyedBlockEffects.SnapshotChunks().write(snapshot, store(store)));
+        assertEquals(3, store.size());
+        assertEquals(snapshot, new KeyedBlockEffects.SnapshotChunks().read(store::get));
+    }
+
+    @Test
+    public void testUnchangedSnapshotsAreSkipped() {
+        Map<Integer, byte[]> store = new HashMap<>();
+        KeyedBlockEffects.SnapshotChunks chunks = new KeyedBlockEffects.SnapshotChunks();
+        assertTrue(chunks.write(snapshot(100, 1), store(store)));
+        assertFalse(chunks.write(snapshot(100, 1), store(store)));
+        assertTrue(chunks.write(snapshot(100, 2), store(store)));
+    }
+
+    @Test
+    public void testLeftoverChunksAreDeleted() {
+        Map<Integer, byte[]> store = new HashMap<>();
+        KeyedBlockEffects.SnapshotChunks chunks = new KeyedBlockEffects.SnapshotChunks();
+        chunks.write(snapshot(KeyedBlockEffects.MAX_CHUNK_SIZE * 2 + 100, 1), store(store));
+        chunks.write(snapshot(100, 2), store(store));
+        assertEquals(1, store.size());
+        assertEquals(snapshot(100, 2), new KeyedBlockEffects.SnapshotChunks().read(store::get));
+    }
+
+    @Test
+    public void testTornSnapshotIsRejected() {
+        int size = KeyedBlockEffects.MAX_CHUNK_SIZE * 2 + 100;
+        Map<Integer, byte[]> store = new HashMap<>();
+        KeyedBlockEffects.SnapshotChunks chunks = new KeyedBlockEffects.SnapshotChunks();
+        chunks.write(snapshot(size, 1), store(store));
+
+        // Crash right after writing the first chunk of the next snapshot, which is the same size
+        Map<Integer, byte[]> torn = new HashMap<>(store);
+        chunks.write(snapshot(size, 2), (chunk, value) -> {
+            if (chunk == 0)
+                torn.put(chunk, value);
+        });
+        assertNull(new KeyedBlockEffects.SnapshotChunks().read(torn::get));
+    }
+
+    @Test
+    public void testBogusChunkCountIsRejected() {
+        Map<Integer, byte[]> store = new HashMap<>();
+        store.put(0, ByteBuffer.allocate(16).putLong(1).putInt(Integer.MAX_VALUE).array());
+        assertNull(new KeyedBlockEffects.SnapshotChunks().read(store::get));
+    }
+
+    @Test
+    public void testNonSnapshottedEffectsAreSkipped() {
+        SelfPersisted effect = new SelfPersisted();
+        ByteBuffer snapshot = KeyedBlockEffects.serialize(new BlockEffect[] {effect});
+        assertEquals(Integer.BYTES, snapshot.remaining());
+        assertNull(new KeyedBlockEffects(effect).stores());
+        assertNull(new KeyedBlockEffects("store", Duration.ofSeconds(1), effect).stores());
+    }
+
+    @Test
+    public void testLoopsAreSnapshotted() {
+        assertNotNull(new KeyedBlockEffects("store", Duration.ofSeconds(1), new Loop(1)).stores());
+    }
+
+    private static ByteBuffer snapshot(int size, int seed) {
+        byte[] result = new byte[size];
+        new Random(seed).nextBytes(result);
+        return ByteBuffer.wrap(result);
+    }
+
+    private static BiConsumer<Integer, byte[]> store(Map<Integer, byte[]> store) {
+        return (chunk, value) -> {
+            if (value != null) {
+                store.put(chunk, value);
+            } else {
+                store.remove(chunk);
+            }
+        };
+    }
+
+    private static short[] run(BlockEffect[] effects, short[] block) {
+        for (BlockEffect effect : effects)
+            block = effect.apply(block);
+        return block;
+    }
+
+    private static short[] noise(Random random) {
+        short[] result = new short[512];
+        for (int i = 0; i < result.length; i++)
+            result[i] = (short) random.nextInt(1 << 14);
+        return result;
+    }
+
+    private static class Counter implements BlockEffect {
+        private short count = 0;
+
+        @Override
+        public short[] apply(short[] samples) {
+            count++;
+            for (int i = 0; i < samples.length; i++)
+                samples[i] += count;
+            return samples;
+        }
+
+        @Override
+        public BlockEffect fork() {
+            return new Counter();
+        }
+    }
+
+    private static class SelfPersisted implements StatefulBlockEffect {
+        @Override
+        public short[] apply(short[] samples) {
+            return samples;
+        }
+
+        @Override
+        public BlockEffect fork() {
+            return new SelfPersisted();
+        }
+
+        @Override
+        public int stateSize() {
+            return 1;
+        }
+
+        @Override
+        public void saveState(ByteBuffer destination) {
+            destination.put((byte) 1);
+        }
+
+        @Override
+        public void restoreState(ByteBuffer source) {
+            source.get();
+        }
+
+        @Override
+        public boolean snapshotted() {
+            return false;
+        }
+    }
+
+    private static class Doubler implements BlockEffect {
+        @Override
+        public short[] apply(short[] samples) {
+            for (int i = 0; i < samples.length; i++)
+                samples[i] *= 2;
+            return samples;
+        }
+
+        @Override
+        public BlockEffect fork() {
+            return this;
+        }
+    }
+
+}
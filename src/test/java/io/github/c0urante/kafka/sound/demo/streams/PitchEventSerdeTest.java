@@ -0,0 +1,65 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import io.github.c0urante.kafka.sound.demo.pitch.PitchEvent;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PitchEventSerdeTest {
+
+    private static final String TOPIC = "pitches";
+
+    private final Serializer<PitchEvent> serializer = new PitchEventSerde().serializer();
+    private final Deserializer<PitchEvent> deserializer = new PitchEventSerde().deserializer();
+
+    @Test
+    public void testRoundTrip() {
+        PitchEvent noteOn = new PitchEvent(PitchEvent.Type.NOTE_ON, 1L << 40, 127, 12543.85f, -12.5f, 0.97f);
+        PitchEvent noteOff = noteOn.noteOff((1L << 40) + 44100);
+        for (PitchEvent event : new PitchEvent[] {noteOn, noteOff}) {
+            byte[] serialized = serializer.serialize(TOPIC, event);
+            assertEquals(PitchEventSerde.SERIALIZED_SIZE, serialized.length);
+            assertEquals(event, deserializer.deserialize(TOPIC, serialized));
+        }
+    }
+
+    @Test
+    public void testNull() {
+        assertNull(serializer.serialize(TOPIC, null));
+        assertNull(deserializer.deserialize(TOPIC, null));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testWrongSize() {
+        deserializer.deserialize(TOPIC, new byte[PitchEventSerde.SERIALIZED_SIZE - 1]);
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testUnknownType() {
+        byte[] serialized = new byte[PitchEventSerde.SERIALIZED_SIZE];
+        serialized[0] = 2;
+        deserializer.deserialize(TOPIC, serialized);
+    }
+
+}
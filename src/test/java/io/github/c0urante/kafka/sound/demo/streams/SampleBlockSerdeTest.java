@@ -0,0 +1,103 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.streams;
+
+import io.github.c0urante.kafka.sound.demo.util.AudioFormats;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SampleBlockSerdeTest {
+
+    private static final String TOPIC = "sound";
+    private static final short[] SAMPLES = new short[] {0, 1, -1, 1000, -1000, Short.MAX_VALUE, Short.MIN_VALUE};
+
+    private final Serializer<short[]> serializer = new SampleBlockSerde().serializer();
+    private final Deserializer<short[]> deserializer = new SampleBlockSerde().deserializer();
+
+    @Test
+    public void testRoundTripWithHeaders() {
+        Headers headers = new RecordHeaders();
+        byte[] serialized = serializer.serialize(TOPIC, headers, SAMPLES);
+        assertEquals(SAMPLES.length * 2, serialized.length);
+        assertNotNull(headers.lastHeader(SampleBlockSerde.FORMAT_HEADER));
+        assertArrayEquals(SAMPLES, deserializer.deserialize(TOPIC, headers, serialized));
+    }
+
+    @Test
+    public void testExistingFormatHeaderIsReplaced() {
+        Headers headers = new RecordHeaders();
+        serializer.serialize(TOPIC, headers, SAMPLES);
+        serializer.serialize(TOPIC, headers, SAMPLES);
+        int formatHeaders = 0;
+        for (Header header : headers.headers(SampleBlockSerde.FORMAT_HEADER)) {
+            formatHeaders++;
+        }
+        assertEquals(1, formatHeaders);
+    }
+
+    @Test
+    public void testMissingHeadersUseDefaultFormat() {
+        byte[] serialized = serializer.serialize(TOPIC, SAMPLES);
+        assertArrayEquals(SAMPLES, deserializer.deserialize(TOPIC, new RecordHeaders(), serialized));
+        assertArrayEquals(SAMPLES, deserializer.deserialize(TOPIC, serialized));
+    }
+
+    @Test
+    public void testBigEndian() {
+        Headers headers = new RecordHeaders();
+        headers.add(SampleBlockSerde.FORMAT_HEADER, SampleBlockSerde.encodeFormat(
+                AudioFormats.SAMPLE_RATE, AudioFormats.SAMPLE_SIZE, AudioFormats.CHANNELS_COUNT, true
+        ));
+        byte[] bigEndian = new byte[] {0x01, 0x02, (byte) 0x80, 0x00};
+        assertArrayEquals(
+                new short[] {0x0102, Short.MIN_VALUE},
+                deserializer.deserialize(TOPIC, headers, bigEndian)
+        );
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testUnsupportedSampleRate() {
+        Headers headers = new RecordHeaders();
+        headers.add(SampleBlockSerde.FORMAT_HEADER, SampleBlockSerde.encodeFormat(
+                48000, AudioFormats.SAMPLE_SIZE, AudioFormats.CHANNELS_COUNT, AudioFormats.BIG_ENDIAN
+        ));
+        deserializer.deserialize(TOPIC, headers, new byte[4]);
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testOddLength() {
+        deserializer.deserialize(TOPIC, new byte[3]);
+    }
+
+    @Test
+    public void testNulls() {
+        assertNull(serializer.serialize(TOPIC, new RecordHeaders(), null));
+        assertNull(deserializer.deserialize(TOPIC, new RecordHeaders(), null));
+    }
+
+}
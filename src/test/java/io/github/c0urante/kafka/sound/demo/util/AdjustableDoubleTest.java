@@ -0,0 +1,103 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AdjustableDoubleTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testSetNow() {
+        AdjustableDouble value = new AdjustableDouble(0, 10, 1);
+        value.setNow(5);
+        assertEquals(5, value.current(), DELTA);
+        assertEquals(5, value.next(), DELTA);
+    }
+
+    @Test
+    public void testAdjustNowIsBounded() {
+        AdjustableDouble value = new AdjustableDouble(0, 10, 8);
+        assertEquals(10, value.adjustNow(d -> d * 2), DELTA);
+        assertEquals(10, value.next(), DELTA);
+    }
+
+    @Test
+    public void testSetDelayed() {
+        AdjustableDouble value = new AdjustableDouble(0, 10, 0);
+        value.setDelayed(4, 4);
+        assertEquals(1, value.next(), DELTA);
+        assertEquals(2, value.next(), DELTA);
+        assertEquals(3, value.next(), DELTA);
+        assertEquals(4, value.next(), DELTA);
+        assertEquals(4, value.next(), DELTA);
+    }
+
+    @Test
+    public void testSetNowThenSetDelayedBeforeNext() {
+        AdjustableDouble value = new AdjustableDouble(0, 10, 0);
+        value.setNow(8);
+        value.setDelayed(4, 4);
+        assertEquals(7, value.next(), DELTA);
+    }
+
+    @Test
+    public void testAdjustDelayedBuildsOnGoal() {
+        AdjustableDouble value = new AdjustableDouble(0, 10, 1);
+        value.setDelayed(5, 100);
+        assertEquals(7, value.adjustDelayed(d -> d + 2, 100), DELTA);
+    }
+
+    @Test
+    public void testRampMatchesNext() {
+        AdjustableDouble ramped = new AdjustableDouble(0, 10, 2);
+        AdjustableDouble stepped = new AdjustableDouble(0, 10, 2);
+        ramped.setDelayed(9, 7);
+        stepped.setDelayed(9, 7);
+
+        double[] expected = new double[10];
+        for (int i = 0; i < expected.length; i++)
+            expected[i] = stepped.next();
+        double[] actual = new double[10];
+        assertEquals(9, ramped.ramp(actual, actual.length), DELTA);
+        assertArrayEquals(expected, actual, DELTA);
+    }
+
+    @Test
+    public void testAdvanceMatchesNext() {
+        AdjustableDouble advanced = new AdjustableDouble(0, 10, 2);
+        AdjustableDouble stepped = new AdjustableDouble(0, 10, 2);
+        advanced.setDelayed(9, 7);
+        stepped.setDelayed(9, 7);
+
+        stepped.next();
+        stepped.next();
+        assertEquals(stepped.next(), advanced.advance(3), DELTA);
+        assertEquals(9, advanced.advance(100), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDelay() {
+        new AdjustableDouble(0, 10, 1).setDelayed(5, 0);
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FftTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void testImpulse() {
+        Fft fft = new Fft(8);
+        double[] real = new double[8];
+        double[] imaginary = new double[8];
+        real[0] = 1;
+        fft.forward(real, imaginary);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(1, real[i], EPSILON);
+            assertEquals(0, imaginary[i], EPSILON);
+        }
+    }
+
+    @Test
+    public void testMatchesNaiveTransform() {
+        int size = 32;
+        Random random = new Random(1);
+        double[] real = new double[size];
+        double[] imaginary = new double[size];
+        for (int i = 0; i < size; i++) {
+            real[i] = random.nextDouble() - 0.5;
+            imaginary[i] = random.nextDouble() - 0.5;
+        }
+        double[] expectedReal = new double[size];
+        double[] expectedImaginary = new double[size];
+        for (int k = 0; k < size; k++) {
+            for (int n = 0; n < size; n++) {
+                double angle = -2 * Math.PI * k * n / size;
+                expectedReal[k] += real[n] * Math.cos(angle) - imaginary[n] * Math.sin(angle);
+                expectedImaginary[k] += real[n] * Math.sin(angle) + imaginary[n] * Math.cos(angle);
+            }
+        }
+
+        new Fft(size).forward(real, imaginary);
+        for (int k = 0; k < size; k++) {
+            assertEquals(expectedReal[k], real[k], EPSILON);
+            assertEquals(expectedImaginary[k], imaginary[k], EPSILON);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        int size = 1024;
+        Random random = new Random(2);
+        double[] original = new double[size];
+        for (int i = 0; i < size; i++)
+            original[i] = random.nextGaussian();
+        double[] real = original.clone();
+        double[] imaginary = new double[size];
+
+        Fft fft = new Fft(size);
+        fft.forward(real, imaginary);
+        fft.inverse(real, imaginary);
+        for (int i = 0; i < size; i++) {
+            assertEquals(original[i], real[i], EPSILON);
+            assertEquals(0, imaginary[i], EPSILON);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizeMustBePowerOfTwo() {
+        new Fft(48);
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PitchUtilsTest {
+
+    @Test
+    public void testMidiNote() {
+        assertEquals(69, PitchUtils.midiNote(440));
+        assertEquals(60, PitchUtils.midiNote(261.63));
+        assertEquals(36, PitchUtils.midiNote(65.41));
+        // Slightly flat, but still closest to A4
+        assertEquals(69, PitchUtils.midiNote(432));
+    }
+
+    @Test
+    public void testCents() {
+        assertEquals(0, PitchUtils.cents(440), 0.001);
+        assertEquals(0, PitchUtils.cents(880), 0.001);
+        assertEquals(-31.77, PitchUtils.cents(432), 0.01);
+        assertEquals(3.93, PitchUtils.cents(441), 0.01);
+    }
+
+    @Test
+    public void testName() {
+        assertEquals("A", PitchUtils.name(69));
+        assertEquals("C", PitchUtils.name(60));
+        assertEquals("G#", PitchUtils.name(68));
+        assertEquals("E", PitchUtils.name(28));
+    }
+
+    @Test
+    public void testPitch() {
+        assertEquals("A", PitchUtils.pitch(440));
+        assertEquals("A", PitchUtils.pitch(110));
+        assertEquals("C", PitchUtils.pitch(65.41));
+        assertEquals("Bb", PitchUtils.pitch(466.16));
+    }
+
+}
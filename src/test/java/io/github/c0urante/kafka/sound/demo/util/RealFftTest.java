@@ -0,0 +1,75 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class RealFftTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void testMatchesComplexTransform() {
+        for (int size : new int[] {4, 8, 64, 1024}) {
+            Random random = new Random(size);
+            double[] signal = new double[size];
+            for (int i = 0; i < size; i++)
+                signal[i] = random.nextGaussian();
+            double[] expectedReal = signal.clone();
+            double[] expectedImaginary = new double[size];
+            new Fft(size).forward(expectedReal, expectedImaginary);
+
+            RealFft fft = new RealFft(size);
+            double[] real = new double[fft.bins()];
+            double[] imaginary = new double[fft.bins()];
+            fft.forward(signal, real, imaginary);
+            for (int k = 0; k < fft.bins(); k++) {
+                assertEquals(expectedReal[k], real[k], EPSILON);
+                assertEquals(expectedImaginary[k], imaginary[k], EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        int size = 512;
+        Random random = new Random(3);
+        double[] original = new double[size];
+        for (int i = 0; i < size; i++)
+            original[i] = random.nextGaussian();
+
+        RealFft fft = new RealFft(size);
+        double[] real = new double[fft.bins()];
+        double[] imaginary = new double[fft.bins()];
+        double[] signal = new double[size];
+        fft.forward(original, real, imaginary);
+        fft.inverse(real, imaginary, signal);
+        for (int i = 0; i < size; i++)
+            assertEquals(original[i], signal[i], EPSILON);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizeMustBePowerOfTwo() {
+        new RealFft(48);
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SampleUtilsTest {
+
+    private static final short[] SAMPLES = new short[] {
+            0, 1, -1, 255, 256, -256, 12345, -12345, Short.MAX_VALUE, Short.MIN_VALUE
+    };
+
+    @Test
+    public void testDecodeSampleBlock() {
+        byte[] encoded = new byte[] {
+                0x00, 0x00,
+                0x01, 0x00,
+                (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x00,
+                0x00, 0x01,
+                0x00, (byte) 0xFF,
+                0x39, 0x30,
+                (byte) 0xC7, (byte) 0xCF,
+                (byte) 0xFF, 0x7F,
+                0x00, (byte) 0x80
+        };
+        assertArrayEquals(SAMPLES, SampleUtils.decodeSampleBlock(encoded));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        byte[] encoded = SampleUtils.encodeSampleBlock(SAMPLES);
+        assertArrayEquals(SAMPLES, SampleUtils.decodeSampleBlock(encoded));
+    }
+
+    @Test
+    public void testListWrappersMatchBlockMethods() {
+        byte[] encoded = SampleUtils.encodeSampleBlock(SAMPLES);
+        List<Short> decoded = SampleUtils.decodeSamples(encoded);
+        assertEquals(SAMPLES.length, decoded.size());
+        for (int i = 0; i < SAMPLES.length; i++) {
+            assertEquals(SAMPLES[i], (short) decoded.get(i));
+        }
+        assertArrayEquals(encoded, SampleUtils.encodeSamples(decoded));
+    }
+
+    @Test
+    public void testDecodeIntoReusedBuffer() {
+        byte[] encoded = SampleUtils.encodeSampleBlock(SAMPLES);
+        short[] destination = new short[SAMPLES.length + 4];
+        Arrays.fill(destination, (short) 42);
+
+        assertEquals(SAMPLES.length, SampleUtils.decodeSamplesInto(encoded, destination));
+        assertArrayEquals(SAMPLES, Arrays.copyOf(destination, SAMPLES.length));
+        assertEquals(42, destination[SAMPLES.length]);
+
+        // Decode part of the encoded array into the middle of the destination
+        SampleUtils.decodeSamplesInto(encoded, 4, 6, destination, 2);
+        assertEquals(SAMPLES[2], destination[2]);
+        assertEquals(SAMPLES[4], destination[4]);
+    }
+
+    @Test
+    public void testEncodeIntoPooledBuffer() {
+        byte[] expected = SampleUtils.encodeSampleBlock(SAMPLES);
+        byte[] pooled = new byte[expected.length];
+        // Make sure that stale contents are overwritten
+        Arrays.fill(pooled, (byte) 7);
+        assertArrayEquals(expected, SampleUtils.encodeSamplesInto(SAMPLES, pooled));
+
+        byte[] offset = new byte[6];
+        SampleUtils.encodeSamplesInto(SAMPLES, 8, 2, offset, 2);
+        assertArrayEquals(new byte[] {0, 0, (byte) 0xFF, 0x7F, 0x00, (byte) 0x80}, offset);
+    }
+
+    @Test
+    public void testBufferCodec() {
+        ByteBuffer encoded = ByteBuffer.allocate(SAMPLES.length * 2);
+        SampleUtils.encodeSamplesInto(ShortBuffer.wrap(SAMPLES), encoded);
+        assertEquals(encoded.capacity(), encoded.position());
+        encoded.flip();
+
+        ShortBuffer decoded = ShortBuffer.allocate(SAMPLES.length);
+        SampleUtils.decodeSamplesInto(encoded, decoded);
+        assertEquals(0, encoded.remaining());
+        assertArrayEquals(SAMPLES, decoded.array());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOddLength() {
+        SampleUtils.decodeSampleBlock(new byte[3]);
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * kafka-sound-demo - Audio-based demonstration of Kafka, Kafka Connect, and Kafka Streams
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.c0urante.kafka.sound.demo.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TuningTest {
+
+    @Test
+    public void testNotes() {
+        assertEquals("A4", Tuning.A440.note(440).toString());
+        assertEquals("C4", Tuning.A440.note(261.63).toString());
+        assertEquals("B3", Tuning.A440.note(246.94).toString());
+        assertEquals("C2", Tuning.A440.note(65.41).toString());
+        assertEquals("E1", Tuning.A440.note(41.20).toString());
+        assertEquals("Bb4", Tuning.A440.note(466.16).toString());
+        // Just below and just above the boundary between A4 and Bb4 (a quarter tone above A4)
+        assertEquals("A4", Tuning.A440.note(452.8).toString());
+        assertEquals("Bb4", Tuning.A440.note(452.9).toString());
+    }
+
+    @Test
+    public void testNotesAreShared() {
+        assertSame(Tuning.A440.note(440), Tuning.A440.note(441));
+        assertSame(Note.of(69), Tuning.A440.note(440));
+    }
+
+    @Test
+    public void testReferencePitch() {
+        Tuning baroque = new Tuning(415);
+        assertEquals("A4", baroque.note(415).toString());
+        assertEquals(0, baroque.cents(415), 0.001);
+        // A440 is (just about) a half step sharp in baroque tuning
+        assertEquals("Bb4", baroque.note(440).toString());
+        assertEquals(1.3, baroque.cents(440), 0.1);
+    }
+
+    @Test
+    public void testRead() {
+        Tuning.Reading reading = new Tuning.Reading();
+        assertSame(reading, Tuning.A440.read(432, reading));
+        assertEquals(69, reading.note().midiNote);
+        assertEquals(-31.77, reading.cents(), 0.01);
+
+        Tuning.A440.read(65.41, reading);
+        assertEquals(36, reading.note().midiNote);
+        assertEquals(2, reading.note().octave);
+        assertEquals("C", reading.note().name);
+    }
+
+    @Test
+    public void testExtremes() {
+        // Past the ends of the table, there's no note at all (instead of one that's wildly out of tune)
+        assertNull(Tuning.A440.note(Double.MIN_VALUE));
+        assertNull(Tuning.A440.note(Double.MAX_VALUE));
+        assertTrue(Double.isNaN(Tuning.A440.cents(Double.MAX_VALUE)));
+
+        Tuning.Reading reading = Tuning.A440.read(Double.MAX_VALUE, new Tuning.Reading());
+        assertNull(reading.note());
+        assertTrue(Double.isNaN(reading.cents()));
+
+        // But right at the ends, there is
+        assertEquals(Note.MIN_MIDI_NOTE, Tuning.A440.note(440 * Math.pow(2, (Note.MIN_MIDI_NOTE - 69) / 12.0)).midiNote);
+        assertEquals(Note.MAX_MIDI_NOTE, Tuning.A440.note(440 * Math.pow(2, (Note.MAX_MIDI_NOTE - 69) / 12.0)).midiNote);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFrequency() {
+        Tuning.A440.note(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidReference() {
+        new Tuning(-440);
+    }
+
+}